@@ -24,6 +24,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 
+import java.nio.CharBuffer;
+
+import java.util.concurrent.ForkJoinPool;
+
 import xtc.Constants;
 import xtc.Limits;
 
@@ -39,6 +43,7 @@ import xtc.tree.Visitor;
 import xtc.type.CFactory;
 import xtc.type.TypePrinter;
 
+import xtc.util.Metrics;
 import xtc.util.SymbolTable;
 import xtc.util.Tool;
 
@@ -59,6 +64,12 @@ public class C extends Tool {
   /** The method for printing the parser's memoization table. */
   protected Method dump;
 
+  /**
+   * The fork/join pool for parsing in parallel.  The pool only starts
+   * worker threads when parsing in parallel.
+   */
+  protected final ForkJoinPool pool = new ForkJoinPool();
+
   /** Create a new C tool. */
   public C() {
     /* Nothing to do. */
@@ -79,6 +90,8 @@ public class C extends Tool {
            "Generate a parse tree.").
       bool("noincr", "optionNoIncr", false,
            "Do not parse incrementally.").
+      bool("parallel", "optionParallel", false,
+           "Parse top-level declarations in parallel.").
       bool("memoProfile", "printMemoProfile", false,
            "Print profile of parser's memoization table.").
       bool("memoTable", "printMemoTable", false,
@@ -111,7 +124,9 @@ public class C extends Tool {
       bool("preserveLines", "preserveLines", false,
            "Preserve line spacing when printing C source.").
       bool("formatGNU", "formatGNU", false,
-           "Use GNU source formatting guidelines.");
+           "Use GNU source formatting guidelines.").
+      bool("compactSource", "compactSource", false,
+           "Print C source without fitting it onto lines.");
   }
 
   public void prepare() {
@@ -192,6 +207,11 @@ public class C extends Tool {
         runtime.error("formatGNU option requires printSource option");
       }
     }
+    if (runtime.test("compactSource")) {
+      if (! runtime.test("printSource")) {
+        runtime.error("compactSource option requires printSource option");
+      }
+    }
   }
 
   public void diagnose() {
@@ -278,22 +298,76 @@ public class C extends Tool {
       
   public File locate(String name) throws IOException {
     File file = super.locate(name);
-    if (runtime.test("optionNoIncr") && (Integer.MAX_VALUE < file.length())) {
+    if ((runtime.test("optionNoIncr") || runtime.test("optionParallel")) &&
+        (Integer.MAX_VALUE < file.length())) {
       throw new IllegalArgumentException(file + ": file too large");
     }
     return file;
   }
 
+  public boolean isBuffered(File file) {
+    // Incremental parsing discards consumed input through resetTo(),
+    // so reading the file keeps memory bounded by the current window.
+    // Parsing in parallel, however, requires the entire input.
+    return (runtime.test("optionNoIncr") || runtime.test("optionParallel")) &&
+      file.isFile();
+  }
+
+  public boolean isCacheable() {
+    // Printing the memoization table happens while parsing.
+    return (! runtime.test("printMemoProfile")) &&
+      (! runtime.test("printMemoTable"));
+  }
+
+  protected String getCacheConfiguration() {
+    return super.getCacheConfiguration() +
+      " parsetree=" + runtime.test("optionParseTree") +
+      " noincr=" + runtime.test("optionNoIncr");
+  }
+
   public Node parse(Reader in, File file) throws IOException, ParseException {
+    return parse(in, null, file);
+  }
+
+  public Node parse(CharBuffer in, File file)
+    throws IOException, ParseException {
+    if (runtime.test("optionParallel") &&
+        (! runtime.test("optionParseTree")) &&
+        (! runtime.test("optionNoIncr")) &&
+        (! runtime.test("printMemoProfile")) &&
+        (! runtime.test("printMemoTable"))) {
+      return new CParallelParser(pool, in, file.getName()).parse();
+    }
+    return parse(null, in, file);
+  }
+
+  /**
+   * Parse the specified file from either a reader or a buffer.
+   *
+   * @param in The reader or <code>null</code> if parsing from the
+   *   buffer.
+   * @param buffer The buffer or <code>null</code> if parsing from
+   *   the reader.
+   * @param file The corresponding file.
+   * @return The AST.
+   * @throws IOException Signals an I/O error.
+   * @throws ParseException Signals a parse error.
+   */
+  private Node parse(Reader in, CharBuffer buffer, File file)
+    throws IOException, ParseException {
     if (runtime.test("optionParseTree")) { // ======================== Reader
       if (runtime.test("optionNoIncr")) {
-        CReader parser = new CReader(in, file.toString(), (int)file.length());
+        CReader parser = (null == buffer) ?
+          new CReader(in, file.toString(), (int)file.length()) :
+          new CReader(buffer, file.toString());
         Result  result = parser.pTranslationUnit(0);
         printMemoInfo(parser, file);
+        recordMemoization(parser);
         return (Node)parser.value(result);
 
       } else {
-        CReader parser = new CReader(in, file.getName());
+        CReader parser = (null == buffer) ?
+          new CReader(in, file.getName()) : new CReader(buffer, file.getName());
         GNode   unit   = GNode.create("TranslationUnit");
         unit.setLocation(new Location(file.toString(), 1, 0));
         Node    root   = unit;
@@ -318,18 +392,23 @@ public class C extends Tool {
         Result result = parser.pAnnotations(0);
         if (! result.hasValue()) parser.signal(result.parseError());
         unit.add(result.semanticValue());
+        recordMemoization(parser);
 
         return root;
       }
 
     } else if (runtime.test("optionNoIncr")) { // ==================== Parser
-      CParser parser = new CParser(in, file.toString(), (int)file.length());
+      CParser parser = (null == buffer) ?
+        new CParser(in, file.toString(), (int)file.length()) :
+        new CParser(buffer, file.toString());
       Result  result = parser.pTranslationUnit(0);
       printMemoInfo(parser, file);
+      recordMemoization(parser);
       return (Node)parser.value(result);
 
     } else {
-      CParser parser = new CParser(in, file.getName());
+      CParser parser = (null == buffer) ?
+        new CParser(in, file.getName()) : new CParser(buffer, file.getName());
       GNode   root   = GNode.create("TranslationUnit");
       boolean first  = true;
 
@@ -351,6 +430,7 @@ public class C extends Tool {
       Result result = parser.pAnnotations(0);
       if (! result.hasValue()) parser.signal(result.parseError());
       root.add(result.semanticValue());
+      recordMemoization(parser);
 
       return root;
     }
@@ -385,7 +465,8 @@ public class C extends Tool {
   public void process(Node node) {
     // Analyze the AST.
     if (runtime.test("optionAnalyze")) {
-      SymbolTable table;
+      final Metrics.Timer timer = runtime.metrics().start("CAnalyzer");
+      SymbolTable         table;
 
       if (runtime.test("optionTypical")) {
         // Analyze and fill in the symbol table.
@@ -403,6 +484,7 @@ public class C extends Tool {
         // Perform type checking.
         new CAnalyzer(runtime).analyze(node, table);
       }
+      timer.stop();
 
       // Print the symbol table.
       if (runtime.test("printSymbolTable")) {
@@ -450,10 +532,18 @@ public class C extends Tool {
       if (runtime.test("optionParseTree") && (! runtime.test("optionStrip"))) {
         new ParseTreePrinter(runtime.console()).dispatch(node);
       } else {
-        new CPrinter(runtime.console(),
+        final Metrics.Timer timer   = runtime.metrics().start("CPrinter");
+        final Printer       console = runtime.console();
+        final boolean       layout  = console.layout();
+
+        // Compact source need not be laid out for humans.
+        console.layout(! runtime.test("compactSource"));
+        new CPrinter(console,
                      runtime.test("preserveLines"),
                      runtime.test("formatGNU")).
           dispatch(node);
+        console.layout(layout);
+        timer.stop();
       }
       runtime.console().flush();
     }
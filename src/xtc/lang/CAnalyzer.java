@@ -71,6 +71,7 @@ import xtc.util.SymbolTable;
 import xtc.util.SymbolTable.Scope;
 import xtc.util.Runtime;
 import xtc.util.SingletonIterator;
+import xtc.util.SymbolKey;
 import xtc.util.Utilities;
 
 /**
@@ -855,12 +856,12 @@ public class CAnalyzer extends Visitor {
         multipleTypes();
       } else {
         String tag  = n.getString(1);
-        String name;
+        SymbolKey name;
         if (null == tag) {
           tag  = table.freshName("tag");
-          name = tag;
+          name = SymbolKey.of(tag);
         } else {
-          name = SymbolTable.toTagName(tag);
+          name = tags.key(tag);
         }
         
         if (table.current().isDefinedLocally(name)) {
@@ -926,7 +927,7 @@ public class CAnalyzer extends Visitor {
         multipleTypes();
       } else {
         final String tag  = n.getString(1);
-        final String name = SymbolTable.toTagName(tag);
+        final SymbolKey name = tags.key(tag);
 
         if ((refIsDecl && table.current().isDefinedLocally(name)) ||
             ((! refIsDecl) && table.isDefined(name))) {
@@ -970,12 +971,12 @@ public class CAnalyzer extends Visitor {
         multipleTypes();
       } else {
         String tag  = n.getString(1);
-        String name;
+        SymbolKey name;
         if (null == tag) {
           tag  = table.freshName("tag");
-          name = tag;
+          name = SymbolKey.of(tag);
         } else {
-          name = SymbolTable.toTagName(tag);
+          name = tags.key(tag);
         }
         
         if (table.current().isDefinedLocally(name)) {
@@ -1041,7 +1042,7 @@ public class CAnalyzer extends Visitor {
         multipleTypes();
       } else {
         final String tag  = n.getString(1);
-        final String name = SymbolTable.toTagName(tag);
+        final SymbolKey name = tags.key(tag);
 
         if ((refIsDecl && table.current().isDefinedLocally(name)) ||
             ((! refIsDecl) && table.isDefined(name))) {
@@ -1085,12 +1086,12 @@ public class CAnalyzer extends Visitor {
         multipleTypes();
       } else {
         String tag  = n.getString(1);
-        String name;
+        SymbolKey name;
         if (null == tag) {
           tag  = table.freshName("tag");
-          name = tag;
+          name = SymbolKey.of(tag);
         } else {
-          name = SymbolTable.toTagName(tag);
+          name = tags.key(tag);
         }
 
         if (table.current().isDefinedLocally(name)) {
@@ -1236,7 +1237,7 @@ public class CAnalyzer extends Visitor {
         multipleTypes();
       } else {
         final String tag  = n.getString(1);
-        final String name = SymbolTable.toTagName(tag);
+        final SymbolKey name = tags.key(tag);
 
         if (table.isDefined(name)) {
           final Type t = (Type)table.lookup(name);
@@ -2003,9 +2004,21 @@ public class CAnalyzer extends Visitor {
   /** The fully qualified name of the scope for external declarations. */
   protected static final String EXTERN_PATH = Constants.QUALIFIER + EXTERN_SCOPE;
 
+  /** The name space for struct, union, and enum tags. */
+  protected static final SymbolKey.Space TAGS = SymbolKey.space("tag");
+
+  /** The name space for labels. */
+  protected static final SymbolKey.Space LABELS = SymbolKey.space("label");
+
   /** The common type operations for C. */
   protected final C cops;
 
+  /** The keys for struct, union, and enum tags. */
+  protected final SymbolKey.Cache tags;
+
+  /** The keys for labels. */
+  protected final SymbolKey.Cache labels;
+
   /** The runtime. */
   protected final Runtime runtime;
   
@@ -2076,6 +2089,8 @@ public class CAnalyzer extends Visitor {
     loops        = new ArrayList<Boolean>();
     switches     = new ArrayList<Boolean>();
     checks       = new ArrayList<CompletenessCheck>();
+    tags         = new SymbolKey.Cache(TAGS);
+    labels       = new SymbolKey.Cache(LABELS);
   }
 
   /**
@@ -2102,6 +2117,8 @@ public class CAnalyzer extends Visitor {
     loops.clear();
     switches.clear();
     checks.clear();
+    tags.clear();
+    labels.clear();
     dispatch(unit);
     return table;
   }
@@ -3165,7 +3182,7 @@ public class CAnalyzer extends Visitor {
   @SuppressWarnings("unused")
   private Visitor checkUsedLabelsVisitor = new Visitor() {
       private void check(String id, GNode labelRef) {
-        final String name = SymbolTable.toLabelName(id);
+        final SymbolKey name = labels.key(id);
 
         // Start looking for a definition in the current scope.
         Scope scope = table.current();
@@ -3233,9 +3250,9 @@ public class CAnalyzer extends Visitor {
       final Map<Type, Type> checkedUsed    = new IdentityHashMap<Type, Type>();
 
       public void visitNamedLabel(GNode n) {
-        final String id   = n.getString(0);
-        final String name = SymbolTable.toLabelName(id);
-        final Type   type = (Type)table.current().lookup(name);
+        final String    id   = n.getString(0);
+        final SymbolKey name = labels.key(id);
+        final Type      type = (Type)table.current().lookup(name);
 
         if (null != type) {
           if (! checkedUsed.containsKey(type)) {
@@ -3250,9 +3267,9 @@ public class CAnalyzer extends Visitor {
 
       public void visitLocalLabelDeclaration(GNode n) {
         for (Object o : n) {
-          final String id   = Token.cast(o);
-          final String name = SymbolTable.toLabelName(id);
-          final Type   type = (Type)table.current().lookup(name);
+          final String    id   = Token.cast(o);
+          final SymbolKey name = labels.key(id);
+          final Type      type = (Type)table.current().lookup(name);
 
           if (null != type) {
             if (! checkedDefined.containsKey(type))  {
@@ -3295,7 +3312,7 @@ public class CAnalyzer extends Visitor {
   /** Visit the specified named label. */
   public void visitNamedLabel(GNode n) {
     final String          id   = n.getString(0);
-    final String          name = SymbolTable.toLabelName(id);
+    final SymbolKey       name = labels.key(id);
     final List<Attribute> atts = toAttributeList(n.getGeneric(1));
 
     // Start looking for a suitable scope with the current scope.
@@ -3386,8 +3403,8 @@ public class CAnalyzer extends Visitor {
   /** Visit the specified local label declaration. */
   public void visitLocalLabelDeclaration(GNode n) {
     for (Object o : n) {
-      final String id   = Token.cast(o);
-      final String name = SymbolTable.toLabelName(id);
+      final String    id   = Token.cast(o);
+      final SymbolKey name = labels.key(id);
       if (table.current().isDefinedLocally(name)) {
         runtime.error("duplicate label declaration '" + id + "'", n);
         reportPrevious(id, (Type)table.current().lookupLocally(name));
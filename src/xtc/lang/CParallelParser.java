@@ -0,0 +1,808 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.lang;
+
+import java.io.IOException;
+
+import java.nio.CharBuffer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import xtc.Constants;
+
+import xtc.tree.Annotation;
+import xtc.tree.GNode;
+import xtc.tree.Location;
+import xtc.tree.Node;
+
+import xtc.parser.ParseException;
+import xtc.parser.Result;
+
+/**
+ * A parallel parser for C translation units.  This class splits a
+ * translation unit into batches of consecutive external declarations
+ * and parses the batches in parallel, with each batch being parsed
+ * by its own {@link CParser} over a slice of the shared input
+ * buffer.  The batch boundaries are determined by a fast scan of the
+ * input, which treats semicolons and the closing braces of function
+ * bodies at nesting level zero as the ends of declarations.  The
+ * same scan also tracks line markers, so that each batch reports the
+ * same locations as a sequential parse, and guesses the typedef
+ * names declared before each batch.
+ *
+ * <p />Since parsing C depends on the typedef names in scope, each
+ * batch's results are speculative.  While parsing a batch, the
+ * {@link CParserState parser state} records all bindings in the
+ * global scope that are looked up or made by each external
+ * declaration.  The results are then merged in order, and any
+ * declaration whose recorded bindings differ from the actual ones is
+ * parsed again, together with the rest of its batch.  If a batch
+ * cannot be parsed up to its end, the rest of the input is parsed
+ * sequentially, which also reports any parse errors exactly as a
+ * sequential parse would.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class CParallelParser {
+
+  /** The minimum number of characters per batch. */
+  public static final int MIN_BATCH_SIZE = 64 * 1024;
+
+  /** The number of batches per thread. */
+  public static final int BATCHES_PER_THREAD = 4;
+
+  /** A line marker. */
+  static final class Marker {
+
+    /** The index of the line marker. */
+    final int index;
+
+    /** The file name. */
+    final String file;
+
+    /** The line number of the line marker itself. */
+    final int line;
+
+    /**
+     * Create a new line marker.
+     *
+     * @param index The index.
+     * @param file The file name.
+     * @param line The line number.
+     */
+    Marker(int index, String file, int line) {
+      this.index = index;
+      this.file  = file;
+      this.line  = line;
+    }
+
+  }
+
+  /** A speculatively parsed external declaration. */
+  static final class Declaration {
+
+    /** The start index. */
+    final int start;
+
+    /** The location of the start index. */
+    final Location location;
+
+    /** The annotation preceding the declaration. */
+    final Annotation annotation;
+
+    /** The declaration's semantic value. */
+    final Object value;
+
+    /** The observed global bindings. */
+    final Map<String,Boolean> observed;
+
+    /** The attempted global bindings. */
+    final Map<String,Boolean> attempted;
+
+    /**
+     * Create a new declaration.
+     *
+     * @param start The start index.
+     * @param location The location.
+     * @param annotation The preceding annotation.
+     * @param value The semantic value.
+     * @param observed The observed global bindings.
+     * @param attempted The attempted global bindings.
+     */
+    Declaration(int start, Location location, Annotation annotation,
+                Object value, Map<String,Boolean> observed,
+                Map<String,Boolean> attempted) {
+      this.start      = start;
+      this.location   = location;
+      this.annotation = annotation;
+      this.value      = value;
+      this.observed   = observed;
+      this.attempted  = attempted;
+    }
+
+    /**
+     * Determine whether this declaration's parse is valid for the
+     * specified global bindings.
+     *
+     * @param globals The actual global bindings.
+     * @return <code>true</code> if this declaration parses the same
+     *   under the specified bindings.
+     */
+    boolean isValid(Map<String,Boolean> globals) {
+      for (Map.Entry<String,Boolean> entry : observed.entrySet()) {
+        final String  id     = entry.getKey();
+        final Boolean seen   = entry.getValue();
+        final Boolean actual = globals.get(id);
+
+        // Lookups only distinguish between types and everything else.
+        if (Boolean.TRUE.equals(seen) != Boolean.TRUE.equals(actual)) {
+          return false;
+        }
+
+        // Bindings only take effect for unbound identifiers.
+        final Boolean flag = attempted.get(id);
+        if ((null != flag) &&
+            (! effective(seen, flag).equals(effective(actual, flag)))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Add this declaration's global bindings to the specified global
+     * bindings.
+     *
+     * @param globals The global bindings.
+     */
+    void define(Map<String,Boolean> globals) {
+      for (Map.Entry<String,Boolean> entry : attempted.entrySet()) {
+        if (! globals.containsKey(entry.getKey())) {
+          globals.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+
+    /**
+     * Determine the effective binding.
+     *
+     * @param binding The existing binding, which may be
+     *   <code>null</code>.
+     * @param flag The attempted binding.
+     * @return The effective binding.
+     */
+    static Boolean effective(Boolean binding, Boolean flag) {
+      return (null == binding) ? flag : binding;
+    }
+
+  }
+
+  /** A batch of speculatively parsed external declarations. */
+  static final class Batch {
+
+    /** The declarations. */
+    final List<Declaration> declarations = new ArrayList<Declaration>();
+
+    /** The start index. */
+    int start;
+
+    /** The location of the start index. */
+    Location location;
+
+    /** The index just past the last declaration. */
+    int end;
+
+    /** The location of the end index. */
+    Location endLocation;
+
+    /** The annotation following the last declaration. */
+    Annotation annotation;
+
+    /** The flag for whether the batch has been parsed to its end. */
+    boolean complete;
+
+  }
+
+  // =========================================================================
+
+  /** The fork/join pool. */
+  protected final ForkJoinPool pool;
+
+  /** The input. */
+  protected final CharBuffer buffer;
+
+  /** The file name. */
+  protected final String file;
+
+  /** The input length. */
+  protected final int length;
+
+  /** The indices of the first characters of all lines. */
+  protected int[] lines;
+
+  /** The number of lines. */
+  protected int lineCount;
+
+  /** The line markers, in increasing order of their indices. */
+  protected final List<Marker> markers;
+
+  /** The batch start indices, followed by the input length. */
+  protected final List<Integer> starts;
+
+  /** The start indices of typedef declarations. */
+  protected final List<Integer> typedefStarts;
+
+  /** The guessed names of typedef declarations. */
+  protected final List<String> typedefNames;
+
+  /**
+   * Create a new parallel C parser.
+   *
+   * @param pool The fork/join pool.
+   * @param buffer The input.
+   * @param file The file name.
+   */
+  public CParallelParser(ForkJoinPool pool, CharBuffer buffer, String file) {
+    this.pool          = pool;
+    this.buffer        = buffer;
+    this.file          = file;
+    this.length        = buffer.remaining();
+    this.markers       = new ArrayList<Marker>();
+    this.starts        = new ArrayList<Integer>();
+    this.typedefStarts = new ArrayList<Integer>();
+    this.typedefNames  = new ArrayList<String>();
+  }
+
+  /**
+   * Parse the translation unit.
+   *
+   * @return The translation unit's AST.
+   * @throws IOException Signals an I/O error.
+   * @throws ParseException Signals a parse error.
+   */
+  public GNode parse() throws IOException, ParseException {
+    final int size = Math.max(MIN_BATCH_SIZE,
+                              length / (pool.getParallelism() *
+                                        BATCHES_PER_THREAD));
+    scanLines();
+    scan(size);
+
+    // Start parsing the batches.
+    final int                 count   = starts.size() - 1;
+    final List<Future<Batch>> futures = new ArrayList<Future<Batch>>(count);
+    final Map<String,Boolean> guesses = new HashMap<String,Boolean>();
+    int                       next    = 0;
+
+    for (int b=0; b<count; b++) {
+      final int start = starts.get(b);
+      final int end   = starts.get(b+1);
+
+      while ((next < typedefStarts.size()) &&
+             (typedefStarts.get(next) < start)) {
+        guesses.put(typedefNames.get(next), Boolean.TRUE);
+        next++;
+      }
+
+      final Map<String,Boolean> seed     = new HashMap<String,Boolean>(guesses);
+      final Location            location = location(start);
+      futures.add(pool.submit(new Callable<Batch>() {
+          public Batch call() throws IOException, ParseException {
+            return parse(start, end, location, seed, false);
+          }
+        }));
+    }
+
+    // Merge the batches in order.
+    final GNode               root       = GNode.create("TranslationUnit");
+    final Map<String,Boolean> globals    = new HashMap<String,Boolean>();
+    Annotation                annotation = null;
+    Location                  location   = location(0);
+
+    merge:
+    for (int b=0; b<count; b++) {
+      final int end   = starts.get(b+1);
+      Batch     batch = join(futures.get(b));
+      boolean   exact = false;
+
+      if ((null == batch) || (! location.equals(batch.location))) {
+        // Parse the batch again from its actual location.
+        batch = parse(starts.get(b), end, location, globals, false);
+        exact = true;
+      }
+
+      while (true) {
+        // Accept all valid declarations.
+        final int n = batch.declarations.size();
+        int       i = 0;
+        for (; i<n; i++) {
+          final Declaration d = batch.declarations.get(i);
+          if (! d.isValid(globals)) break;
+
+          root.add((0 == i) ? wrap(annotation, d.value) : d.value);
+          d.define(globals);
+        }
+
+        if ((i == n) && batch.complete) {
+          if ((0 < n) || (0 == batch.start)) annotation = batch.annotation;
+          location = batch.endLocation;
+          break;
+        }
+
+        // Determine where to continue.
+        final int start;
+        if (i < n) {
+          final Declaration d = batch.declarations.get(i);
+          start    = d.start;
+          location = d.location;
+          if (0 < i) annotation = d.annotation;
+        } else {
+          start    = batch.end;
+          location = batch.endLocation;
+          if ((0 < i) || (0 == batch.start)) annotation = batch.annotation;
+        }
+
+        if (exact) {
+          // Even with the actual bindings, the batch does not end with
+          // a declaration.  Parse the rest of the input sequentially.
+          batch = parse(start, length, location, globals, true);
+          final int m = batch.declarations.size();
+          for (int j=0; j<m; j++) {
+            final Object value = batch.declarations.get(j).value;
+            root.add((0 == j) ? wrap(annotation, value) : value);
+          }
+          if ((0 < m) || (0 == batch.start)) annotation = batch.annotation;
+          break merge;
+        }
+
+        // Parse the rest of the batch with the actual bindings.
+        batch = parse(start, end, location, globals, false);
+        exact = true;
+      }
+    }
+
+    // Cancel any remaining batches.
+    for (Future<Batch> f : futures) f.cancel(false);
+
+    // Add any trailing annotations.
+    root.add(wrap(annotation, null));
+    return root;
+  }
+
+  /**
+   * Wait for the specified batch.
+   *
+   * @param future The future batch.
+   * @return The batch or <code>null</code> if parsing the batch
+   *   raised an exception.
+   */
+  protected Batch join(Future<Batch> future) {
+    try {
+      return future.get();
+    } catch (ExecutionException x) {
+      return null;
+    } catch (InterruptedException x) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  /**
+   * Wrap the specified value with the specified annotation.
+   *
+   * @param annotation The annotation, which may be <code>null</code>.
+   * @param value The value.
+   * @return The wrapped value.
+   */
+  protected static Object wrap(Annotation annotation, Object value) {
+    if (null == annotation) return value;
+    annotation.innerMost().setNode((Node)value);
+    return annotation;
+  }
+
+  /**
+   * Parse the specified range of the input.
+   *
+   * @param start The start index.
+   * @param end The end index.
+   * @param location The location of the start index.
+   * @param globals The global bindings.
+   * @param last The flag for whether the range covers the rest of
+   *   the input, in which case parse errors are signalled.
+   * @return The batch.
+   * @throws IOException Signals an I/O error.
+   * @throws ParseException Signals a parse error.
+   */
+  protected Batch parse(int start, int end, Location location,
+                        Map<String,Boolean> globals, boolean last)
+    throws IOException, ParseException {
+    final CharBuffer slice = buffer.duplicate();
+    slice.position(slice.position() + start);
+    slice.limit(slice.position() + end - start);
+
+    final CParser      parser = new CParser(slice, file);
+    final CParserState state  = parser.yyState;
+    if (0 != start) parser.relocate(location.file, location.line,
+                                    location.column);
+    for (Map.Entry<String,Boolean> entry : globals.entrySet()) {
+      state.bind(entry.getKey(), entry.getValue());
+    }
+
+    final Batch batch = new Batch();
+    batch.start       = start;
+    batch.location    = location;
+    int         index = start;
+
+    if ((0 == start) && (! parser.isEOF(0))) {
+      final Result result = parser.pPrelude(0);
+      if (! result.hasValue()) {
+        if (last) parser.signal(result.parseError());
+        batch.end         = index;
+        batch.endLocation = location;
+        return batch;
+      }
+      parser.resetTo(result.index);
+      index += result.index;
+    }
+
+    while (! parser.isEOF(0)) {
+      final Location   loc        = parser.location(0);
+      final Annotation annotation = state.annotation();
+
+      state.record();
+      final Result result = parser.pExternalDeclaration(0);
+      if (! result.hasValue()) {
+        if (last) parser.signal(result.parseError());
+        batch.end         = index;
+        batch.endLocation = loc;
+        batch.annotation  = annotation;
+        return batch;
+      }
+
+      batch.declarations.add(new Declaration(index, loc, annotation,
+                                             result.semanticValue(),
+                                             state.observed(),
+                                             state.attempted()));
+      parser.resetTo(result.index);
+      index += result.index;
+    }
+
+    batch.end         = index;
+    batch.endLocation = parser.location(0);
+    batch.annotation  = state.annotation();
+    batch.complete    = true;
+    return batch;
+  }
+
+  // =========================================================================
+
+  /** Scan the input for the first characters of all lines. */
+  protected void scanLines() {
+    lines     = new int[Math.max(16, length / 32)];
+    lineCount = 0;
+    addLine(0);
+
+    boolean seenCR = false;
+    for (int i=0; i<length; i++) {
+      switch (buffer.get(buffer.position() + i)) {
+      case '\n':
+        if (! seenCR) addLine(i + 1);
+        seenCR = false;
+        break;
+      case '\r':
+        addLine(i + 1);
+        seenCR = true;
+        break;
+      default:
+        seenCR = false;
+      }
+    }
+  }
+
+  /**
+   * Add the specified line start.
+   *
+   * @param index The index of the line's first character.
+   */
+  private void addLine(int index) {
+    if (lines.length == lineCount) {
+      final int[] copy = new int[lineCount * 2];
+      System.arraycopy(lines, 0, copy, 0, lineCount);
+      lines = copy;
+    }
+    lines[lineCount++] = index;
+  }
+
+  /**
+   * Get the character at the specified index.
+   *
+   * @param index The index.
+   * @return The character or -1 if the index is past the input.
+   */
+  protected int at(int index) {
+    return (index < length) ? buffer.get(buffer.position() + index) : -1;
+  }
+
+  /**
+   * Scan the input for batch boundaries, line markers, and typedef
+   * names.
+   *
+   * @param size The minimum number of characters per batch.
+   */
+  protected void scan(int size) {
+    int     depth     = 0;        // The nesting level.
+    int     previous  = -1;       // The previous significant character.
+    boolean body      = false;    // The flag for a function body.
+    boolean boundary  = true;     // The flag for a declaration boundary.
+    int     target    = size;     // The next batch start target.
+    int     decl      = 0;        // The current declaration's start.
+    int     position  = 0;        // The current declaration's position.
+    boolean typedef   = false;    // The flag for a typedef declaration.
+    String  candidate = null;     // The candidate typedef name.
+
+    starts.add(0);
+
+    int i = 0;
+    while (i < length) {
+      final int c = at(i);
+
+      // Skip spacing.
+      if (' ' == c || '\t' == c || '\f' == c || '\n' == c || '\r' == c) {
+        i++;
+        continue;
+      } else if ('/' == c && '*' == at(i+1)) {
+        i += 2;
+        while ((i < length) && ! ('*' == at(i) && '/' == at(i+1))) i++;
+        i += 2;
+        continue;
+      } else if ('/' == c && '/' == at(i+1)) {
+        while ((i < length) && ('\n' != at(i)) && ('\r' != at(i))) i++;
+        continue;
+      } else if (('#' == c) &&
+                 ((0 == i) || ('\n' == at(i-1)) || ('\r' == at(i-1)))) {
+        i = directive(i);
+        continue;
+      }
+
+      // Note the start of a new declaration.
+      if (boundary) {
+        boundary  = false;
+        decl      = i;
+        position  = 0;
+        typedef   = false;
+        candidate = null;
+        if ((i >= target) && (0 < i)) {
+          starts.add(i);
+          target = i + size;
+        }
+      }
+
+      // Process the token.
+      if ('"' == c || '\'' == c) {
+        i++;
+        while ((i < length) && (c != at(i))) {
+          if ('\\' == at(i)) i++;
+          i++;
+        }
+        i++;
+
+      } else if (Character.isJavaIdentifierStart((char)c)) {
+        final int start = i;
+        while ((i < length) && Character.isJavaIdentifierPart((char)at(i))) {
+          i++;
+        }
+        final String id = text(start, i);
+
+        if (0 == position) {
+          typedef = "typedef".equals(id);
+        } else if ((1 == position) && "typedef".equals(id)) {
+          typedef = true;
+        }
+        position++;
+
+        if (typedef && (! id.startsWith("__")) &&
+            ((0 == depth) || ((1 == depth) && ('*' == previous)))) {
+          candidate = id;
+        }
+        previous = 'a';
+        continue;
+
+      } else if (Character.isDigit((char)c)) {
+        while ((i < length) &&
+               (Character.isLetterOrDigit((char)at(i)) || '.' == at(i))) {
+          i++;
+        }
+
+      } else {
+        switch (c) {
+        case '(':
+        case '[':
+          depth++;
+          break;
+        case '{':
+          if (0 == depth) body = (')' == previous);
+          depth++;
+          break;
+        case ')':
+        case ']':
+          if (0 < depth) depth--;
+          break;
+        case '}':
+          if (0 < depth) depth--;
+          if ((0 == depth) && body) {
+            boundary = true;
+            body     = false;
+          }
+          break;
+        case ',':
+        case ';':
+          if (0 == depth) {
+            if (typedef && (null != candidate)) {
+              typedefStarts.add(decl);
+              typedefNames.add(candidate);
+            }
+            candidate = null;
+            if (';' == c) boundary = true;
+          }
+          break;
+        default:
+          // Nothing to do.
+        }
+        i++;
+      }
+
+      previous = c;
+      position++;
+    }
+
+    starts.add(length);
+  }
+
+  /**
+   * Process the directive starting at the specified index.  If the
+   * directive is a line marker, this method records it.
+   *
+   * @param index The index of the directive's first character.
+   * @return The index of the line terminator ending the directive.
+   */
+  protected int directive(int index) {
+    int i = index + 1;
+
+    // Recognize a line marker: # line "file" flags
+    if (' ' == at(i) && '1' <= at(i+1) && '9' >= at(i+1)) {
+      final int lineStart = ++i;
+      while ('0' <= at(i) && '9' >= at(i)) i++;
+      final int lineEnd = i;
+
+      if (' ' == at(i) && '"' == at(i+1)) {
+        i += 2;
+        final int fileStart = i;
+        while ((-1 != at(i)) && ('"' != at(i))) {
+          if ('\\' == at(i)) i++;
+          i++;
+        }
+        final int fileEnd = i;
+
+        if ('"' == at(i)) {
+          i++;
+          for (char flag='1'; flag<='4'; flag++) {
+            if (' ' == at(i) && flag == at(i+1)) i += 2;
+          }
+
+          if ('\n' == at(i) || '\r' == at(i)) {
+            try {
+              final int line = Integer.parseInt(text(lineStart, lineEnd));
+              markers.add(new Marker(index, text(fileStart, fileEnd), line-1));
+            } catch (NumberFormatException x) {
+              // Leave any errors to the parser.
+            }
+          }
+        }
+      }
+    }
+
+    // Skip the rest of the line.
+    while ((i < length) && ('\n' != at(i)) && ('\r' != at(i))) i++;
+    return i;
+  }
+
+  /**
+   * Get the text between the specified indices.
+   *
+   * @param start The start index.
+   * @param end The end index.
+   * @return The text.
+   */
+  protected String text(int start, int end) {
+    return buffer.subSequence(start, end).toString();
+  }
+
+  /**
+   * Get the location of the specified index.  The location accounts
+   * for all line markers before the index.
+   *
+   * @param index The index.
+   * @return The location.
+   */
+  protected Location location(int index) {
+    final int line = search(index);
+
+    // Find the last line marker before the index.
+    int lo = 0, hi = markers.size() - 1, m = -1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (markers.get(mid).index <= index) {
+        m  = mid;
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+
+    // Compute the column.
+    int column = Constants.FIRST_COLUMN;
+    for (int i=lines[line]; i<index; i++) {
+      switch (at(i)) {
+      case '\t':
+        column = ((column >> 3) + 1) << 3;
+        break;
+      case '\n':
+        break;
+      default:
+        column++;
+      }
+    }
+
+    if (-1 == m) {
+      return new Location(file, Constants.FIRST_LINE + line, column);
+    } else {
+      final Marker marker = markers.get(m);
+      return new Location(marker.file,
+                          marker.line + line - search(marker.index), column);
+    }
+  }
+
+  /**
+   * Find the line containing the specified index.
+   *
+   * @param index The index.
+   * @return The line.
+   */
+  private int search(int index) {
+    int lo = 0, hi = lineCount - 1;
+    while (lo < hi) {
+      final int mid = (lo + hi + 1) >>> 1;
+      if (lines[mid] <= index) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return lo;
+  }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.lang;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import xtc.parser.ParseException;
+
+import xtc.tree.Node;
+
+/**
+ * Unit tests for parsing C translation units in parallel.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class CParallelParserTest extends junit.framework.TestCase {
+
+  /** The number of repetitions of the declarations in the input. */
+  private static final int REPETITIONS = 3000;
+
+  /** A C tool with the specified command line options. */
+  static final class Tool extends C {
+
+    /**
+     * Create a new C tool.
+     *
+     * @param args The command line options.
+     */
+    Tool(String... args) {
+      init();
+      runtime.process(args);
+      runtime.initDefaultValues();
+    }
+
+    /**
+     * Parse the specified file as the tool's {@link #run(String[])}
+     * method does.
+     *
+     * @param file The file.
+     * @return The AST.
+     * @throws IOException Signals an I/O error.
+     * @throws ParseException Signals a parse error.
+     */
+    Node parseFile(File file) throws IOException, ParseException {
+      if (isBuffered(file)) return parse(runtime.getBuffer(file), file);
+
+      final Reader in = runtime.getReader(file);
+      try {
+        return parse(in, file);
+      } finally {
+        in.close();
+      }
+    }
+
+  }
+
+  /** The input file. */
+  private File file;
+
+  /** Create a new test class. */
+  public CParallelParserTest() { /* Nothing to do. */ }
+
+  protected void setUp() throws IOException {
+    file = File.createTempFile("parallel", ".i");
+
+    // Spread typedef names and their uses across many batches, with
+    // line markers switching between files.
+    final Writer out = new FileWriter(file);
+    try {
+      for (int i=0; i<REPETITIONS; i++) {
+        if (0 == i % 500) {
+          out.write("# " + (i + 1) + " \"header" + (i / 500) + ".h\"\n");
+        }
+        out.write("typedef int T" + i + ";\n");
+        out.write("typedef struct s" + i + " { T" + i + " x; } *P" + i +
+                  ";\n");
+        out.write("T" + i + " v" + i + " = " + i + ", *w" + i + ";\n");
+        out.write("static P" + i + " f" + i + "(T" + i + " a) {\n" +
+                  "  T" + i + " b = (T" + i + ")a;\n" +
+                  "  return (P" + i + ")0;\n" +
+                  "}\n");
+        if (0 < i) {
+          // Use the previous typedef name both as a type and, after
+          // shadowing it, as a variable.
+          out.write("int g" + i + "(void) { T" + (i - 1) + " T" + i +
+                    " = 1; return T" + i + " * 2; }\n");
+        }
+      }
+      out.write("/* The end. */\n");
+    } finally {
+      out.close();
+    }
+  }
+
+  protected void tearDown() {
+    file.delete();
+  }
+
+  /**
+   * Check that the specified trees have the same top-level locations.
+   *
+   * @param serial The serially parsed tree.
+   * @param parallel The tree parsed in parallel.
+   */
+  private static void checkLocations(Node serial, Node parallel) {
+    assertEquals(serial.size(), parallel.size());
+    for (int i=0; i<serial.size(); i++) {
+      final Object o1 = serial.get(i), o2 = parallel.get(i);
+      if (o1 instanceof Node) {
+        assertEquals("declaration " + i, ((Node)o1).getLocation(),
+                     ((Node)o2).getLocation());
+      }
+    }
+  }
+
+  /** Test that the parallel parser is used for buffered files. */
+  public void testBuffered() {
+    assertFalse(new Tool().isBuffered(file));
+    assertTrue(new Tool("-parallel").isBuffered(file));
+    assertTrue(new Tool("-noincr").isBuffered(file));
+  }
+
+  /** Test that a parallel parse produces the same AST. */
+  public void testParallel() throws IOException, ParseException {
+    final Node serial   = new Tool().parseFile(file);
+    final Node parallel = new Tool("-parallel").parseFile(file);
+
+    assertTrue(MIN_BATCHES < file.length() / CParallelParser.MIN_BATCH_SIZE);
+    assertEquals(serial, parallel);
+    checkLocations(serial, parallel);
+  }
+
+  /** The minimum number of batches for the input. */
+  private static final int MIN_BATCHES = 4;
+
+}
@@ -19,6 +19,7 @@
 package xtc.lang;
 
 import java.util.HashMap;
+import java.util.Map;
 
 import xtc.tree.Annotation;
 import xtc.tree.LineMarker;
@@ -174,6 +175,25 @@ public class CParserState implements State {
   /** The current annotation, if any. */
   protected Annotation annotation;
 
+  /**
+   * The observed global bindings.  While {@link #record() recording},
+   * this map tracks the binding found in the global scope for each
+   * identifier when it is first looked up or bound in the global
+   * scope.  The binding is <code>null</code> if the identifier was
+   * unbound.  This field is <code>null</code> if the state is not
+   * recording.
+   */
+  protected Map<String,Boolean> observed;
+
+  /**
+   * The attempted global bindings.  While {@link #record()
+   * recording}, this map tracks the type flag for each identifier's
+   * first binding in the global scope, independent of whether the
+   * binding actually took effect.  This field is <code>null</code>
+   * if the state is not recording.
+   */
+  protected Map<String,Boolean> attempted;
+
   // ==========================================================================
 
   /** Create a C parser state object. */
@@ -381,6 +401,10 @@ public class CParserState implements State {
     }
 
     // Record the name.
+    if ((null == c.next) && (null != observed)) {
+      observe(c, id);
+      if (! attempted.containsKey(id)) attempted.put(id, top.isSet(FLAG_TYPEDEF));
+    }
     if (c.bindings.containsKey(id)) {
       if (DEBUG) {
         System.out.println("ignoring rebinding of " + id);
@@ -410,6 +434,10 @@ public class CParserState implements State {
     }
 
     // Record the name.
+    if ((null == c.next) && (null != observed)) {
+      observe(c, id);
+      if (! attempted.containsKey(id)) attempted.put(id, isType);
+    }
     if (c.bindings.containsKey(id)) {
       if (DEBUG) {
         System.out.println("ignoring rebinding of " + id);
@@ -442,6 +470,7 @@ public class CParserState implements State {
         c = c.next;
       }
 
+      if ((null == c.next) && (null != observed)) observe(c, id);
       Boolean value = c.bindings.get(id);
       if (null != value) {
         boolean type = value.booleanValue();
@@ -477,6 +506,68 @@ public class CParserState implements State {
 
   // ==========================================================================
 
+  /**
+   * Start recording the global bindings.  After this method has been
+   * called, this state tracks all bindings in the global scope that
+   * are looked up or made while parsing, so that a parse performed
+   * under assumed global bindings can later be validated against the
+   * actual ones.  Each invocation of this method discards previously
+   * recorded bindings.
+   *
+   * @see #observed()
+   * @see #attempted()
+   */
+  public void record() {
+    observed  = new HashMap<String,Boolean>();
+    attempted = new HashMap<String,Boolean>();
+  }
+
+  /**
+   * Get the observed global bindings.
+   *
+   * @return The observed bindings or <code>null</code> if this state
+   *   is not recording.
+   */
+  public Map<String,Boolean> observed() {
+    return observed;
+  }
+
+  /**
+   * Get the attempted global bindings.
+   *
+   * @return The attempted bindings or <code>null</code> if this state
+   *   is not recording.
+   */
+  public Map<String,Boolean> attempted() {
+    return attempted;
+  }
+
+  /**
+   * Observe the specified identifier's binding in the specified
+   * global scope.
+   *
+   * @param global The global scope.
+   * @param id The identifier.
+   */
+  protected void observe(Context global, String id) {
+    if (! observed.containsKey(id)) {
+      observed.put(id, global.bindings.get(id));
+    }
+  }
+
+  /**
+   * Get the current annotation.  The annotation has been recorded
+   * but not yet applied to a node.
+   *
+   * @return The current annotation or <code>null</code> if there is
+   *   none.
+   */
+  public Annotation annotation() {
+    return annotation;
+  }
+
+  // ==========================================================================
+
   /**
    * Record a line marker.  Note that string values for the four flags
    * are interpreted as follows: Any non-null string counts for
@@ -143,7 +143,11 @@ public class FactoryFactory extends Tool {
     super.init();
     runtime.
       bool("C", "createCFactory", false, "Create a factory for C ASTs.").
-      bool("simplify", "simplifyAST", false, "Simplify the Java AST.");
+      bool("simplify", "simplifyAST", false, "Simplify the Java AST.").
+      bool("share", "shareNodes", false,
+           "Share constant subtrees through a hash-consing factory.  " +
+           "Shared subtrees are immutable and cannot be annotated with " +
+           "locations or properties.");
   }
 
   public void prepare() {
@@ -217,9 +221,12 @@ public class FactoryFactory extends Tool {
 
     out.indent().pln("import java.util.List;").pln();
 
+    final boolean share = runtime.test("shareNodes");
+
     if (! "xtc.tree".equals(pkg)) {
       out.indent().pln("import xtc.tree.Node;");
       out.indent().pln("import xtc.tree.GNode;");
+      if (share) out.indent().pln("import xtc.tree.HashConsFactory;");
       out.pln();
     }
 
@@ -230,22 +237,54 @@ public class FactoryFactory extends Tool {
     out.indent().p(" * the xtc Factory Factory, version ").p(getVersion()).
       pln(',');
     out.indent().p(" * ").p(getCopy()).pln('.');
+    if (share) {
+      out.indent().pln(" *");
+      out.indent().pln(" * <p />Constant subtrees are shared through a");
+      out.indent().pln(" * hash-consing factory and are immutable: They");
+      out.indent().pln(" * cannot be modified or annotated with locations");
+      out.indent().pln(" * or properties, unless copied first.");
+    }
     out.indent().pln(" */");
     out.indent().p("public class ").p(Utilities.getName(name)).
       pln(" {").incr();
     out.pln();
 
-    out.indent().pln("/** Create a new node factory. */");
-    out.indent().p("public ").p(Utilities.getName(name)).pln("() {").incr();
-    out.indent().pln("// Nothing to do.");
-    out.decr().indent().pln('}');
-    out.pln();
+    if (share) {
+      out.indent().pln("/** The hash-consing factory for constant subtrees. */");
+      out.indent().pln("protected final HashConsFactory nodes;");
+      out.pln();
+
+      out.indent().pln("/** Create a new node factory. */");
+      out.indent().p("public ").p(Utilities.getName(name)).pln("() {").incr();
+      out.indent().pln("this(new HashConsFactory());");
+      out.decr().indent().pln('}');
+      out.pln();
+
+      out.indent().pln("/**");
+      out.indent().pln(" * Create a new node factory.");
+      out.indent().pln(" *");
+      out.indent().pln(" * @param nodes The hash-consing factory.");
+      out.indent().pln(" */");
+      out.indent().p("public ").p(Utilities.getName(name)).
+        pln("(HashConsFactory nodes) {").incr();
+      out.indent().pln("this.nodes = nodes;");
+      out.decr().indent().pln('}');
+      out.pln();
+
+    } else {
+      out.indent().pln("/** Create a new node factory. */");
+      out.indent().p("public ").p(Utilities.getName(name)).pln("() {").incr();
+      out.indent().pln("// Nothing to do.");
+      out.decr().indent().pln('}');
+      out.pln();
+    }
 
     Map<String,String> variables = new HashMap<String,String>();
     variables.put("NodeVariable",     "Node"  );
     variables.put("NodeListVariable", "List<Node>");
     variables.put("StringVariable",   "String");
     Transducer         trans     = new Transducer(out, variables);
+    if (share) trans.setSharing("nodes");
     JavaAstSimplifier  simple    = null;
     if (runtime.test("simplifyAST")) simple = new JavaAstSimplifier();
     for (Object o : GNode.cast(factory.get(1))) {
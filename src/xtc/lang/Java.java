@@ -24,6 +24,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 
+import java.nio.CharBuffer;
+
 import xtc.tree.Node;
 import xtc.tree.Visitor;
 import xtc.tree.ParseTreePrinter;
@@ -239,6 +241,29 @@ public class Java extends Tool {
     return file;
   }
 
+  public boolean isBuffered(File file) {
+    return file.isFile() &&
+      (! runtime.test("optionJavaCC")) && (! runtime.test("optionANTLR"));
+  }
+
+  public boolean isCacheable() {
+    // Printing the memoization table happens while parsing.
+    return (! runtime.test("printMemoProfile")) &&
+      (! runtime.test("printMemoTable"));
+  }
+
+  protected String getCacheConfiguration() {
+    return super.getCacheConfiguration() +
+      " tiger=" + runtime.test("optionTiger") +
+      " ast=" + runtime.test("optionAST") +
+      " parsetree=" + runtime.test("optionParseTree");
+  }
+
+  public Node parse(CharBuffer in, File file)
+    throws IOException, ParseException {
+    return parse(null, in, file);
+  }
+
   public Node parse(Reader in, File file) throws IOException, ParseException {
     if (runtime.test("optionJavaCC")) { // ============================ JavaCC
       if (runtime.test("optionAST")) {
@@ -290,41 +315,69 @@ public class Java extends Tool {
       return null;
 
     } else { // ======================================================= Rats!
-      if (runtime.test("optionTiger") && runtime.test("optionParseTree")) {
-        JavaFiveReader parser =
-          new JavaFiveReader(in, file.toString(), (int)file.length());
-        Result         result = parser.pCompilationUnit(0);
-        printMemoInfo(parser, file);
-        return (Node)parser.value(result);
-
-      } else if (runtime.test("optionTiger") && runtime.test("optionAST")) {
-        JavaFiveParser parser =
-          new JavaFiveParser(in, file.toString(), (int)file.length());
-        Result         result = parser.pCompilationUnit(0);
-        printMemoInfo(parser, file);
-        return (Node)parser.value(result);
-
-      } else if (runtime.test("optionParseTree")) {
-        JavaReader parser =
-          new JavaReader(in, file.toString(), (int)file.length());
-        Result     result = parser.pCompilationUnit(0);
-        printMemoInfo(parser, file);
-        return (Node)parser.value(result);
-
-      } else if (runtime.test("optionAST")) {
-        JavaParser parser =
-          new JavaParser(in, file.toString(), (int)file.length());
-        Result     result = parser.pCompilationUnit(0);
-        printMemoInfo(parser, file);
-        return (Node)parser.value(result);
+      return parse(in, null, file);
+    }
+  }
 
-      } else {
-        JavaRecognizer parser =
-          new JavaRecognizer(in, file.toString(), (int)file.length());
-        Result         result = parser.pCompilationUnit(0);
-        printMemoInfo(parser, file);
-        return (Node)parser.value(result);
-      }
+  /**
+   * Parse the specified file from either a reader or a buffer with
+   * a <em>Rats!</em>-generated parser.
+   *
+   * @param in The reader or <code>null</code> if parsing from the
+   *   buffer.
+   * @param buffer The buffer or <code>null</code> if parsing from
+   *   the reader.
+   * @param file The corresponding file.
+   * @return The AST.
+   * @throws IOException Signals an I/O error.
+   * @throws ParseException Signals a parse error.
+   */
+  private Node parse(Reader in, CharBuffer buffer, File file)
+    throws IOException, ParseException {
+    if (runtime.test("optionTiger") && runtime.test("optionParseTree")) {
+      JavaFiveReader parser = (null == buffer) ?
+        new JavaFiveReader(in, file.toString(), (int)file.length()) :
+        new JavaFiveReader(buffer, file.toString());
+      Result         result = parser.pCompilationUnit(0);
+      printMemoInfo(parser, file);
+      recordMemoization(parser);
+      return (Node)parser.value(result);
+
+    } else if (runtime.test("optionTiger") && runtime.test("optionAST")) {
+      JavaFiveParser parser = (null == buffer) ?
+        new JavaFiveParser(in, file.toString(), (int)file.length()) :
+        new JavaFiveParser(buffer, file.toString());
+      Result         result = parser.pCompilationUnit(0);
+      printMemoInfo(parser, file);
+      recordMemoization(parser);
+      return (Node)parser.value(result);
+
+    } else if (runtime.test("optionParseTree")) {
+      JavaReader parser = (null == buffer) ?
+        new JavaReader(in, file.toString(), (int)file.length()) :
+        new JavaReader(buffer, file.toString());
+      Result     result = parser.pCompilationUnit(0);
+      printMemoInfo(parser, file);
+      recordMemoization(parser);
+      return (Node)parser.value(result);
+
+    } else if (runtime.test("optionAST")) {
+      JavaParser parser = (null == buffer) ?
+        new JavaParser(in, file.toString(), (int)file.length()) :
+        new JavaParser(buffer, file.toString());
+      Result     result = parser.pCompilationUnit(0);
+      printMemoInfo(parser, file);
+      recordMemoization(parser);
+      return (Node)parser.value(result);
+
+    } else {
+      JavaRecognizer parser = (null == buffer) ?
+        new JavaRecognizer(in, file.toString(), (int)file.length()) :
+        new JavaRecognizer(buffer, file.toString());
+      Result         result = parser.pCompilationUnit(0);
+      printMemoInfo(parser, file);
+      recordMemoization(parser);
+      return (Node)parser.value(result);
     }
   }
 
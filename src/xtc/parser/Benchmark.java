@@ -0,0 +1,464 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.parser;
+
+import java.io.Reader;
+import java.io.StringReader;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import xtc.tree.Printer;
+
+import xtc.util.Runtime;
+import xtc.util.Statistics;
+
+/**
+ * A benchmark driver for parsers generated by <i>Rats!</i>.  This
+ * driver parses synthetic inputs of increasing size with one or more
+ * of xtc's own parsers and reports, for each parser and input size,
+ * the parse latency, the throughput in KB/s, the allocation rate, and
+ * the memoization footprint, i.e., the heap retained by the parser
+ * beyond the resulting abstract syntax tree.  The synthetic inputs
+ * are generated by repeating a parser-specific unit, such as a C
+ * function or a <i>Rats!</i> production, with fresh names until the
+ * input reaches the requested size.  The overall throughput and
+ * memoization footprint are computed by fitting a line through all
+ * measurements for a parser, just like {@link xtc.util.Throughput}.
+ *
+ * <p />Parsers are loaded by name, so that this driver can be
+ * compiled independently of the generated parsers.  The supported
+ * parsers are <code>c</code>, <code>java</code>,
+ * <code>javafive</code>, <code>rats</code>, and
+ * <code>typical</code>.  The allocation rate is only available on
+ * virtual machines that support per-thread allocation counting.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class Benchmark {
+
+  /** A benchmarked parser. */
+  static abstract class Subject {
+
+    /** The short name. */
+    final String name;
+
+    /** The fully qualified name of the parser class. */
+    final String parser;
+
+    /** The name of the top-level production. */
+    final String production;
+
+    /**
+     * Create a new subject.
+     *
+     * @param name The short name.
+     * @param parser The parser class name.
+     * @param production The top-level production's name.
+     */
+    Subject(String name, String parser, String production) {
+      this.name       = name;
+      this.parser     = parser;
+      this.production = production;
+    }
+
+    /**
+     * Append the input's header.
+     *
+     * @param buf The buffer.
+     */
+    void header(StringBuilder buf) {
+      // Nothing to do.
+    }
+
+    /**
+     * Append the input's <code>n</code>-th unit.
+     *
+     * @param buf The buffer.
+     * @param n The unit's number.
+     */
+    abstract void unit(StringBuilder buf, int n);
+
+    /**
+     * Generate an input of the specified size.
+     *
+     * @param size The minimum size in characters.
+     * @return The input.
+     */
+    String generate(int size) {
+      final StringBuilder buf = new StringBuilder(size + 1024);
+      header(buf);
+      for (int n=0; buf.length() < size; n++) unit(buf, n);
+      return buf.toString();
+    }
+
+  }
+
+  /** The supported subjects. */
+  static final Subject[] SUBJECTS = {
+    new Subject("c", "xtc.lang.CParser", "pTranslationUnit") {
+      void unit(StringBuilder buf, int n) {
+        buf.append("struct s").append(n).append(" { int a; char *b; };\n\n");
+        buf.append("static int f").append(n).
+          append("(int a, struct s").append(n).append(" *p) {\n");
+        buf.append("  int x = a * ").append(n).append(" + p->a;\n");
+        buf.append("  if (x > 10) {\n    x = x - 1;\n  } else {\n");
+        buf.append("    x += (int)sizeof(*p);\n  }\n");
+        buf.append("  while (x < 100) x <<= 1;\n");
+        buf.append("  return x;\n}\n\n");
+      }
+    },
+
+    new Subject("java", "xtc.lang.JavaParser", "pCompilationUnit") {
+      void header(StringBuilder buf) {
+        buf.append("package bench;\n\nimport java.util.List;\n\n");
+      }
+      void unit(StringBuilder buf, int n) {
+        javaClass(buf, n);
+      }
+    },
+
+    new Subject("javafive", "xtc.lang.JavaFiveParser", "pCompilationUnit") {
+      void header(StringBuilder buf) {
+        buf.append("package bench;\n\nimport java.util.List;\n\n");
+      }
+      void unit(StringBuilder buf, int n) {
+        javaClass(buf, n);
+      }
+    },
+
+    new Subject("rats", "xtc.parser.PParser", "pModule") {
+      void header(StringBuilder buf) {
+        buf.append("module bench.Grammar;\n\n");
+        buf.append("option withLocation;\n\n");
+      }
+      void unit(StringBuilder buf, int n) {
+        buf.append("generic P").append(n).append(" =\n");
+        buf.append("    <Add> left:P").append(n + 1).
+          append(" void:\"+\":Symbol right:Q").append(n).append('\n');
+        buf.append("  / <Base> Q").append(n).append('\n');
+        buf.append("  ;\n\n");
+        buf.append("String Q").append(n).append(" =\n");
+        buf.append("    \"(\" v:P").append(n).
+          append(" \")\" { yyValue = v.toString(); }\n");
+        buf.append("  / [a-zA-Z_] [a-zA-Z_0-9]* ");
+        buf.append("/ !\"0x\" [0-9]+ &[ \\t]\n");
+        buf.append("  ;\n\n");
+      }
+    },
+
+    new Subject("typical", "xtc.typical.TypicalParser", "pModule") {
+      void header(StringBuilder buf) {
+        buf.append("module bench.Types;\n\n");
+      }
+      void unit(StringBuilder buf, int n) {
+        buf.append("mltype t").append(n).append(" =\n");
+        buf.append("  | A").append(n).append(" of int * string\n");
+        buf.append("  | B").append(n).append(" of t").append(n).append('\n');
+        buf.append("  ;\n\n");
+        buf.append("mlvalue f").append(n).append(" x y =\n");
+        buf.append("  let z = x + y * ").append(n).append(" in\n");
+        buf.append("    if z > 10 then z - 1 else match y with\n");
+        buf.append("      | 0 -> [ x; y; z ]\n");
+        buf.append("      | _ -> f").append(n).append(" y x\n");
+        buf.append("  ;\n\n");
+      }
+    }
+  };
+
+  /**
+   * Append a Java class declaration.
+   *
+   * @param buf The buffer.
+   * @param n The class's number.
+   */
+  static void javaClass(StringBuilder buf, int n) {
+    buf.append("class C").append(n).append(" extends Object {\n");
+    buf.append("  private int field;\n");
+    buf.append("  private List list = null;\n\n");
+    buf.append("  int method(int a, String s) {\n");
+    buf.append("    for (int i = 0; i < a; i++) {\n");
+    buf.append("      field += i * ").append(n).append(" + s.length();\n");
+    buf.append("    }\n");
+    buf.append("    if (null == list && field > 10) return -field;\n");
+    buf.append("    return (field << 2) | a;\n");
+    buf.append("  }\n}\n\n");
+  }
+
+  // ========================================================================
+
+  /** The runtime. */
+  private final Runtime runtime;
+
+  /** The thread management bean for allocation counts. */
+  private final com.sun.management.ThreadMXBean threads;
+
+  /** Create a new benchmark driver. */
+  public Benchmark() {
+    runtime = new Runtime();
+    runtime.
+      number("warmupRuns", "runsWarmUp", 3,
+             "Perform the specified number of warm-up runs.").
+      number("totalRuns", "runsTotal", 10,
+             "Perform the specified number of total runs.").
+      number("size", "benchmarkSize", 64,
+             "Start with inputs of the specified size in KB.").
+      number("steps", "benchmarkSteps", 4,
+             "Double the input size the specified number of times.");
+
+    final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if ((bean instanceof com.sun.management.ThreadMXBean) &&
+        ((com.sun.management.ThreadMXBean)bean).
+        isThreadAllocatedMemorySupported()) {
+      threads = (com.sun.management.ThreadMXBean)bean;
+      threads.setThreadAllocatedMemoryEnabled(true);
+    } else {
+      threads = null;
+    }
+  }
+
+  /**
+   * Get the number of bytes allocated by the current thread.
+   *
+   * @return The number of bytes or -1 if allocations cannot be
+   *   counted.
+   */
+  private long allocated() {
+    return (null == threads) ? -1 :
+      threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Get the number of used bytes after collecting garbage.
+   *
+   * @return The number of used bytes.
+   */
+  private static long used() {
+    final java.lang.Runtime rt = java.lang.Runtime.getRuntime();
+    for (int i=0; i<3; i++) System.gc();
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  /**
+   * Parse the specified input.
+   *
+   * @param cons The parser constructor.
+   * @param top The top-level production.
+   * @param input The input.
+   * @return The parser.
+   * @throws Exception Signals an exceptional condition.
+   */
+  private static Object parse(Constructor<?> cons, Method top, String input)
+    throws Exception {
+    final Reader in     = new StringReader(input);
+    final Object parser = cons.newInstance(in, "bench", input.length());
+    final Result result = (Result)top.invoke(parser, 0);
+
+    if (! result.hasValue()) {
+      throw new ParseException(((ParserBase)parser).
+                               format((ParseError)result));
+    }
+    return parser;
+  }
+
+  /**
+   * Get a parser's semantic value after a successful parse.
+   *
+   * @param top The top-level production.
+   * @param parser The parser.
+   * @return The semantic value.
+   * @throws Exception Signals an exceptional condition.
+   */
+  private static Object value(Method top, Object parser) throws Exception {
+    return ((Result)top.invoke(parser, 0)).semanticValue();
+  }
+
+  /**
+   * Benchmark the specified subject.
+   *
+   * @param subject The subject.
+   * @throws Exception Signals an exceptional condition.
+   */
+  private void run(Subject subject) throws Exception {
+    final Class<?>       k    = Class.forName(subject.parser);
+    final Constructor<?> cons =
+      k.getConstructor(Reader.class, String.class, Integer.TYPE);
+    final Method         top  = k.getMethod(subject.production, Integer.TYPE);
+
+    final int        warmUp    = runtime.getInt("runsWarmUp");
+    final int        total     = runtime.getInt("runsTotal");
+    final int        steps     = runtime.getInt("benchmarkSteps");
+    final Statistics time      = new Statistics();
+    final Statistics alloc     = new Statistics();
+    final Statistics sizes     = new Statistics();
+    final Statistics latencies = new Statistics();
+    final Statistics memos     = new Statistics();
+    final Printer    console   = runtime.console();
+
+    console.p(subject.name).p(" (").p(subject.parser).p('.').
+      p(subject.production).pln(')').flush();
+
+    int size = runtime.getInt("benchmarkSize") * 1024;
+    for (int step=0; step<steps; step++, size *= 2) {
+      final String input = subject.generate(size);
+      final double kb    = input.length() / 1024.0;
+
+      time.reset();
+      alloc.reset();
+
+      for (int i=0; i<total; i++) {
+        final long startAlloc = allocated();
+        final long startTime  = System.nanoTime();
+        parse(cons, top, input);
+        final long endTime    = System.nanoTime();
+        final long endAlloc   = allocated();
+
+        if (i >= warmUp) {
+          time.add((endTime - startTime) / 1000000.0);
+          if (-1 != startAlloc) alloc.add(endAlloc - startAlloc);
+        }
+      }
+
+      // Measure the memoization footprint: The heap retained by the
+      // parser and its result minus the heap retained by the result.
+      final long base   = used();
+      Object     parser = parse(cons, top, input);
+      final long full   = used();
+      Object     ast    = value(top, parser);
+      parser            = null;
+      final long tree   = used();
+      final double memo = Math.max(0, full - tree) / 1024.0;
+      if (null == ast) console.pln("  (no semantic value)");
+      ast               = null;
+
+      final double latency    = time.mean();
+      final double throughput = kb / (latency / 1000.0);
+
+      sizes.add(kb);
+      latencies.add(latency);
+      memos.add(memo);
+
+      console.p("  ").p(Statistics.round(kb)).p(" KB: ").
+        p(Statistics.round(latency)).p(" ms (stdev ").
+        p(Statistics.round(time.stdev())).p("), ").
+        p(Statistics.round(throughput)).p(" KB/s, ");
+      if (0 == alloc.size()) {
+        console.p("n/a");
+      } else {
+        final double rate = (alloc.mean() / (1024.0 * 1024.0)) /
+          (latency / 1000.0);
+        console.p(Statistics.round(rate)).p(" MB/s alloc");
+      }
+      console.p(", ").p(Statistics.round(memo)).p(" KB memo, ").
+        p(Statistics.round(Math.max(0, tree - base) / 1024.0)).
+        pln(" KB tree").flush();
+    }
+
+    if (1 < steps) {
+      console.p("  overall: ").
+        p(Statistics.round(1000.0 / Statistics.fitSlope(sizes, latencies))).
+        p(" KB/s, ").
+        p(Statistics.round(Statistics.fitSlope(sizes, memos))).
+        pln(":1 memo").flush();
+    }
+  }
+
+  /**
+   * Run this benchmark driver with the specified command line
+   * arguments.
+   *
+   * @param args The command line arguments.
+   */
+  public void run(String[] args) {
+    if ((null == args) || (0 == args.length)) {
+      runtime.console().pln("Usage: <option>* <parser>+").pln().
+        pln("Parsers are c, java, javafive, rats, and typical.").pln().
+        pln("Options are:");
+      runtime.printOptions();
+      runtime.console().pln().flush();
+      runtime.exit();
+    }
+
+    int index = runtime.process(args);
+    runtime.initDefaultValues();
+
+    if (index >= args.length) {
+      runtime.error("no parsers specified");
+    }
+    if (runtime.getInt("runsWarmUp") >= runtime.getInt("runsTotal")) {
+      runtime.error("total runs must exceed warm-up runs");
+    }
+    if (0 >= runtime.getInt("benchmarkSize")) {
+      runtime.error("input size must be positive");
+    }
+
+    final List<Subject> subjects = new ArrayList<Subject>();
+    for (; index < args.length; index++) {
+      Subject subject = null;
+      for (Subject s : SUBJECTS) {
+        if (s.name.equals(args[index])) subject = s;
+      }
+      if (null == subject) {
+        runtime.error("unrecognized parser " + args[index]);
+      } else {
+        subjects.add(subject);
+      }
+    }
+
+    if (runtime.seenError()) runtime.exit();
+
+    for (Subject subject : subjects) {
+      try {
+        run(subject);
+      } catch (ClassNotFoundException x) {
+        runtime.error(subject.parser + " not found");
+      } catch (InvocationTargetException x) {
+        runtime.error();
+        x.getCause().printStackTrace();
+      } catch (ParseException x) {
+        runtime.error();
+        System.err.print(x.getMessage());
+      } catch (Exception x) {
+        runtime.error();
+        x.printStackTrace();
+      }
+    }
+
+    runtime.exit();
+  }
+
+  /**
+   * Run the benchmark driver with the specified command line
+   * arguments.
+   *
+   * @param args The command line arguments.
+   */
+  public static void main(String[] args) {
+    new Benchmark().run(args);
+  }
+
+}
@@ -19,6 +19,8 @@
 package xtc.parser;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -123,9 +125,18 @@ public class CodeGenerator extends Visitor {
   /** The prefix for field names that count accesses to memoized results. */
   public static final String PREFIX_COUNT_FIELD = "c";
 
+  /** The prefix for constant names that identify memoization table slots. */
+  public static final String PREFIX_SLOT = "s";
+
+  /** The prefix for stream method names. */
+  public static final String PREFIX_STREAM = "stream";
+
   /** The general prefix for internal parser fields and variables. */
   public static final String PREFIX = "yy";
 
+  /** The name for the table of parse error messages. */
+  public static final String MESSAGES = PREFIX + "Messages";
+
   /** The name for the variable referencing the verbose mode printer. */
   public static final String PRINTER = PREFIX + "Out";
 
@@ -141,6 +152,15 @@ public class CodeGenerator extends Visitor {
   /** The name of the memoization column variable. */
   public static final String COLUMN = PREFIX + "Column";
 
+  /** The name of the paged memoization table field. */
+  public static final String MEMO = PREFIX + "Memo";
+
+  /** The name of the memoization lookup count field. */
+  public static final String LOOKUPS = PREFIX + "MemoLookups";
+
+  /** The name of the memoization miss count field. */
+  public static final String MISSES = PREFIX + "MemoMisses";
+
   /** The name of the character variable. */
   public static final String CHAR = PREFIX + "C";
 
@@ -162,6 +182,9 @@ public class CodeGenerator extends Visitor {
   /** The name for the base index variable. */
   public static final String BASE_INDEX = PREFIX + "Base";
 
+  /** The name for the first-character dispatch mask variable. */
+  public static final String DISPATCH = PREFIX + "Dispatch";
+
   /** The prefix for the index variable for nested choices. */
   public static final String NESTED_CHOICE = PREFIX + "Choice";
 
@@ -275,6 +298,33 @@ public class CodeGenerator extends Visitor {
   /** The number of chunks. */
   protected int chunkCount;
 
+  /**
+   * The productions in the order of their assignment to chunks.  This
+   * field is only valid if memoized results are chunked.
+   */
+  protected List<Production> chunkOrder;
+
+  /**
+   * Flag for whether the memoized results are stored in a paged
+   * {@link MemoTable memoization table} instead of columns.
+   */
+  protected boolean paged;
+
+  /** The map from nonterminals to memoization table slots. */
+  protected Map<NonTerminal, Integer> slotMap;
+
+  /** The number of memoization table slots. */
+  protected int slotCount;
+
+  /** Flag for whether parse error messages are identified by number. */
+  protected boolean numbered;
+
+  /** The map from parse error messages to their ids. */
+  protected Map<String, Integer> messageMap;
+
+  /** The parse error messages, indexed by id. */
+  protected List<String> messages;
+
   /** The flag for the first element in a top-level choice. */
   protected boolean firstElement;
 
@@ -501,7 +551,9 @@ public class CodeGenerator extends Visitor {
    * @return The corresponding field name.
    */
   public String fieldName(NonTerminal nt, String prefix) {
-    if (chunked) {
+    if (paged) {
+      return prefix + nt.toIdentifier();
+    } else if (chunked) {
       return COLUMN + ".chunk" + chunkMap.get(nt) + "." + prefix +
         nt.toIdentifier();
     } else {
@@ -509,6 +561,33 @@ public class CodeGenerator extends Visitor {
     }
   }
 
+  /**
+   * Determine the order for assigning the specified grammar's
+   * productions to chunks.  Productions with a {@link
+   * Properties#MEMO_COUNT memoization count} come first, ordered by
+   * decreasing count, so that the most frequently accessed results
+   * share the same chunks.  All other productions follow in their
+   * original order.
+   *
+   * @param m The grammar.
+   * @return The productions in chunk order.
+   */
+  protected List<Production> chunkOrder(Module m) {
+    List<Production> order = new ArrayList<Production>(m.productions);
+
+    Collections.sort(order, new Comparator<Production>() {
+        public int compare(Production p1, Production p2) {
+          int c1 = p1.hasProperty(Properties.MEMO_COUNT) ?
+            (Integer)p1.getProperty(Properties.MEMO_COUNT) : -1;
+          int c2 = p2.hasProperty(Properties.MEMO_COUNT) ?
+            (Integer)p2.getProperty(Properties.MEMO_COUNT) : -1;
+          return c1 > c2 ? -1 : (c1 == c2 ? 0 : 1);
+        }
+      });
+
+    return order;
+  }
+
   /**
    * Generate the method name for the specified nonterminal.
    *
@@ -632,7 +711,18 @@ public class CodeGenerator extends Visitor {
       final String name = p.name.toIdentifier();
       maxNameSize = Math.max(maxNameSize, name.length());
 
-      if (attributeRawTypes) {
+      if (paged) {
+        // The paged memoization table tracks the maxima itself.
+        final String slot = fieldName(p.name, PREFIX_SLOT);
+        if (attributeRawTypes) {
+          printer.indent().p("maxima.put(\"").p(name).p("\", ").buffer().
+            p("Integer.valueOf(").p(MEMO).p(".maxCount(").p(slot).p(")));").
+            fit("           ").pln();
+        } else {
+          printer.indent().p("maxima.put(\"").p(name).p("\", ").buffer().
+            p(MEMO).p(".maxCount(").p(slot).p("));").fit("           ").pln();
+        }
+      } else if (attributeRawTypes) {
         printer.indent().p("maxima.put(\"").p(name).
           pln("\", Integer.valueOf(0));");
       } else {
@@ -641,11 +731,62 @@ public class CodeGenerator extends Visitor {
     }
     printer.pln();
 
-    // Emit the code to process the memoization table.
+    if (! paged) profileColumns();
+
+    // Emit the code to print the profile.
+    printer.indent().pln("// Print the profile.");
+
+    for (Production p : analyzer.module().productions) {
+      if (runtime.test("optimizeTransient") && ! p.isMemoized()) continue;
+
+      printer.indent().p("print(printer, ").p(maxNameSize).p(", maxima, ").
+        buffer().p('"').p(p.name.toIdentifier()).p("\");").fitMore().pln();
+    }
+    printer.decr().indent().pln('}');
+    printer.pln();
+
+    // Emit the code for the profile helper method.
+    if (! paged) profileHelper();
+
+    // Emit the code for the print helper method.
+    printer.indent().pln("/**");
+    printer.indent().p(" * Print the profile for the specified production").
+      pln(" and count.");
+    printer.indent().pln(" *");
+    printer.indent().pln(" * @param printer The printer.");
+    printer.indent().pln(" * @param align The alignment.");
+    printer.indent().pln(" * @param maxima The profile.");
+    printer.indent().pln(" * @param name The production's name.");
+    printer.indent().pln(" */");
+    if (attributeRawTypes) {
+      printer.indent().pln("private void print(Printer printer, int align,");
+      printer.indent().pln("                   HashMap maxima, String name) {").
+        incr();
+      printer.indent().p("int count = ((Integer)maxima.get(name)).").
+        pln("intValue();"); 
+    } else {
+      printer.indent().pln("private void print(Printer printer, int align,");
+      printer.indent().p("                   HashMap<String, Integer> ").
+        pln("maxima, String name) {").incr();
+      printer.indent().pln("int count = maxima.get(name);");
+    }
+    printer.indent().pln("align    += 4;"); 
+    printer.indent().pln("if (1 != count) {").incr();
+    printer.indent().pln("printer.p(\"- \");");
+    printer.decr().indent().pln("} else {").incr();
+    printer.indent().pln("printer.p(\"* \");");
+    printer.decr().indent().pln('}');
+    printer.indent().pln("printer.p(name).align(align).p(\" : \").pln(count);");
+    printer.decr().indent().pln('}');
+    printer.pln();
+  }
+
+  /** Emit code for collecting the memoization profile from the columns. */
+  protected void profileColumns() {
     printer.indent().pln("// Process the memoization table.");
     printer.indent().pln("for (int i=0; i<yyCount; i++) {").incr();
     printer.indent().p(className).p("Column column = (").p(className).
-      pln("Column)yyColumns[i];");
+      pln("Column)yyColumns[yyOffset + i];");
     printer.pln();
     printer.indent().pln("if (null != column) {").incr();
 
@@ -665,7 +806,7 @@ public class CodeGenerator extends Visitor {
       int     idx    = CHUNK_SIZE;
       boolean first  = true;
 
-      for (Production p : analyzer.module().productions) {
+      for (Production p : chunkOrder) {
         if (runtime.test("optimizeTransient") && ! p.isMemoized()) continue;
 
         if (CHUNK_SIZE <= idx) {
@@ -697,20 +838,10 @@ public class CodeGenerator extends Visitor {
     printer.decr().indent().pln('}');
     printer.decr().indent().pln('}');
     printer.pln();
+  }
 
-    // Emit the code to print the profile.
-    printer.indent().pln("// Print the profile.");
-
-    for (Production p : analyzer.module().productions) {
-      if (runtime.test("optimizeTransient") && ! p.isMemoized()) continue;
-
-      printer.indent().p("print(printer, ").p(maxNameSize).p(", maxima, ").
-        buffer().p('"').p(p.name.toIdentifier()).p("\");").fitMore().pln();
-    }
-    printer.decr().indent().pln('}');
-    printer.pln();
-
-    // Emit the code for the profile helper method.
+  /** Emit the helper method for collecting the memoization profile. */
+  protected void profileHelper() {
     printer.indent().pln("/**");
     printer.indent().p(" * Update the profile for the specified production").
       pln(" and count.");
@@ -737,38 +868,6 @@ public class CodeGenerator extends Visitor {
     }      
     printer.decr().indent().pln('}');
     printer.pln();
-
-    // Emit the code for the print helper method.
-    printer.indent().pln("/**");
-    printer.indent().p(" * Print the profile for the specified production").
-      pln(" and count.");
-    printer.indent().pln(" *");
-    printer.indent().pln(" * @param printer The printer.");
-    printer.indent().pln(" * @param align The alignment.");
-    printer.indent().pln(" * @param maxima The profile.");
-    printer.indent().pln(" * @param name The production's name.");
-    printer.indent().pln(" */");
-    if (attributeRawTypes) {
-      printer.indent().pln("private void print(Printer printer, int align,");
-      printer.indent().pln("                   HashMap maxima, String name) {").
-        incr();
-      printer.indent().p("int count = ((Integer)maxima.get(name)).").
-        pln("intValue();"); 
-    } else {
-      printer.indent().pln("private void print(Printer printer, int align,");
-      printer.indent().p("                   HashMap<String, Integer> ").
-        pln("maxima, String name) {").incr();
-      printer.indent().pln("int count = maxima.get(name);");
-    }
-    printer.indent().pln("align    += 4;"); 
-    printer.indent().pln("if (1 != count) {").incr();
-    printer.indent().pln("printer.p(\"- \");");
-    printer.decr().indent().pln("} else {").incr();
-    printer.indent().pln("printer.p(\"* \");");
-    printer.decr().indent().pln('}');
-    printer.indent().pln("printer.p(name).align(align).p(\" : \").pln(count);");
-    printer.decr().indent().pln('}');
-    printer.pln();
   }
 
   // ========================================================================
@@ -784,8 +883,43 @@ public class CodeGenerator extends Visitor {
     printer.indent().pln(" */");
     printer.indent().pln("public void dump(Printer printer) {").incr();
     printer.indent().pln("for (int i=0; i<yyCount; i++) {").incr();
+
+    if (paged) {
+      dumpTable();
+    } else {
+      dumpColumns();
+    }
+
+    printer.decr().indent().pln('}');
+    printer.decr().indent().pln('}');
+    printer.pln();
+
+    dumpHelper();
+  }
+
+  /** Emit code for dumping the paged memoization table's entries. */
+  protected void dumpTable() {
+    printer.indent().pln("printer.indent().p(i).pln(\" = {\").incr();");
+    printer.pln();
+
+    for (Production p : analyzer.module().productions) {
+      if ((! runtime.test("optimizeTransient")) || p.isMemoized()) {
+        final String name = p.name.toIdentifier();
+
+        printer.indent().p("dump(printer, \"").p(name).p("\", ").
+          buffer().p(MEMO).p(".get(").p(fieldName(p.name, PREFIX_SLOT)).
+          p(", i));").fit("     ").pln();
+      }
+    }
+
+    printer.pln();
+    printer.indent().pln("printer.decr().indent().pln(\"};\");");
+  }
+
+  /** Emit code for dumping the memoization table's columns. */
+  protected void dumpColumns() {
     printer.indent().p(className).p("Column column = (").p(className).
-      pln("Column)yyColumns[i];");
+      pln("Column)yyColumns[yyOffset + i];");
     printer.indent().pln("printer.indent().p(i).p(\" = \");");
     printer.pln();
 
@@ -814,7 +948,7 @@ public class CodeGenerator extends Visitor {
       int      idx    = CHUNK_SIZE;
       boolean  first  = true;
 
-      for (Production p : analyzer.module().productions) {
+      for (Production p : chunkOrder) {
         if (runtime.test("optimizeTransient") && ! p.isMemoized()) continue;
 
         if (CHUNK_SIZE <= idx) {
@@ -860,10 +994,10 @@ public class CodeGenerator extends Visitor {
     printer.pln();
     printer.indent().pln("printer.decr().indent().pln(\"};\");");
     printer.decr().indent().pln('}');
-    printer.decr().indent().pln('}');
-    printer.decr().indent().pln('}');
-    printer.pln();
+  }
 
+  /** Emit the helper method for dumping a memoized result. */
+  protected void dumpHelper() {
     printer.indent().pln("/**");
     printer.indent().pln(" * Dump a memoized result.");
     printer.indent().pln(" *");
@@ -889,6 +1023,97 @@ public class CodeGenerator extends Visitor {
 
   // ========================================================================
 
+  /**
+   * Get the id for the specified parse error message, assigning a new
+   * id if the message has not been seen before.  The message must
+   * already be escaped for inclusion in a Java string literal.
+   *
+   * @param msg The message.
+   * @return The corresponding id.
+   */
+  protected int messageId(String msg) {
+    Integer id = messageMap.get(msg);
+    if (null == id) {
+      id = messages.size();
+      messageMap.put(msg, id);
+      messages.add(msg);
+    }
+    return id;
+  }
+
+  /** Emit the table of parse error messages and its accessor. */
+  protected void messages() {
+    printer.sep().pln();
+
+    printer.indent().pln("/** The parse error messages, indexed by id. */");
+    printer.indent().p("private static final String[] ").p(MESSAGES).
+      pln(" = {").incr();
+    for (String msg : messages) {
+      printer.indent().p('"').p(msg).pln("\",");
+    }
+    printer.decr().indent().pln("};");
+    printer.pln();
+
+    printer.indent().pln("protected String message(final int id) {").incr();
+    printer.indent().p("return ").p(MESSAGES).pln("[id];");
+    printer.decr().indent().pln('}');
+    printer.pln();
+  }
+
+  /**
+   * Emit code for a stream over the specified public production.
+   *
+   * @param p The production.
+   */
+  protected void stream(Production p) {
+    String type = extern(p.type);
+    if (attributeRawTypes) type = rawT(type);
+
+    printer.sep().pln();
+
+    printer.indent().pln("/**");
+    printer.indent().p(" * Stream the semantic values of ").p(p.qName.name).
+      pln('.');
+    printer.indent().pln(" *");
+    printer.indent().pln(" * @return The stream.");
+    printer.indent().pln(" */");
+    printer.indent().p("public Stream<").p(type).p("> ").p(PREFIX_STREAM).
+      p(p.name.toIdentifier()).pln("() {").incr();
+    printer.indent().p("return new Stream<").p(type).pln(">() {").incr();
+    printer.indent().p("protected Result parse(final ").p(indexT()).p(' ').
+      p(ARG_INDEX).pln(") throws IOException {").incr();
+    printer.indent().p("return ").p(methodName(p.name)).p('(').p(ARG_INDEX).
+      pln(");");
+    printer.decr().indent().pln('}');
+    printer.decr().indent().pln("};");
+    printer.decr().indent().pln('}');
+    printer.pln();
+  }
+
+  /**
+   * Emit the rest of a constructor's body, including the closing
+   * brace.
+   *
+   * @param size The expression for the expected input size.
+   * @param verbose The flag for whether the parser is verbose.
+   */
+  protected void constructorBody(String size, boolean verbose) {
+    if (paged) {
+      printer.indent().p(MEMO).p(" = new MemoTable(").p(slotCount).
+        p(", ").p(size).p(", ").p(String.valueOf(attributeProfile)).pln(");");
+    }
+    if (attributeStateful) {
+      printer.indent().p(STATE).p(" = new ").p(stateClassName).pln("();");
+    }
+    if (verbose) {
+      printer.indent().p(PRINTER).pln(" = new Printer(System.out);");
+    }
+    printer.decr().indent().pln('}');
+    printer.pln();
+  }
+
+  // ========================================================================
+
   /**
    * Emit code for a static main method.
    *
@@ -1043,6 +1268,13 @@ public class CodeGenerator extends Visitor {
     chunked    = false;
     chunkMap   = null;
     chunkCount = 0;
+    chunkOrder = null;
+    paged      = runtime.test("optionMemoTable");
+    slotMap    = null;
+    slotCount  = 0;
+    numbered   = runtime.test("optionErrorIds");
+    messageMap = new HashMap<String, Integer>();
+    messages   = new ArrayList<String>();
 
     // Emit package name.
     final String packageName = Utilities.getQualifier(m.getClassName());
@@ -1063,6 +1295,9 @@ public class CodeGenerator extends Visitor {
     printer.indent().pln("import java.io.IOException;");
     printer.pln();
 
+    printer.indent().pln("import java.nio.CharBuffer;");
+    printer.pln();
+
     if (attributeProfile) {
       printer.indent().pln("import java.util.HashMap;");
     }
@@ -1116,6 +1351,9 @@ public class CodeGenerator extends Visitor {
 
     printer.indent().pln("import xtc.parser.ParserBase;");
     printer.indent().pln("import xtc.parser.Column;");
+    if (paged) {
+      printer.indent().pln("import xtc.parser.MemoTable;");
+    }
     printer.indent().pln("import xtc.parser.Result;");
     printer.indent().pln("import xtc.parser.SemanticValue;");
     printer.indent().pln("import xtc.parser.ParseError;");
@@ -1202,8 +1440,24 @@ public class CodeGenerator extends Visitor {
       }
     }
 
-    // To chunk or not to chunk.
-    if (runtime.test("optimizeChunks") && (CHUNK_SIZE <= memoCount)) {
+    // To page, to chunk, or not to chunk.
+    if (paged) {
+      slotMap = new HashMap<NonTerminal, Integer>(memoCount * 4 / 3);
+
+      printer.sep().pln();
+      printer.indent().pln("/* The memoization table slots. */");
+      for (Production p : m.productions) {
+        // Skip memoization for productions that are transient.
+        if (runtime.test("optimizeTransient") && ! p.isMemoized()) continue;
+
+        slotMap.put(p.name, slotCount);
+        printer.indent().p("private static final int ").
+          p(fieldName(p.name, PREFIX_SLOT)).p(" = ").p(slotCount).pln(';');
+        slotCount++;
+      }
+      printer.pln();
+
+    } else if (runtime.test("optimizeChunks") && (CHUNK_SIZE <= memoCount)) {
       chunked    = true;
       chunkMap   = new HashMap<NonTerminal, Integer>(memoCount * 4 / 3);
 
@@ -1212,7 +1466,8 @@ public class CodeGenerator extends Visitor {
       int     i       = CHUNK_SIZE;
       boolean first   = true;
 
-      for (Production p : m.productions) {
+      chunkOrder = chunkOrder(m);
+      for (Production p : chunkOrder) {
         // Skip memoization for productions that are transient.
         if (runtime.test("optimizeTransient") && ! p.isMemoized()) continue;
 
@@ -1257,7 +1512,10 @@ public class CodeGenerator extends Visitor {
     printer.indent().p("static final class ").p(className).
       pln("Column extends Column {").incr();
 
-    if (chunked) {
+    if (paged) {
+      // The memoized results are stored in the memoization table.
+
+    } else if (chunked) {
       for (int i=1; i<=chunkCount; i++) {
         printer.indent().p("Chunk").p(i).p(' ').p("chunk").
           p(i).pln(';');
@@ -1309,14 +1567,7 @@ public class CodeGenerator extends Visitor {
     printer.indent().p("public ").p(className).
       pln("(final Reader reader, final String file) {").incr();
     printer.indent().pln("super(reader, file);");
-    if (attributeStateful) {
-      printer.indent().p(STATE).p(" = new ").p(stateClassName).pln("();");
-    }
-    if (isVerbose) {
-      printer.indent().p(PRINTER).pln(" = new Printer(System.out);");
-    }
-    printer.decr().indent().pln('}');
-    printer.pln();
+    constructorBody("INIT_SIZE", isVerbose);
 
     printer.indent().pln("/**");
     printer.indent().pln(" * Create a new packrat parser.");
@@ -1328,14 +1579,18 @@ public class CodeGenerator extends Visitor {
     printer.indent().p("public ").p(className).
       pln("(final Reader reader, final String file, final int size) {").incr();
     printer.indent().pln("super(reader, file, size);");
-    if (attributeStateful) {
-      printer.indent().p(STATE).p(" = new ").p(stateClassName).pln("();");
-    }
-    if (isVerbose) {
-      printer.indent().p(PRINTER).pln(" = new Printer(System.out);");
-    }
-    printer.decr().indent().pln('}');
-    printer.pln();
+    constructorBody("size", isVerbose);
+
+    printer.indent().pln("/**");
+    printer.indent().pln(" * Create a new packrat parser.");
+    printer.indent().pln(" *");
+    printer.indent().pln(" * @param input The entire input.");
+    printer.indent().pln(" * @param file The file name.");
+    printer.indent().pln(" */");
+    printer.indent().p("public ").p(className).
+      pln("(final CharBuffer input, final String file) {").incr();
+    printer.indent().pln("super(input, file);");
+    constructorBody("yyCount", isVerbose);
 
     // Emit code for creating a column.
     printer.sep().pln();
@@ -1372,6 +1627,18 @@ public class CodeGenerator extends Visitor {
       attributeVerbose            = savedVerbose;
     }
 
+    // Emit code for streams.
+    if (runtime.test("optionStreams")) {
+      for (Production p : m.productions) {
+        if (p.hasAttribute(Constants.ATT_PUBLIC) && (! AST.isVoid(p.type))) {
+          stream(p);
+        }
+      }
+    }
+
+    // Emit code for numbered parse error messages.
+    if (numbered) messages();
+
     // Emit code for body.
     if (null != m.body) {
       printer.sep().pln();
@@ -1555,31 +1822,11 @@ public class CodeGenerator extends Visitor {
 
     // Only memoize non-transient productions.
     if ((! runtime.test("optimizeTransient")) || p.isMemoized()) {
-      printer.indent().p(className).p("Column ").p(COLUMN).p(" = (").
-        p(className).p("Column)column(").p(ARG_INDEX).pln(");");
-
-      if (chunked) {
-        String chunk = chunkMap.get(p.name).toString();
-        printer.indent().p("if (").p(nullExpr()).p(" == ").p(COLUMN).
-          p(".chunk").p(chunk).p(") ").p(COLUMN).p(".chunk").p(chunk).
-          p(" = new Chunk").p(chunk).pln("();");
-      }
-
-      printer.indent().p("if (").p(nullExpr()).p(" == ").p(field).p(") ").
-        buffer().p(field).p(" = ").p(method).p("$1(").p(ARG_INDEX).p(");").
-        fitMore().pln();
-
-      if (attributeProfile) {
-        printer.indent().p(fieldName(p.name, PREFIX_COUNT_FIELD)).pln("++;");
-      }
-
-      if (attributeVerbose) {
-        printer.indent().p("traceLookup(\"").p(p.name.toIdentifier()).
-          p("\", ").p(ARG_INDEX).p(", ").
-          buffer().p(field).p(");").fitMore().pln();
+      if (paged) {
+        memoizeInTable(p, method);
+      } else {
+        memoizeInColumn(p, field, method);
       }
-
-      printer.indent().p("return ").p(field).pln(';');
       printer.decr().indent().pln('}');
 
       printer.pln();
@@ -1686,8 +1933,8 @@ public class CodeGenerator extends Visitor {
       if (p.hasAttribute(Constants.ATT_RESETTING)) {
         printer.pln();
         printer.indent().pln("// Reset the global state object.");
-        printer.indent().p(STATE).p(".reset(column(").p(ARG_INDEX).
-          pln(").file);");
+        printer.indent().p(STATE).p(".reset(fileAt(").p(ARG_INDEX).
+          pln("));");
       }
 
       if (p.hasAttribute(Constants.ATT_STATEFUL)) {
@@ -1730,7 +1977,11 @@ public class CodeGenerator extends Visitor {
         printer.indent().p("traceFailure(\"").p(p.name.toIdentifier()).
           p("\", ").p(ARG_INDEX).pln(");");
       }
-      if (p.hasAttribute(Constants.ATT_EXPLICIT)) {
+      if (p.hasAttribute(Constants.ATT_EXPLICIT) && numbered) {
+        printer.indent().p("return error(").
+          p(messageId(Utilities.split(p.name.unqualify().name, ' ') +
+                      " expected")).p(", ").p(ARG_INDEX).pln(");");
+      } else if (p.hasAttribute(Constants.ATT_EXPLICIT)) {
         printer.indent().p("return new ParseError(\"").
           p(Utilities.split(p.name.unqualify().name, ' ')).p(" expected\", ").
           p(ARG_INDEX).pln(");");
@@ -1748,6 +1999,89 @@ public class CodeGenerator extends Visitor {
 
   // ========================================================================
 
+  /**
+   * Emit the code for looking up the specified production's result in
+   * its memoization table column and, if necessary, for parsing and
+   * memoizing it.
+   *
+   * @param p The production.
+   * @param field The name of the memoization field.
+   * @param method The name of the parsing method.
+   */
+  protected void memoizeInColumn(Production p, String field, String method) {
+    printer.indent().p(className).p("Column ").p(COLUMN).p(" = (").
+      p(className).p("Column)column(").p(ARG_INDEX).pln(");");
+
+    if (chunked) {
+      String chunk = chunkMap.get(p.name).toString();
+      printer.indent().p("if (").p(nullExpr()).p(" == ").p(COLUMN).
+        p(".chunk").p(chunk).p(") ").p(COLUMN).p(".chunk").p(chunk).
+        p(" = new Chunk").p(chunk).pln("();");
+    }
+
+    if (attributeProfile) {
+      printer.indent().p(LOOKUPS).pln("++;");
+      printer.indent().p("if (").p(nullExpr()).p(" == ").p(field).p(") ").
+        buffer().p(MISSES).p("++;").fitMore().pln();
+    }
+
+    printer.indent().p("if (").p(nullExpr()).p(" == ").p(field).p(") ").
+      buffer().p(field).p(" = ").p(method).p("$1(").p(ARG_INDEX).p(");").
+      fitMore().pln();
+
+    if (attributeProfile) {
+      printer.indent().p(fieldName(p.name, PREFIX_COUNT_FIELD)).pln("++;");
+    }
+
+    if (attributeVerbose) {
+      printer.indent().p("traceLookup(\"").p(p.name.toIdentifier()).
+        p("\", ").p(ARG_INDEX).p(", ").
+        buffer().p(field).p(");").fitMore().pln();
+    }
+
+    printer.indent().p("return ").p(field).pln(';');
+  }
+
+  /**
+   * Emit the code for looking up the specified production's result in
+   * the paged memoization table and, if necessary, for parsing and
+   * memoizing it.
+   *
+   * @param p The production.
+   * @param method The name of the parsing method.
+   */
+  protected void memoizeInTable(Production p, String method) {
+    final String slot = fieldName(p.name, PREFIX_SLOT);
+
+    printer.indent().p("Result ").p(RESULT).p(" = ").p(MEMO).p(".get(").
+      p(slot).p(", ").p(ARG_INDEX).pln(");");
+    printer.indent().p("if (").p(nullExpr()).p(" == ").p(RESULT).
+      pln(") {").incr();
+    printer.indent().p(RESULT).p(" = ").p(method).p("$1(").p(ARG_INDEX).
+      pln(");");
+    printer.indent().p(MEMO).p(".put(").p(slot).p(", ").p(ARG_INDEX).
+      p(", ").p(RESULT).pln(");");
+    if (attributeProfile) {
+      printer.indent().p(MISSES).pln("++;");
+    }
+    printer.decr().indent().pln('}');
+
+    if (attributeProfile) {
+      printer.indent().p(LOOKUPS).pln("++;");
+      printer.indent().p(MEMO).p(".count(").p(slot).p(", ").p(ARG_INDEX).
+        pln(");");
+    }
+
+    if (attributeVerbose) {
+      printer.indent().p("traceLookup(\"").p(p.name.toIdentifier()).
+        p("\", ").p(ARG_INDEX).p(", ").p(RESULT).pln(");");
+    }
+
+    printer.indent().p("return ").p(RESULT).pln(';');
+  }
+
+  // ========================================================================
+
   /**
    * Emit the code for assigning the result variable, threading the
    * parse error, and for testing the result.
@@ -2125,9 +2459,16 @@ public class CodeGenerator extends Visitor {
    * production's name.
    */
   protected void parseError() {
-    printer.indent().p(PARSE_ERROR).p(" = ").p(PARSE_ERROR).p(".select(\"").
-      p(Utilities.split(analyzer.current().name.unqualify().name, ' ')).
-      p(" expected\", "). p(ARG_INDEX).pln(");");
+    if (numbered) {
+      printer.indent().p(PARSE_ERROR).p(" = select(").p(PARSE_ERROR).p(", ").
+        p(messageId(Utilities.split(analyzer.current().name.unqualify().name,
+                                    ' ') + " expected")).
+        p(", ").p(ARG_INDEX).pln(");");
+    } else {
+      printer.indent().p(PARSE_ERROR).p(" = ").p(PARSE_ERROR).p(".select(\"").
+        p(Utilities.split(analyzer.current().name.unqualify().name, ' ')).
+        p(" expected\", "). p(ARG_INDEX).pln(");");
+    }
   }
 
   /**
@@ -2136,9 +2477,17 @@ public class CodeGenerator extends Visitor {
    * @param text The expected text.
    */
   protected void parseError(String text) {
-    printer.indent().p(PARSE_ERROR).p(" = ").p(PARSE_ERROR).p(".select(\"'").
-      escape(text, Utilities.JAVA_ESCAPES | Utilities.ESCAPE_DOUBLE).
-      p("' expected\", ").p(BASE_INDEX).pln(");");
+    if (numbered) {
+      printer.indent().p(PARSE_ERROR).p(" = select(").p(PARSE_ERROR).p(", ").
+        p(messageId("'" + Utilities.escape(text, Utilities.JAVA_ESCAPES |
+                                           Utilities.ESCAPE_DOUBLE) +
+                    "' expected")).p(", ").p(BASE_INDEX).
+        pln(");");
+    } else {
+      printer.indent().p(PARSE_ERROR).p(" = ").p(PARSE_ERROR).p(".select(\"'").
+        escape(text, Utilities.JAVA_ESCAPES | Utilities.ESCAPE_DOUBLE).
+        p("' expected\", ").p(BASE_INDEX).pln(");");
+    }
   }
 
   // ========================================================================
@@ -2184,6 +2533,13 @@ public class CodeGenerator extends Visitor {
       }
     }
 
+    // For top-level choices with a dispatch table, switch on the
+    // first character.
+    final long[] table = (0 == choiceLevel) ? (long[])analyzer.current().
+      getProperty(Properties.DISPATCH) : null;
+    final boolean wide = (null != table) && (32 < c.alternatives.size());
+    if (null != table) dispatchTable(c, table, wide);
+
     // Process the alternatives.
     int alternativeNumber = 0;
     for (Sequence s : c.alternatives) {
@@ -2209,7 +2565,44 @@ public class CodeGenerator extends Visitor {
         printer.p('<').p(s.name.name).pln(">.");
       }
 
-      nextElement();
+      final long bit     = 1L << (alternativeNumber - 1);
+      boolean    guarded = false;
+      if (null != table) {
+        for (long mask : table) {
+          if (0 == (mask & bit)) {
+            guarded = true;
+            break;
+          }
+        }
+      }
+
+      if (guarded) {
+        printer.pln();
+        printer.indent().p("if (0 != (").p(DISPATCH).p(" & ").
+          p(mask(bit, wide)).pln(")) {").incr();
+        nextElement();
+
+        // Still record the parse error that the alternative's first
+        // nonterminal would have created.
+        final String skipped = skippedError(s);
+        if (null == skipped) {
+          printer.decr().indent().pln('}');
+        } else {
+          printer.decr().indent().p("} else if (").p(PARSE_ERROR).
+            p(".index < ").p(ARG_INDEX).pln(") {").incr();
+          printer.indent().p(PARSE_ERROR).p(" = ");
+          if (numbered) {
+            printer.p("error(").p(messageId(skipped));
+          } else {
+            printer.p("new ParseError(\"").p(skipped).p('"');
+          }
+          printer.p(", ").p(ARG_INDEX).pln(");");
+          printer.decr().indent().pln('}');
+        }
+        seenTest = true;
+      } else {
+        nextElement();
+      }
     }
 
     if (scoped) {
@@ -2222,6 +2615,99 @@ public class CodeGenerator extends Visitor {
     baseIndex    = base;
   }
 
+  /**
+   * Emit the code for switching on the first character.  The
+   * generated code initializes the dispatch mask variable with the
+   * entry of the specified table that corresponds to the character
+   * at the production's start index.  Note that this method sets
+   * {@link #endsWithParseError} if some character does not lead to
+   * any alternatives and no alternative records a {@link
+   * #skippedError(Sequence) parse error} when skipped, so that the
+   * production creates a parse error for that character.
+   *
+   * @param c The top-level choice.
+   * @param table The dispatch table.
+   * @param wide The flag for the table requiring long masks.
+   */
+  protected void dispatchTable(OrderedChoice c, long[] table, boolean wide) {
+    final int deflt = table.length - 1;
+
+    printer.pln();
+    printer.indent().pln("// Dispatch on the first character.");
+    printer.indent().p("final ").p(wide ? "long" : intT()).p(' ').
+      p(DISPATCH).pln(';');
+    printer.indent().p("switch (").p(PARSE_CHAR).p('(').p(ARG_INDEX).
+      pln(")) {").incr();
+
+    final boolean[] done = new boolean[deflt];
+    for (int i=0; i<deflt; i++) {
+      if (done[i] || (table[i] == table[deflt])) continue;
+
+      for (int k=i; k<deflt; k++) {
+        if (table[k] == table[i]) {
+          printer.indentLess().p("case \'").
+            escape((char)k, Utilities.JAVA_ESCAPES).pln("\':");
+          done[k] = true;
+        }
+      }
+      printer.indent().p(DISPATCH).p(" = ").p(mask(table[i], wide)).pln(';');
+      printer.indent().pln("break;");
+      printer.pln();
+    }
+
+    printer.indentLess().pln("default:");
+    printer.indent().p(DISPATCH).p(" = ").p(mask(table[deflt], wide)).
+      pln(';');
+    printer.decr().indent().pln('}');
+
+    for (Sequence alt : c.alternatives) {
+      if (null != skippedError(alt)) return;
+    }
+    for (long mask : table) {
+      if (0 == mask) {
+        endsWithParseError = true;
+        break;
+      }
+    }
+  }
+
+  /**
+   * Get the parse error message for the specified alternative when
+   * it is skipped by dispatching on the first character.  If the
+   * alternative starts with a nonterminal, the message is the one
+   * generated by the nonterminal's production when it fails.
+   *
+   * @param alt The alternative.
+   * @return The message or <code>null</code> if the alternative does
+   *   not start with a nonterminal.
+   */
+  protected String skippedError(Sequence alt) {
+    if (alt.isEmpty()) return null;
+
+    Element e = alt.get(0);
+    while ((e instanceof Binding) || (e instanceof VoidedElement) ||
+           (e instanceof StringMatch)) {
+      e = ((UnaryOperator)e).element;
+    }
+    if (! (e instanceof NonTerminal)) return null;
+
+    final FullProduction p = analyzer.lookup((NonTerminal)e);
+    return (null == p) ? null :
+      Utilities.split(p.name.unqualify().name, ' ') + " expected";
+  }
+
+  /**
+   * Get the literal for the specified dispatch mask.
+   *
+   * @param mask The mask.
+   * @param wide The flag for long masks.
+   * @return The corresponding literal.
+   */
+  protected static String mask(long mask, boolean wide) {
+    return wide ? "0x" + Long.toHexString(mask) + 'L' :
+      "0x" + Integer.toHexString((int)mask);
+  }
+
   // ========================================================================
 
   /** Generate code for the specified repetition. */
@@ -3294,8 +3780,8 @@ public class CodeGenerator extends Visitor {
     if (attributeWithLocation &&
         runtime.test("optimizeLocation") &&
         AST.isNode(type)) {
-      printer.indent().p(VALUE).p(".setLocation(location(").p(ARG_INDEX).
-        pln("));");
+      printer.indent().p("setLocation(").p(VALUE).p(", ").p(ARG_INDEX).
+        pln(");");
     } else {
       createsNodeValue = true;
     }
@@ -3691,8 +4177,8 @@ public class CodeGenerator extends Visitor {
     if (attributeWithLocation &&
         runtime.test("optimizeLocation") &&
         AST.isNode(analyzer.current().type)) {
-      printer.indent().p(VALUE).p(".setLocation(location(").p(ARG_INDEX).
-        pln("));");
+      printer.indent().p("setLocation(").p(VALUE).p(", ").p(ARG_INDEX).
+        pln(");");
 
     } else {
       createsNodeValue = true;
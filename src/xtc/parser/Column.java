@@ -19,26 +19,15 @@
 package xtc.parser;
 
 /**
- * The superclass of memoization table columns.
+ * The superclass of memoization table columns.  Columns only hold
+ * memoized results; source locations are computed on demand by
+ * {@link ParserBase#location(int)}.
  *
  * @author Robert Grimm
  * @version $Revision: 1.4 $
  */
 public abstract class Column {
 
-  /** The file name. */
-  public String  file;
-  
-  /**
-   * The flag for whether the previous character was a carriage
-   * return.
-   */
-  public boolean seenCR;
+  // Nothing to see here.
 
-  /** The current line. */
-  public int     line;
-
-  /** The current column. */
-  public int     column;
-
-}
\ No newline at end of file
+}
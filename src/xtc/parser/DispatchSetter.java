@@ -0,0 +1,409 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.parser;
+
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import xtc.tree.Visitor;
+
+import xtc.util.Runtime;
+
+/**
+ * Visitor to set up first-character dispatch for top-level choices.
+ * This visitor computes, for each production, the set of characters
+ * that may start the input consumed by the production (its
+ * <i>first</i> set) and whether the production may succeed without
+ * consuming any input.  It then annotates each production, whose
+ * top-level choice has alternatives that cannot start with some
+ * characters, with a {@link Properties#DISPATCH dispatch} table.  The
+ * {@link CodeGenerator code generator} uses the table to switch on
+ * the next character and only try the alternatives that may start
+ * with that character, while still trying them in order.
+ *
+ * <p />The analysis is conservative: Alternatives that may match
+ * the empty input, start with an action, or contain parser actions
+ * are always tried.  Alternatives starting with a terminal are
+ * always tried as well, since they test the first character anyway.
+ * Only the ASCII characters are distinguished; all other characters
+ * share the table's last entry.
+ *
+ * <p />Note that this visitor assumes that the entire grammar is
+ * contained in a single module and that the grammar is in the form
+ * used for code generation.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class DispatchSetter extends GrammarVisitor {
+
+  /** The number of distinguished characters. */
+  public static final int ASCII = 128;
+
+  /** The maximum number of alternatives. */
+  public static final int MAX_ALTERNATIVES = 64;
+
+  /** A first set. */
+  static final class First {
+
+    /** The set of ASCII characters. */
+    final BitSet chars;
+
+    /** The flag for other characters. */
+    boolean other;
+
+    /** The flag for matching the empty input. */
+    boolean empty;
+
+    /**
+     * Create a new first set.
+     *
+     * @param empty The flag for matching the empty input.
+     */
+    First(boolean empty) {
+      this.chars = new BitSet(ASCII);
+      this.empty = empty;
+    }
+
+    /**
+     * Create a new first set for any character.
+     *
+     * @param empty The flag for matching the empty input.
+     * @return The first set.
+     */
+    static First any(boolean empty) {
+      First f = new First(empty);
+      f.chars.set(0, ASCII);
+      f.other = true;
+      return f;
+    }
+
+    /**
+     * Add the specified character range.
+     *
+     * @param first The first character.
+     * @param last The last character.
+     */
+    void add(int first, int last) {
+      if (ASCII <= last) other = true;
+      if (ASCII > first) chars.set(first, Math.min(last, ASCII - 1) + 1);
+    }
+
+    /**
+     * Add the characters of the specified first set.
+     *
+     * @param f The first set.
+     */
+    void addChars(First f) {
+      chars.or(f.chars);
+      other |= f.other;
+    }
+
+    /**
+     * Determine whether this set includes the specified character.
+     *
+     * @param c The ASCII character.
+     * @return <code>true</code> if an element with this first set
+     *   may start with the character.
+     */
+    boolean includes(int c) {
+      return empty || chars.get(c);
+    }
+
+    /**
+     * Determine whether this set includes all other characters.
+     *
+     * @return <code>true</code> if an element with this first set
+     *   may start with a non-ASCII character or succeed at the end
+     *   of the input.
+     */
+    boolean includesOther() {
+      return empty || other;
+    }
+
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (! (o instanceof First)) return false;
+      First other = (First)o;
+      return ((this.empty == other.empty) &&
+              (this.other == other.other) &&
+              this.chars.equals(other.chars));
+    }
+
+    public int hashCode() {
+      return chars.hashCode();
+    }
+
+  }
+
+  // =========================================================================
+
+  /** The map from productions to their current first sets. */
+  protected final Map<FullProduction, First> firsts;
+
+  /**
+   * Create a new dispatch setter.
+   *
+   * @param runtime The runtime.
+   * @param analyzer The analyzer utility.
+   */
+  public DispatchSetter(Runtime runtime, Analyzer analyzer) {
+    super(runtime, analyzer);
+    firsts = new IdentityHashMap<FullProduction, First>();
+  }
+
+  /** Visit the specified grammar. */
+  public Object visit(Module m) {
+    // Initialize the per-grammar state.
+    analyzer.register(this);
+    analyzer.init(m);
+    firsts.clear();
+
+    // Compute the productions' first sets until reaching a fixed
+    // point.  We start with the empty set for all productions.
+    for (Production p : m.productions) {
+      firsts.put((FullProduction)p, new First(false));
+    }
+
+    boolean changed;
+    do {
+      changed = false;
+      for (Production p : m.productions) {
+        analyzer.process(p);
+        First f = (First)first.dispatch(p.choice);
+        if (! f.equals(firsts.get(p))) {
+          firsts.put((FullProduction)p, f);
+          changed = true;
+        }
+      }
+    } while (changed);
+
+    // Set up the dispatch tables.
+    int count = 0;
+    for (Production p : m.productions) {
+      analyzer.process(p);
+      if (table((FullProduction)p)) count++;
+    }
+
+    if (runtime.test("optionVerbose")) {
+      System.err.println("[Dispatching on the first character in " + count +
+                         " productions]");
+    }
+
+    // Done.
+    firsts.clear();
+    return null;
+  }
+
+  /**
+   * Set up the dispatch table for the specified production.  The
+   * production must be currently processed.
+   *
+   * @param p The production.
+   * @return <code>true</code> if the production has a dispatch table.
+   */
+  protected boolean table(FullProduction p) {
+    p.removeProperty(Properties.DISPATCH);
+
+    final int size = p.choice.alternatives.size();
+    if ((1 >= size) || (MAX_ALTERNATIVES < size)) return false;
+
+    // Alternatives starting with a terminal already test the first
+    // character themselves and are always tried.
+    final First[] alts = new First[size];
+    for (int i=0; i<size; i++) {
+      final Sequence alt = p.choice.alternatives.get(i);
+      alts[i] = startsWithTerminal(alt) ?
+        First.any(true) : (First)first.dispatch(alt);
+    }
+
+    final long   all   = (MAX_ALTERNATIVES == size) ? -1L : (1L << size) - 1;
+    final long[] table = new long[ASCII + 1];
+    boolean      pays  = false;
+
+    for (int c=0; c<=ASCII; c++) {
+      long mask = 0;
+      for (int i=0; i<size; i++) {
+        if ((ASCII == c)? alts[i].includesOther() : alts[i].includes(c)) {
+          mask |= (1L << i);
+        }
+      }
+      table[c] = mask;
+      if (all != mask) pays = true;
+    }
+
+    if (! pays) return false;
+
+    if (runtime.test("optionVerbose")) {
+      System.err.println("[Dispatching on the first character in " +
+                         p.qName + "]");
+    }
+    p.setProperty(Properties.DISPATCH, table);
+    return true;
+  }
+
+  /**
+   * Determine whether the specified alternative starts with a
+   * terminal.
+   *
+   * @param alt The alternative.
+   * @return <code>true</code> if the alternative starts with a
+   *   terminal.
+   */
+  protected static boolean startsWithTerminal(Sequence alt) {
+    if (alt.isEmpty()) return false;
+
+    Element e = alt.get(0);
+    while ((e instanceof Binding) || (e instanceof VoidedElement)) {
+      e = ((UnaryOperator)e).element;
+    }
+    return e instanceof Terminal;
+  }
+
+  // =========================================================================
+
+  /** The visitor computing first sets. */
+  @SuppressWarnings("unused")
+  private final Visitor first = new Visitor() {
+      public First visit(OrderedChoice c) {
+        First result = new First(false);
+        for (Sequence alt : c.alternatives) {
+          First f       = (First)dispatch(alt);
+          result.addChars(f);
+          result.empty |= f.empty;
+        }
+        return result;
+      }
+
+      public First visit(Sequence s) {
+        First result = new First(true);
+        for (Element e : s.elements) {
+          if (e instanceof Action) {
+            // Actions preceding the first consumed character must
+            // always be executed.
+            return First.any(true);
+          }
+
+          First f = (First)dispatch(e);
+          result.addChars(f);
+          if (! f.empty) {
+            result.empty = false;
+            break;
+          }
+        }
+        return result;
+      }
+
+      public First visit(Option o) {
+        First f = (First)dispatch(o.element);
+        f.empty = true;
+        return f;
+      }
+
+      public First visit(Repetition r) {
+        First f = (First)dispatch(r.element);
+        if (! r.once) f.empty = true;
+        return f;
+      }
+
+      public First visit(Predicate p) {
+        // Predicates do not consume any input.  To remain
+        // conservative, we still include the characters inspected
+        // by syntactic predicates.
+        First f = (First)dispatch(p.element);
+        f.empty = true;
+        return f;
+      }
+
+      public First visit(SemanticPredicate p) {
+        return new First(true);
+      }
+
+      public First visit(ParserAction pa) {
+        return First.any(true);
+      }
+
+      public First visit(UnaryOperator op) {
+        // The default for bindings, string matches, and voided elements.
+        return (First)dispatch(op.element);
+      }
+
+      public First visit(NonTerminal nt) {
+        FullProduction p;
+        try {
+          p = analyzer.lookup(nt);
+        } catch (IllegalArgumentException x) {
+          return First.any(true);
+        }
+
+        First f = (null == p)? null : firsts.get(p);
+        if (null == f) return First.any(true);
+
+        First result = new First(f.empty);
+        result.addChars(f);
+        return result;
+      }
+
+      public First visit(AnyChar a) {
+        return First.any(false);
+      }
+
+      public First visit(CharLiteral l) {
+        First f = new First(false);
+        f.add(l.c, l.c);
+        return f;
+      }
+
+      public First visit(CharClass k) {
+        if (k.exclusive) return First.any(false);
+
+        First f = new First(false);
+        for (CharRange r : k.ranges) f.add(r.first, r.last);
+        return f;
+      }
+
+      public First visit(CharSwitch s) {
+        if (null != s.base) return First.any(false);
+
+        First f = new First(false);
+        for (CharCase c : s.cases) {
+          if (null != c.element) {
+            for (CharRange r : c.klass.ranges) f.add(r.first, r.last);
+          }
+        }
+        return f;
+      }
+
+      public First visit(StringLiteral l) {
+        if (0 == l.text.length()) return new First(true);
+
+        First f = new First(false);
+        f.add(l.text.charAt(0), l.text.charAt(0));
+        return f;
+      }
+
+      public First visit(Element e) {
+        // Null literals, node markers, parse tree nodes, and value
+        // elements do not consume any input.
+        return new First(true);
+      }
+    };
+
+}
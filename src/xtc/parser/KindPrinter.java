@@ -0,0 +1,238 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.parser;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import xtc.tree.Printer;
+import xtc.tree.Visitor;
+
+import xtc.util.Runtime;
+import xtc.util.Utilities;
+
+/**
+ * Visitor to print a grammar's generic node kinds.  This visitor
+ * collects the names of all generic nodes created by a grammar and
+ * prints a class, which defines a compile-time constant for each
+ * name.  The class also maps the {@link xtc.tree.GNode#kind() global
+ * kind} of a generic node to the corresponding constant, so that
+ * code processing the grammar's abstract syntax tree can switch on
+ * a node's kind.  The constants are numbered in the alphabetical
+ * order of the names, starting at 0.  The {@link #NO_KIND} constant
+ * for nodes not created by the grammar is reserved.
+ *
+ * <p />Note that this visitor assumes that the entire grammar is
+ * contained in a single module and that the grammar is in the form
+ * used for code generation.  Generic nodes created by explicit
+ * actions are not included.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class KindPrinter extends Visitor {
+
+  /** The suffix for the class name. */
+  public static final String SUFFIX = "Kinds";
+
+  /** The name of the constant for nodes not created by the grammar. */
+  public static final String NO_KIND = "NO_KIND";
+
+  /** The runtime. */
+  protected final Runtime runtime;
+
+  /** The printer. */
+  protected final Printer printer;
+
+  /** The names of generic nodes. */
+  protected final Set<String> names;
+
+  /**
+   * Create a new kind printer.
+   *
+   * @param runtime The runtime.
+   * @param printer The printer.
+   */
+  public KindPrinter(Runtime runtime, Printer printer) {
+    this.runtime = runtime;
+    this.printer = printer;
+    this.names   = new TreeSet<String>();
+  }
+
+  /**
+   * Get the name of the constant for the specified generic node name.
+   *
+   * @param name The generic node name.
+   * @return The constant name.
+   */
+  public static String toConstant(String name) {
+    return Utilities.split(name, '_').toUpperCase();
+  }
+
+  /** Visit the specified module. */
+  public void visit(Module m) {
+    // Collect the names.
+    names.clear();
+    for (Production p : m.productions) dispatch(p.choice);
+
+    // Check for duplicate and reserved constants.
+    final Map<String, String> constants = new HashMap<String, String>();
+    for (String name : names) {
+      final String constant = toConstant(name);
+      final String other    = constants.put(constant, name);
+      if (NO_KIND.equals(constant)) {
+        runtime.error("generic node " + name + " maps to the reserved kind " +
+                      "constant " + constant, m);
+      } else if (null != other) {
+        runtime.error("generic nodes " + other + " and " + name +
+                      " map to the same kind constant " + constant, m);
+      }
+    }
+    if (0 < runtime.errorCount()) return;
+
+    // Emit the package and imports.
+    final String className   = m.getClassName() + SUFFIX;
+    final String packageName = Utilities.getQualifier(className);
+    if (null != packageName) {
+      printer.indent().p("package ").p(packageName).pln(';');
+      printer.pln();
+    }
+    printer.indent().pln("import java.util.Arrays;");
+    printer.pln();
+    printer.indent().pln("import xtc.tree.GNode;");
+    printer.pln();
+
+    // Emit the class.
+    printer.indent().pln("/**");
+    printer.indent().p(" * The generic node kinds for grammar ").
+      p(m.name.name).pln('.');
+    printer.indent().pln(" */");
+    printer.indent().p("public final class ").p(Utilities.getName(className)).
+      pln(" {").incr();
+    printer.pln();
+
+    printer.indent().pln("/** The kind for nodes not created by the grammar. */");
+    printer.indent().p("public static final int ").p(NO_KIND).pln(" = -1;");
+    printer.pln();
+
+    int kind = 0;
+    for (String name : names) {
+      printer.indent().p("/** The kind of <code>").p(name).pln("</code> nodes. */");
+      printer.indent().p("public static final int ").p(toConstant(name)).
+        p(" = ").p(kind).pln(';');
+      printer.pln();
+      kind++;
+    }
+
+    printer.indent().pln("/** The names, indexed by kind. */");
+    printer.indent().pln("private static final String[] names = {").incr();
+    for (Iterator<String> iter = names.iterator(); iter.hasNext(); ) {
+      printer.indent().p('"').p(iter.next()).p('"');
+      if (iter.hasNext()) printer.p(',');
+      printer.pln();
+    }
+    printer.decr().indent().pln("};");
+    printer.pln();
+
+    printer.indent().pln("/** The map from global kinds to kinds. */");
+    printer.indent().pln("private static final int[] kinds;");
+    printer.pln();
+
+    printer.indent().pln("static {").incr();
+    printer.indent().pln("final int[] global = new int[names.length];");
+    printer.indent().pln("int         max    = -1;");
+    printer.indent().pln("for (int i=0; i<names.length; i++) {").incr();
+    printer.indent().pln("global[i] = GNode.kind(names[i]);");
+    printer.indent().pln("if (max < global[i]) max = global[i];");
+    printer.decr().indent().pln('}');
+    printer.indent().pln("kinds = new int[max + 1];");
+    printer.indent().p("Arrays.fill(kinds, ").p(NO_KIND).pln(");");
+    printer.indent().pln("for (int i=0; i<names.length; i++) kinds[global[i]] = i;");
+    printer.decr().indent().pln('}');
+    printer.pln();
+
+    printer.indent().pln("/** Hide the constructor. */");
+    printer.indent().p("private ").p(Utilities.getName(className)).
+      pln("() { /* Nothing to do. */ }");
+    printer.pln();
+
+    printer.indent().pln("/**");
+    printer.indent().pln(" * Get the specified node's kind.");
+    printer.indent().pln(" *");
+    printer.indent().pln(" * @param n The node.");
+    printer.indent().p(" * @return The kind or {@link #").p(NO_KIND).
+      pln("} if the grammar does");
+    printer.indent().pln(" *   not create such nodes.");
+    printer.indent().pln(" */");
+    printer.indent().pln("public static int of(GNode n) {").incr();
+    printer.indent().pln("final int k = n.kind();");
+    printer.indent().p("return (k < kinds.length) ? kinds[k] : ").p(NO_KIND).
+      pln(';');
+    printer.decr().indent().pln('}');
+    printer.pln();
+
+    printer.indent().pln("/**");
+    printer.indent().pln(" * Get the name for the specified kind.");
+    printer.indent().pln(" *");
+    printer.indent().pln(" * @param kind The kind.");
+    printer.indent().pln(" * @return The name.");
+    printer.indent().pln(" */");
+    printer.indent().pln("public static String nameOf(int kind) {").incr();
+    printer.indent().pln("return names[kind];");
+    printer.decr().indent().pln('}');
+    printer.pln();
+
+    printer.decr().indent().pln('}');
+  }
+
+  /** Visit the specified ordered choice. */
+  public void visit(OrderedChoice c) {
+    for (Sequence alt : c.alternatives) dispatch(alt);
+  }
+
+  /** Visit the specified sequence. */
+  public void visit(Sequence s) {
+    for (Element e : s.elements) dispatch(e);
+  }
+
+  /** Visit the specified character switch. */
+  public void visit(CharSwitch s) {
+    for (CharCase kase : s.cases) dispatch(kase.element);
+    dispatch(s.base);
+  }
+
+  /** Visit the specified unary operator. */
+  public void visit(UnaryOperator op) {
+    dispatch(op.element);
+  }
+
+  /** Visit the specified element. */
+  public void visit(Element e) {
+    // Nothing to do.
+  }
+
+  /** Visit the specified generic value. */
+  public void visit(GenericValue v) {
+    names.add(Utilities.unqualify(v.name));
+  }
+
+}
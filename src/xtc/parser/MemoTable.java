@@ -0,0 +1,216 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.parser;
+
+/**
+ * A paged memoization table.  Instead of allocating one {@link
+ * Column column} object per input character, this table stores the
+ * results for each memoized production (identified by its
+ * <i>slot</i>) in flat arrays, which are organized into pages of
+ * {@link #PAGE_SIZE} consecutive input positions.  Pages are only
+ * allocated once a production's result is memoized for a position
+ * covered by that page.  As a result, the table does not incur the
+ * per-object overhead of columns and chunks, and productions that are
+ * only tried at a few positions consume space only for those
+ * positions' pages.
+ *
+ * <p />A memoization table optionally tracks access counts, which
+ * are used to print a profile of the table.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public final class MemoTable {
+
+  /** The number of bits for the position within a page. */
+  public static final int PAGE_BITS = 8;
+
+  /** The number of positions per page. */
+  public static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+  /** The mask for the position within a page. */
+  public static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  /** The number of slots. */
+  private final int slots;
+
+  /** The flag for counting accesses. */
+  private final boolean counting;
+
+  /** The memoized results, indexed by page, slot, and position. */
+  private Result[][][] results;
+
+  /**
+   * The access counts, indexed by page, slot, and position, or
+   * <code>null</code> if this table does not count accesses.
+   */
+  private int[][][] counts;
+
+  /**
+   * Create a new memoization table.
+   *
+   * @param slots The number of slots.
+   * @param size The expected number of positions.
+   * @param counting The flag for counting accesses.
+   * @throws IllegalArgumentException Signals a negative number of
+   *   slots or a negative size.
+   */
+  public MemoTable(final int slots, final int size, final boolean counting) {
+    if (0 > slots) {
+      throw new IllegalArgumentException("Negative number of slots: " + slots);
+    } else if (0 > size) {
+      throw new IllegalArgumentException("Negative size: " + size);
+    }
+
+    final int pages = (size >> PAGE_BITS) + 1;
+
+    this.slots    = slots;
+    this.counting = counting;
+    this.results  = new Result[pages][][];
+    this.counts   = counting ? new int[pages][][] : null;
+  }
+
+  /**
+   * Get the number of slots.
+   *
+   * @return The number of slots.
+   */
+  public int slots() {
+    return slots;
+  }
+
+  /**
+   * Get the memoized result for the specified slot and position.
+   *
+   * @param slot The slot.
+   * @param index The position.
+   * @return The memoized result or <code>null</code> if the slot's
+   *   result has not been memoized for the position.
+   */
+  public Result get(final int slot, final int index) {
+    final int page = index >> PAGE_BITS;
+    if (page >= results.length) return null;
+
+    final Result[][] directory = results[page];
+    if (null == directory) return null;
+
+    final Result[] values = directory[slot];
+    return (null == values) ? null : values[index & PAGE_MASK];
+  }
+
+  /**
+   * Memoize the specified result for the specified slot and position.
+   *
+   * @param slot The slot.
+   * @param index The position.
+   * @param result The result.
+   */
+  public void put(final int slot, final int index, final Result result) {
+    final int page = index >> PAGE_BITS;
+
+    if (page >= results.length) {
+      final Result[][][] copy =
+        new Result[Math.max(page + 1, results.length * 2)][][];
+      System.arraycopy(results, 0, copy, 0, results.length);
+      results = copy;
+    }
+
+    Result[][] directory = results[page];
+    if (null == directory) {
+      directory     = new Result[slots][];
+      results[page] = directory;
+    }
+
+    Result[] values = directory[slot];
+    if (null == values) {
+      values          = new Result[PAGE_SIZE];
+      directory[slot] = values;
+    }
+
+    values[index & PAGE_MASK] = result;
+  }
+
+  /**
+   * Count an access to the specified slot and position.  If this
+   * table does not count accesses, this method does nothing.
+   *
+   * @param slot The slot.
+   * @param index The position.
+   */
+  public void count(final int slot, final int index) {
+    if (! counting) return;
+
+    final int page = index >> PAGE_BITS;
+
+    if (page >= counts.length) {
+      final int[][][] copy = new int[Math.max(page + 1, counts.length * 2)][][];
+      System.arraycopy(counts, 0, copy, 0, counts.length);
+      counts = copy;
+    }
+
+    int[][] directory = counts[page];
+    if (null == directory) {
+      directory    = new int[slots][];
+      counts[page] = directory;
+    }
+
+    int[] values = directory[slot];
+    if (null == values) {
+      values          = new int[PAGE_SIZE];
+      directory[slot] = values;
+    }
+
+    values[index & PAGE_MASK]++;
+  }
+
+  /**
+   * Get the maximum number of accesses to the specified slot across
+   * all positions.
+   *
+   * @param slot The slot.
+   * @return The maximum access count or 0 if this table does not
+   *   count accesses.
+   */
+  public int maxCount(final int slot) {
+    if (! counting) return 0;
+
+    int max = 0;
+    for (int[][] directory : counts) {
+      if ((null != directory) && (null != directory[slot])) {
+        for (int count : directory[slot]) {
+          if (max < count) max = count;
+        }
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Clear this memoization table.  This method discards all memoized
+   * results and access counts, while preserving the top-level page
+   * directory.
+   */
+  public void clear() {
+    for (int i=0; i<results.length; i++) results[i] = null;
+    if (counting) {
+      for (int i=0; i<counts.length; i++) counts[i] = null;
+    }
+  }
+
+}
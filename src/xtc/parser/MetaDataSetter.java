@@ -193,6 +193,7 @@ public class MetaDataSetter extends Visitor {
       importType("java.io.OutputStreamWriter");
     }
     importType("java.io.IOException");
+    importType("java.nio.CharBuffer");
 
     if (m.hasAttribute(Constants.ATT_PROFILE)) {
       importType("java.util.HashMap");
@@ -241,6 +242,9 @@ public class MetaDataSetter extends Visitor {
 
     importType("xtc.parser.ParserBase");
     importType("xtc.parser.Column");
+    if (runtime.test("optionMemoTable")) {
+      importType("xtc.parser.MemoTable");
+    }
     importType("xtc.parser.Result");
     importType("xtc.parser.SemanticValue");
     importType("xtc.parser.ParseError");
@@ -21,8 +21,13 @@ package xtc.parser;
 import java.io.IOException;
 import java.io.Reader;
 
+import java.nio.CharBuffer;
+
+import java.util.Arrays;
+
 import xtc.tree.Locatable;
 import xtc.tree.Location;
+import xtc.tree.Node;
 
 import xtc.util.Action;
 import xtc.util.Pair;
@@ -64,23 +69,110 @@ public abstract class ParserBase {
    */
   public static final int INCR_SIZE = 4096;
 
+  /** The default size for the array storing the line start indices. */
+  public static final int INIT_LINES = 256;
+
+  /** The number of bits for indexing the parse error cache. */
+  public static final int ERROR_BITS = 8;
+
   // -------------------------------------------------------------------------
 
   /** The reader for the character stream to be parsed. */
   protected Reader      yyReader;
 
-  /** The number of characters consumed from the character stream. */
+  /**
+   * The number of characters consumed from the character stream and
+   * not yet discarded by {@link #resetTo(int)}.
+   */
   protected int         yyCount;
 
   /** The flag for whether the end-of-file has been reached. */
   protected boolean     yyEOF;
 
+  /**
+   * The offset of the current window into {@link #yyData} and {@link
+   * #yyColumns}.  Parser index <i>i</i> corresponds to array index
+   * <code>yyOffset&nbsp;+&nbsp;</code><i>i</i>.
+   */
+  protected int         yyOffset;
+
   /** The characters consumed so far. */
   protected char[]      yyData;
 
   /** The memoization table columns. */
   protected Column[]    yyColumns;
 
+  /**
+   * The index just past the last column created since the last reset.
+   */
+  private int           yyColumnLimit;
+
+  /**
+   * The paged memoization table.  This field is <code>null</code>
+   * unless the parser has been generated to memoize its results in a
+   * {@link MemoTable} instead of the columns.
+   */
+  protected MemoTable   yyMemo;
+
+  /**
+   * The indices of the first characters of all lines scanned so far,
+   * in increasing order.  Note that this index reflects the physical
+   * lines of the character stream and ignores any locations set
+   * through {@link #setLocation(int,String,int,int)}.
+   */
+  private int[]         yyLines;
+
+  /** The number of line start indices. */
+  private int           yyLineCount;
+
+  /** The index up to which characters have been scanned for lines. */
+  private int           yyScanned;
+
+  /**
+   * The flag for whether the last scanned character was a carriage
+   * return.
+   */
+  private boolean       yySeenCR;
+
+  /** The indices of the location marks, in increasing order. */
+  private int[]         yyMarks;
+
+  /** The locations of the location marks. */
+  private Location[]    yyMarkLocations;
+
+  /** The number of location marks. */
+  private int           yyMarkCount;
+
+  /**
+   * The largest index whose location has been handed out through
+   * {@link #location(int)} or -1 if no location has been handed out.
+   */
+  private int           yyCommitted;
+
+  /**
+   * The cache of recently created parse errors.  This field is
+   * <code>null</code> until the first parse error is created through
+   * {@link #error(int,int)}.
+   */
+  private ParseError[]  yyErrors;
+
+  /** The message ids of the cached parse errors. */
+  private int[]         yyErrorIds;
+
+  /**
+   * The number of memoization lookups.  This field is only updated
+   * if the parser has been generated with the <code>profile</code>
+   * attribute.
+   */
+  protected long        yyMemoLookups;
+
+  /**
+   * The number of memoization lookups that missed and thus parsed
+   * the input.  This field is only updated if the parser has been
+   * generated with the <code>profile</code> attribute.
+   */
+  protected long        yyMemoMisses;
+
   // -------------------------------------------------------------------------
 
   /**
@@ -116,13 +208,53 @@ public abstract class ParserBase {
     yyData       = new char[size + 1];
     yyColumns    = new Column[size + 1];
 
-    Column c     = newColumn();
-    c.file       = file;
-    c.seenCR     = false;
-    c.line       = FIRST_LINE;
-    c.column     = FIRST_COLUMN;
+    init(file);
+  }
+
+  /**
+   * Create a new parser base for the specified character buffer.
+   * The buffer's remaining characters are the entire input, which is
+   * copied once into this parser base.  Consequently, {@link
+   * #character(int)} never reads from a character stream and the
+   * memoization table never needs to grow.
+   *
+   * @param input The character buffer with the entire input.
+   * @param file The name of the file backing the buffer.
+   * @throws NullPointerException Signals a null file name.
+   */
+  public ParserBase(final CharBuffer input, final String file) {
+    if (null == file) {
+      throw new NullPointerException("Null file");
+    }
+
+    final int length = input.remaining();
 
-    yyColumns[0] = c;
+    yyReader     = null;
+    yyCount      = length + 1;
+    yyEOF        = true;
+    yyData       = new char[length + 1];
+    yyColumns    = new Column[length + 1];
+
+    input.get(yyData, 0, length);
+    init(file);
+  }
+
+  /**
+   * Initialize the location tracking for the specified file.
+   *
+   * @param file The file name.
+   */
+  private void init(final String file) {
+    yyLines      = new int[INIT_LINES];
+    yyLineCount  = 1;
+    yyScanned    = 0;
+    yySeenCR     = false;
+
+    yyMarks         = new int[1];
+    yyMarkLocations = new Location[1];
+    yyMarkLocations[0] = new Location(file, FIRST_LINE, FIRST_COLUMN);
+    yyMarkCount     = 1;
+    yyCommitted     = -1;
   }
 
   // -------------------------------------------------------------------------
@@ -135,6 +267,13 @@ public abstract class ParserBase {
    * <i>successful</i> parse (i.e., the result must be a {@link
    * SemanticValue semantic value}).
    *
+   * <p />Discarding input does not copy any characters; it only
+   * advances the parser's window across the underlying arrays.  The
+   * characters still in the window are moved to the front of the
+   * arrays only once the discarded prefix is at least as long as the
+   * window itself, so that repeatedly resetting the parser takes
+   * amortized constant time per discarded character.
+   *
    * @param index The index.
    * @throws IndexOutOfBoundsException Signals an invalid index.
    */
@@ -151,36 +290,46 @@ public abstract class ParserBase {
       throw new IndexOutOfBoundsException("Parser index: " + index);
     }
 
-    // Get the column at the specified index (to make sure we have the
-    // corresponding location information) and construct its
-    // replacement.
-    Column c1 = column(index);
-    Column c2 = newColumn();
-
-    c2.file   = c1.file;
-    c2.seenCR = c1.seenCR;
-    c2.line   = c1.line;
-    c2.column = c1.column;
+    // Get the location at the specified index, which becomes the only
+    // location mark, and rebase the line index on it.
+    final Location loc = locate(index);
+
+    yyLines[0]         = 0;
+    yyLineCount        = 1;
+    yyScanned          = 0;
+    yySeenCR           = ('\r' == yyData[yyOffset + index - 1]);
+    yyMarks[0]         = 0;
+    yyMarkLocations[0] = loc;
+    yyMarkCount        = 1;
+    yyCommitted        = -1;
+
+    // Next, clear the memoization table.
+    Arrays.fill(yyColumns, yyOffset, yyOffset + yyColumnLimit, null);
+    yyColumnLimit = 0;
+    if (null != yyMemo) {
+      yyMemo.clear();
+    }
 
-    yyColumns[0] = c2;
+    // Finally, advance the window.
+    yyOffset += index;
+    yyCount  -= index;
 
-    // Next, shift any read-in characters.
-    final int length = yyCount - index;
+    // Done.
+  }
 
-    System.arraycopy(yyData, index, yyData, 0, length);
+  // -------------------------------------------------------------------------
 
-    // Next, clear the rest of the memoization table.
-    for (int i=length; i<yyCount; i++) {
-      yyData[i] = 0;
-    }
-    for (int i=1; i<yyCount; i++) {
-      yyColumns[i] = null;
-    }
+  /**
+   * Move the current window to the front of the arrays.
+   */
+  private void compact() {
+    final int live = Math.min(yyCount + 1, yyColumns.length - yyOffset);
 
-    // Finally, fix the count.
-    yyCount = length;
+    System.arraycopy(yyData, yyOffset, yyData, 0, yyCount);
+    System.arraycopy(yyColumns, yyOffset, yyColumns, 0, live);
+    Arrays.fill(yyColumns, live, yyOffset + live, null);
 
-    // Done.
+    yyOffset = 0;
   }
 
   // -------------------------------------------------------------------------
@@ -223,58 +372,18 @@ public abstract class ParserBase {
     // A memoized production may try to access the entry just past the
     // current end of the table before the corresponding character has
     // been read.  Hence, we may need to grow the table.
-    if (yyColumns.length == index) growBy(INCR_SIZE);
+    final int i = yyOffset + index;
+    if (yyColumns.length == i) growBy(INCR_SIZE);
 
     // Note that the array access below will generate an index out of
     // bounds exception for invalid indices.
-    Column c = yyColumns[index];
-    if (null != c) return c;
-
-    // Find the last non-null column.
-    Column last = null;
-    int    start;
-    for (start=index; start>=0; start--) {
-      last = yyColumns[start];
-      if (null != last) break;
-    }
-
-    // Now, carry the location information forward.
-    int     line   = last.line;
-    int     column = last.column;
-    boolean seenCR = last.seenCR;
-
-    for (int i=start; i<index; i++) {
-      switch (yyData[i]) {
-      case '\t':
-        column = ((column >> 3) + 1) << 3;
-        seenCR = false;
-        break;
-      case '\n':
-        if (! seenCR) {
-          line++;
-          column = FIRST_COLUMN;
-        }
-        seenCR = false;
-        break;
-      case '\r':
-        line++;
-        column = FIRST_COLUMN;
-        seenCR = true;
-        break;
-      default:
-        column++;
-        seenCR = false;
-      }
+    Column c = yyColumns[i];
+    if (null == c) {
+      c            = newColumn();
+      yyColumns[i] = c;
+      if (yyColumnLimit <= index) yyColumnLimit = index + 1;
     }
 
-    // Create the new column.
-    c                = newColumn();
-    c.file           = last.file;
-    c.seenCR         = seenCR;
-    c.line           = line;
-    c.column         = column;
-    yyColumns[index] = c;
-
     return c;
   }
 
@@ -293,7 +402,7 @@ public abstract class ParserBase {
     // Have we seen the end-of-file?
     if (yyEOF) {
       if (index < yyCount - 1) {
-        return yyData[index];
+        return yyData[yyOffset + index];
       } else if (index < yyCount) {
         return -1;
       } else {
@@ -303,7 +412,7 @@ public abstract class ParserBase {
 
     // Have we already read the desired character?
     if (index < yyCount) {
-      return yyData[index];
+      return yyData[yyOffset + index];
     } else if (index != yyCount) {
       throw new IndexOutOfBoundsException("Parser index: " + index);
     }
@@ -313,8 +422,12 @@ public abstract class ParserBase {
     final int incr = (-1 == c)? 1 : INCR_SIZE;
 
     // Do we have enough space?
-    if (yyData.length <= yyCount) {
-      growBy(incr);
+    if (yyData.length <= yyOffset + yyCount) {
+      if (yyOffset >= yyCount) {
+        compact();
+      } else {
+        growBy(incr);
+      }
     }
 
     if (-1 == c) {
@@ -323,7 +436,7 @@ public abstract class ParserBase {
 
     } else {
       // Remember the character.
-      yyData[index] = (char)c;
+      yyData[yyOffset + index] = (char)c;
     }
     yyCount++;
 
@@ -339,7 +452,30 @@ public abstract class ParserBase {
    * @return The difference as a string.
    */
   protected final String difference(final int start, final int end) {
-    return (start==end)? "" : new String(yyData, start, end-start);
+    return (start==end)? "" : new String(yyData, yyOffset + start, end-start);
+  }
+
+  /**
+   * Get the number of memoization hits.  The count is only maintained
+   * if the parser has been generated with the <code>profile</code>
+   * attribute.  Tools report it through {@link
+   * xtc.util.Tool#recordMemoization(ParserBase)}.
+   *
+   * @return The number of memoization hits.
+   */
+  public final long memoHits() {
+    return yyMemoLookups - yyMemoMisses;
+  }
+
+  /**
+   * Get the number of memoization misses.  The count is only
+   * maintained if the parser has been generated with the
+   * <code>profile</code> attribute.
+   *
+   * @return The number of memoization misses.
+   */
+  public final long memoMisses() {
+    return yyMemoMisses;
   }
 
   /**
@@ -403,15 +539,177 @@ public abstract class ParserBase {
   // -------------------------------------------------------------------------
   
   /**
-   * Get the location for the specified index.
+   * Find the last entry not greater than the specified key.  The
+   * specified array's first entry must not be greater than the key.
+   *
+   * @param entries The entries in increasing order.
+   * @param count The number of valid entries.
+   * @param key The key.
+   * @return The position of the last entry not greater than the key.
+   */
+  private static int search(final int[] entries, final int count,
+                            final int key) {
+    int lo = 0;
+    int hi = count - 1;
+
+    while (lo < hi) {
+      final int mid = (lo + hi + 1) >>> 1;
+      if (entries[mid] <= key) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+
+    return lo;
+  }
+
+  /**
+   * Scan the characters up to but excluding the specified index for
+   * line terminators, adding the start indices of any new lines to
+   * the line index.
+   *
+   * @param index The index.
+   */
+  private void scan(final int index) {
+    for (int i=yyScanned; i<index; i++) {
+      switch (yyData[yyOffset + i]) {
+      case '\n':
+        if (! yySeenCR) addLine(i + 1);
+        yySeenCR = false;
+        break;
+      case '\r':
+        addLine(i + 1);
+        yySeenCR = true;
+        break;
+      default:
+        yySeenCR = false;
+      }
+    }
+
+    yyScanned = index;
+  }
+
+  /**
+   * Add the specified start index to the line index.
+   *
+   * @param index The index of the line's first character.
+   */
+  private void addLine(final int index) {
+    if (yyLines.length == yyLineCount) {
+      final int[] copy = new int[yyLineCount * 2];
+      System.arraycopy(yyLines, 0, copy, 0, yyLineCount);
+      yyLines = copy;
+    }
+    yyLines[yyLineCount++] = index;
+  }
+
+  /**
+   * Advance the specified column across the characters between the
+   * specified indices, which must all be on the same line.
+   *
+   * @param column The column at the start index.
+   * @param start The start index.
+   * @param end The end index.
+   * @return The column at the end index.
+   */
+  private int advance(int column, final int start, final int end) {
+    for (int i=start; i<end; i++) {
+      switch (yyData[yyOffset + i]) {
+      case '\t':
+        column = ((column >> 3) + 1) << 3;
+        break;
+      case '\n':
+        // A newline on the same line directly follows a carriage
+        // return and thus does not take up a column.
+        break;
+      default:
+        column++;
+      }
+    }
+    return column;
+  }
+
+  /**
+   * Compute the line and column for the specified index.  Unlike
+   * {@link #location(int)}, this method does not commit the location.
+   *
+   * @param index The index.
+   * @return The line in the upper 32 bits and the column in the lower
+   *   32 bits.
+   * @throws IndexOutOfBoundsException Signals an invalid index.
+   */
+  private long lineAndColumn(final int index) {
+    if ((0 > index) || (yyCount < index)) {
+      throw new IndexOutOfBoundsException("Parser index: " + index);
+    }
+
+    // Make sure the line index covers the index.
+    if (yyScanned < index) scan(index);
+
+    // Find the index's line and the governing location mark.
+    final int      line  = search(yyLines, yyLineCount, index);
+    final int      m     = search(yyMarks, yyMarkCount, index);
+    final int      start = yyMarks[m];
+    final Location mark  = yyMarkLocations[m];
+    final int      l, c;
+
+    if (start == index) {
+      l = mark.line;
+      c = mark.column;
+
+    } else {
+      final int markLine = search(yyLines, yyLineCount, start);
+      if (line == markLine) {
+        l = mark.line;
+        c = advance(mark.column, start, index);
+      } else {
+        l = mark.line + line - markLine;
+        c = advance(FIRST_COLUMN, yyLines[line], index);
+      }
+    }
+
+    return (((long)l) << 32) | (c & 0xffffffffL);
+  }
+
+  /**
+   * Compute the location for the specified index.  Unlike {@link
+   * #location(int)}, this method does not commit the location.
    *
    * @param index The index.
    * @return The corresponding location.
+   * @throws IndexOutOfBoundsException Signals an invalid index.
+   */
+  private Location locate(final int index) {
+    final long lc = lineAndColumn(index);
+    return new Location(fileAt(index), (int)(lc >>> 32), (int)lc);
+  }
+
+  /**
+   * Get the file name for the specified index.  Unlike {@link
+   * #location(int)}, this method does not compute the line and
+   * column.
+   *
+   * @param index The index.
+   * @return The corresponding file name.
+   */
+  protected final String fileAt(final int index) {
+    return yyMarkLocations[search(yyMarks, yyMarkCount, index)].file;
+  }
+
+  /**
+   * Get the location for the specified index.  The location is
+   * computed on demand from the line index and the location marks.
+   *
+   * @param index The index.
+   * @return The corresponding location.
+   * @throws IndexOutOfBoundsException Signals an invalid index.
    */
   public final Location location(final int index) {
-    final Column c = column(index);
+    final Location loc = locate(index);
 
-    return new Location(c.file, c.line, c.column);
+    if (yyCommitted < index) yyCommitted = index;
+    return loc;
   }
 
   /**
@@ -457,35 +755,60 @@ public abstract class ParserBase {
     }
 
     // Detect repeated calls for the same location.
-    Column c = yyColumns[index];
-    if (null != c) {
-      if (file.equals(c.file) && line == c.line && column == c.column) {
-        // We ignore repeated calls for the same index and location.
-        return;
-      } else if (0 != index) {
-        // The first column always exists, so we can't signal for a 0 index.
-        throw new IllegalStateException("Location at index " + index +
-                                        " is already committed");
-      }
+    final Location loc = locate(index);
+    if (file.equals(loc.file) && line == loc.line && column == loc.column) {
+      // We ignore repeated calls for the same index and location.
+      return;
     }
 
-    // Check that no further columns have been allocated.
-    for (int i=index+1; i<yyCount; i++) {
-      if (null != yyColumns[i]) {
-        throw new IllegalStateException("Location at index " + index +
-                                        " is already committed");
-      }
+    // Check that no location at or beyond the index has been handed
+    // out or marked.
+    final int last = yyMarkCount - 1;
+    if ((index <= yyCommitted) || (index < yyMarks[last])) {
+      throw new IllegalStateException("Location at index " + index +
+                                      " is already committed");
     }
 
-    // Actually update the internal location.  Note that we call
-    // column() instead of allocating the column directly to correctly
-    // carry forward the seenCR flag.
-    c        = column(index);
-    c.file   = file;
-    c.line   = line;
-    c.column = column;
+    // Actually update the internal location.
+    if (index == yyMarks[last]) {
+      yyMarkLocations[last] = new Location(file, line, column);
+
+    } else {
+      if (yyMarks.length == yyMarkCount) {
+        final int[]      marks = new int[yyMarkCount * 2];
+        final Location[] locs  = new Location[yyMarkCount * 2];
+        System.arraycopy(yyMarks, 0, marks, 0, yyMarkCount);
+        System.arraycopy(yyMarkLocations, 0, locs, 0, yyMarkCount);
+        yyMarks         = marks;
+        yyMarkLocations = locs;
+      }
+      yyMarks[yyMarkCount]         = index;
+      yyMarkLocations[yyMarkCount] = new Location(file, line, column);
+      yyMarkCount++;
+    }
   }
   
+  /**
+   * Relocate this parser's input.  This method sets the location of
+   * the first character, so that a parser processing a fragment of a
+   * larger input reports the same locations as a parser processing
+   * the entire input.  It must be called before any nodes are
+   * created.
+   *
+   * @param file The file name.
+   * @param line The line number.
+   * @param column The column number.
+   * @throws NullPointerException Signals a null file name.
+   * @throws IllegalArgumentException Signals an invalid line or
+   *   column number.
+   * @throws IllegalStateException Signals that the first character's
+   *   location is already committed.
+   */
+  public final void relocate(final String file, final int line,
+                             final int column) {
+    setLocation(0, file, line, column);
+  }
+
   /**
    * Set the location for the specified locatable object.  This method
    * is equivalent to:<pre>
@@ -493,14 +816,23 @@ public abstract class ParserBase {
    *     locatable.setLocation(location(index));
    *   }
    * </pre>
+   * However, for nodes, it avoids creating a location object by
+   * setting the node's {@link Node#setLocation(String,int,int) file,
+   * line, and column}.
    *
    * @param locatable The locatable object.
    * @param index The index.
    */
   public final void setLocation(final Locatable locatable, final int index) {
     if ((null != locatable) && (! locatable.hasLocation())) {
-      Column c = column(index);
-      locatable.setLocation(new Location(c.file, c.line, c.column));
+      if (locatable instanceof Node) {
+        final long lc = lineAndColumn(index);
+        if (yyCommitted < index) yyCommitted = index;
+        ((Node)locatable).setLocation(fileAt(index), (int)(lc >>> 32),
+                                      (int)lc);
+      } else {
+        locatable.setLocation(location(index));
+      }
     }
   }
 
@@ -571,14 +903,14 @@ public abstract class ParserBase {
     final StringBuilder buf = new StringBuilder();
 
     // The error's location.
-    Column c = null;
+    Location loc = null;
     if (-1 != error.index) {
-      c = column(error.index);
-      buf.append(c.file);
+      loc = locate(error.index);
+      buf.append(loc.file);
       buf.append(':');
-      buf.append(c.line);
+      buf.append(loc.line);
       buf.append(':');
-      buf.append(c.column);
+      buf.append(loc.column);
       buf.append(": ");
     }
 
@@ -594,7 +926,7 @@ public abstract class ParserBase {
       buf.append(NEWLINE);
       for (int i=0; i<size; i++) buf.append(line.charAt(i));
       buf.append(NEWLINE);
-      for (int i=FIRST_COLUMN; i<c.column; i++) buf.append(' ');
+      for (int i=FIRST_COLUMN; i<loc.column; i++) buf.append(' ');
       buf.append('^');
       buf.append(NEWLINE);
     }
@@ -603,6 +935,65 @@ public abstract class ParserBase {
     return buf.toString();
   }
 
+  /**
+   * Get the message for the specified id.  Parsers generated to
+   * identify their error messages by number override this method.
+   * The default implementation signals an exception.
+   *
+   * @param id The message id.
+   * @return The corresponding message.
+   * @throws UnsupportedOperationException Signals that this parser
+   *   does not identify its messages by number.
+   */
+  protected String message(final int id) {
+    throw new UnsupportedOperationException("No message ids");
+  }
+
+  /**
+   * Get the parse error for the specified message id and index.
+   * This method looks up the parse error in a small cache and only
+   * creates a new parse error on a cache miss.  Since parse errors
+   * are immutable, the same parse error can safely be returned for
+   * repeated failures at the same index and with the same message.
+   *
+   * @param id The message id.
+   * @param index The index.
+   * @return The corresponding parse error.
+   */
+  protected final ParseError error(final int id, final int index) {
+    if (null == yyErrors) {
+      yyErrors   = new ParseError[1 << ERROR_BITS];
+      yyErrorIds = new int[1 << ERROR_BITS];
+    }
+
+    final int  slot  = (index * 31 + id) & ((1 << ERROR_BITS) - 1);
+    ParseError error = yyErrors[slot];
+
+    if ((null == error) || (index != error.index) ||
+        (id != yyErrorIds[slot])) {
+      error            = new ParseError(message(id), index);
+      yyErrors[slot]   = error;
+      yyErrorIds[slot] = id;
+    }
+
+    return error;
+  }
+
+  /**
+   * Select the more specific parse error.  This method is equivalent
+   * to <code>error.select(message(id), index)</code>, but only
+   * creates a new parse error if the cache does not contain one.
+   *
+   * @param error The current parse error.
+   * @param id The message id.
+   * @param index The index.
+   * @return The more specific parse error.
+   */
+  protected final ParseError select(final ParseError error, final int id,
+                                    final int index) {
+    return error.index <= index ? error(id, index) : error;
+  }
+
   /**
    * Signal the specified parse error as a parse exception.  The
    * specified error must have been created by this parser.
@@ -634,6 +1025,70 @@ public abstract class ParserBase {
     if (! r.hasValue()) signal(r.parseError());
     return r.semanticValue();
   }
+
+  // -------------------------------------------------------------------------
+
+  /**
+   * A stream of semantic values for a top-level production.  Each
+   * call to {@link #next()} parses the production at the start of the
+   * remaining input and then {@link ParserBase#resetTo(int) discards}
+   * the consumed input.  As a result, a stream parses arbitrarily
+   * large inputs in memory proportional to the largest value and its
+   * lookahead.  Like an {@link java.util.Iterator iterator}, a stream
+   * is used as follows:<pre>
+   *   while (stream.hasNext()) {
+   *     process(stream.next());
+   *   }
+   * </pre>
+   * Unlike an iterator, a stream's methods may signal I/O and parse
+   * errors.  Parsers generated by <i>Rats!</i> with the
+   * <code>-streams</code> option provide a <code>stream</code> method
+   * for each public production.
+   */
+  public abstract class Stream<T> {
+
+    /**
+     * Parse the top-level production at the specified index.
+     *
+     * @param index The index.
+     * @return The result.
+     * @throws IOException Signals an I/O error.
+     */
+    protected abstract Result parse(int index) throws IOException;
+
+    /**
+     * Determine whether the remaining input is not empty.
+     *
+     * @return <code>true</code> if there is more input.
+     * @throws IOException Signals an I/O error.
+     */
+    public boolean hasNext() throws IOException {
+      return -1 != character(0);
+    }
+
+    /**
+     * Parse the next semantic value.  Since a value that consumes no
+     * input would be parsed again and again, this method treats such
+     * a value as a parse error.
+     *
+     * @return The value.
+     * @throws ParseException Signals a parse error.
+     * @throws IOException Signals an I/O error.
+     */
+    public T next() throws ParseException, IOException {
+      final Result r = parse(0);
+      if (! r.hasValue()) signal(r.parseError());
+      if (0 == r.index) signal(new ParseError("no input consumed", 0));
+
+      // Make sure the index has been read before discarding the
+      // consumed input.
+      character(r.index);
+      resetTo(r.index);
+
+      return r.<T>semanticValue();
+    }
+
+  }
   
   // -------------------------------------------------------------------------
   
@@ -647,7 +1102,7 @@ public abstract class ParserBase {
     int limit = yyEOF? yyCount - 1 : yyCount;
     if (index >= limit) return "";
     limit     = Math.min(index + 20, limit);
-    return new String(yyData, index, limit-index);
+    return new String(yyData, yyOffset + index, limit-index);
   }
   
   // -------------------------------------------------------------------------
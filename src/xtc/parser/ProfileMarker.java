@@ -0,0 +1,177 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.parser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import xtc.Constants;
+
+import xtc.tree.Attribute;
+
+import xtc.util.Runtime;
+
+/**
+ * Visitor to mark productions as transient based on memoization
+ * profiles.  A memoization profile is the output of a generated
+ * parser's <code>profile()</code> method, which lists the maximum
+ * number of accesses to each memoized production's results for a
+ * single input position.  A production whose results are never
+ * accessed more often than the threshold gains little from being
+ * memoized and is marked as transient.  All other profiled
+ * productions are annotated with their {@link Properties#MEMO_COUNT
+ * counts}, so that the {@link CodeGenerator code generator} can place
+ * the hottest productions into the first chunk.
+ *
+ * <p />Note that this visitor must process the grammar in the same
+ * form as the grammar used for generating the profiled parser, i.e.,
+ * just before code generation.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class ProfileMarker extends GrammarVisitor {
+
+  /** The map from production names to their maximum access counts. */
+  protected final Map<String, Integer> counts;
+
+  /** The threshold. */
+  protected final int threshold;
+
+  /**
+   * Create a new profile marker.
+   *
+   * @param runtime The runtime.
+   * @param analyzer The analyzer utility.
+   * @param counts The map from production names to access counts.
+   * @param threshold The threshold.
+   */
+  public ProfileMarker(Runtime runtime, Analyzer analyzer,
+                       Map<String, Integer> counts, int threshold) {
+    super(runtime, analyzer);
+    this.counts    = counts;
+    this.threshold = threshold;
+  }
+
+  /**
+   * Visit the specified grammar.
+   *
+   * @param m The grammar module.
+   * @return <code>Boolean.TRUE</code> if the grammar has been modified,
+   *   otherwise <code>Boolean.FALSE</code>.
+   */
+  public Object visit(Module m) {
+    // Initialize the per-grammar state.
+    analyzer.register(this);
+    analyzer.init(m);
+
+    // Process the productions.
+    boolean changed = false;
+    int     marked  = 0;
+    for (Production p : m.productions) {
+      if (p.hasAttribute(Constants.ATT_TRANSIENT)) continue;
+
+      final Integer count = counts.get(p.name.toIdentifier());
+      if (null == count) continue;
+
+      if ((threshold >= count) &&
+          (! p.hasAttribute(Constants.ATT_INLINE)) &&
+          (! p.hasAttribute(Constants.ATT_MEMOIZED))) {
+        if (runtime.test("optionVerbose")) {
+          System.err.println("[Marking " + p.qName + " as transient " +
+                             "based on profile]");
+        }
+
+        if (null == p.attributes) {
+          p.attributes = new ArrayList<Attribute>(1);
+        }
+        p.attributes.add(Constants.ATT_TRANSIENT);
+        changed = true;
+        marked++;
+
+      } else {
+        p.setProperty(Properties.MEMO_COUNT, count);
+      }
+    }
+
+    if (runtime.test("optionVerbose")) {
+      System.err.println("[Marked " + marked + " productions as transient " +
+                         "based on profile]");
+    }
+
+    // Done.
+    return Boolean.valueOf(changed);
+  }
+
+  /**
+   * Read the specified memoization profiles.  Each line of a profile
+   * has the form <code>-&nbsp;</code><i>name</i><code>&nbsp;:&nbsp;
+   * </code><i>count</i> or <code>*&nbsp;</code><i>name</i><code>&nbsp;
+   * :&nbsp;</code><i>count</i>; all other lines are ignored.  If a
+   * production appears several times, its count is the maximum of the
+   * individual counts.
+   *
+   * @param runtime The runtime.
+   * @param files The profiles.
+   * @return The map from production names to access counts.
+   * @throws IOException Signals an I/O error.
+   */
+  public static Map<String, Integer> read(Runtime runtime, List<File> files)
+    throws IOException {
+    final Map<String, Integer> counts = new HashMap<String, Integer>();
+
+    for (File file : files) {
+      final BufferedReader in = new BufferedReader(runtime.getReader(file));
+
+      try {
+        for (String line = in.readLine(); null != line; line = in.readLine()) {
+          line = line.trim();
+          if (! (line.startsWith("- ") || line.startsWith("* "))) continue;
+
+          final int colon = line.lastIndexOf(':');
+          if (-1 == colon) continue;
+
+          final String name = line.substring(2, colon).trim();
+          final int    count;
+          try {
+            count = Integer.parseInt(line.substring(colon + 1).trim());
+          } catch (NumberFormatException x) {
+            continue;
+          }
+
+          final Integer previous = counts.get(name);
+          if ((null == previous) || (previous < count)) {
+            counts.put(name, count);
+          }
+        }
+      } finally {
+        in.close();
+      }
+    }
+
+    return counts;
+  }
+
+}
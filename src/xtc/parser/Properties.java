@@ -45,6 +45,17 @@ public class Properties {
    */
   public static final String COST = "cost";
 
+  /**
+   * The dispatch property.  It is associated with productions, has a
+   * long array value, and indicates which alternatives of a
+   * production's top-level choice may start with a given character.
+   * The array is indexed by ASCII character, with the last entry
+   * covering all other characters as well as the end of the input,
+   * and bit <i>n</i> of an entry is set if the <i>n</i>-th alternative
+   * needs to be tried.
+   */
+  public static final String DISPATCH = "dispatch";
+
   /**
    * The duplicates property.  It is associated with productions, has
    * a list of strings value, and indicates the names of the original
@@ -98,6 +109,14 @@ public class Properties {
    */
   public static final String LOCATABLE = "locatable";
 
+  /**
+   * The memoization count property.  It is associated with
+   * productions, has an integer value, and indicates the maximum
+   * number of accesses to a production's memoized results for a
+   * single input position, as recorded in a memoization profile.
+   */
+  public static final String MEMO_COUNT = "memoCount";
+
   /**
    * The meta-data property.  It is associated with productions and
    * has a {@link MetaData} value containing a production's meta-data.
@@ -24,6 +24,7 @@ import java.io.PrintWriter;
 import java.io.Reader;
 
 import java.util.ArrayList;
+import java.util.Map;
 
 import xtc.Constants;
 
@@ -93,6 +94,23 @@ public class Rats extends Tool {
            "Print a formal definition of the grammar's AST, then stop.").
       bool("lgpl", "optionLGPL", false,
            "Create an LGPL compliant parser.").
+      bool("memoTable", "optionMemoTable", false,
+           "Memoize results in a paged table instead of per-character " +
+           "columns.").
+      bool("errorIds", "optionErrorIds", false,
+           "Identify parse error messages by number and share parse " +
+           "errors.").
+      bool("streams", "optionStreams", false,
+           "Generate a stream method for each public production.").
+      bool("kinds", "optionKinds", false,
+           "Also generate a class with constants for the grammar's " +
+           "generic node kinds.").
+      file("memoProfile", "optionMemoProfile", true,
+           "Mark productions as transient based on the specified " +
+           "memoization profile.").
+      number("memoThreshold", "optionMemoThreshold", 1,
+             "Set the maximum access count for marking productions as " +
+             "transient based on a memoization profile.").
       att("option", "grammarOption", true,
           "Add the specified attribute to the grammar's options.").
       bool("Onone", "doNotOptimize", false,
@@ -121,6 +139,8 @@ public class Rats extends Tool {
            "Inline transient void or text-only productions into choices.").
       bool("Ochoices2", "optimizeChoices2", true,
            "Inline productions with the inline attribute into choices.").
+      bool("Odispatch", "optimizeDispatch", false,
+           "Dispatch on the first character in top-level choices.").
       bool("Oerrors1", "optimizeErrors1", true,
            "Avoid creating parse errors for individual terms.").
       bool("Oerrors2", "optimizeErrors2", false,
@@ -230,6 +250,9 @@ public class Rats extends Tool {
                       "processed option");
       }
     }
+    if (0 > runtime.getInt("optionMemoThreshold")) {
+      runtime.error("memo threshold must not be negative");
+    }
   }
 
   public Node parse(Reader in, File file) throws IOException, ParseException {
@@ -239,6 +262,7 @@ public class Rats extends Tool {
     }
     PParser parser = new PParser(in, file.toString(), (int)length);
     Result  result = parser.pModule(0);
+    recordMemoization(parser);
     Module  mod    = (Module)parser.value(result);
     String  name   = file.getName();
 
@@ -412,6 +436,21 @@ public class Rats extends Tool {
     if (runtime.test("optimizeNonTransient")) {
       trans.dispatch(module);
     }
+    if (! runtime.getFileList("optionMemoProfile").isEmpty()) {
+      Map<String, Integer> counts;
+      try {
+        counts = ProfileMarker.read(runtime,
+                                    runtime.getFileList("optionMemoProfile"));
+      } catch (IOException x) {
+        runtime.error(x.getMessage());
+        return;
+      }
+      new ProfileMarker(runtime, ana, counts,
+                        runtime.getInt("optionMemoThreshold")).dispatch(module);
+    }
+    if (runtime.test("optimizeDispatch")) {
+      new DispatchSetter(runtime, ana).dispatch(module);
+    }
     new MetaDataSetter(runtime, ana, ast).dispatch(module);
     if (0 < runtime.errorCount()) return;
 
@@ -437,22 +476,41 @@ public class Rats extends Tool {
     //                        Generate parser
     // --------------------------------------------------------------------
     
-    File file = new File(runtime.getOutputDirectory(),
-                         Utilities.getName(module.getClassName()) + ".java");
-    Printer out;
+    Printer out = open(Utilities.getName(module.getClassName()));
+    if (null == out) return;
+    printHeader(out);
+    new CodeGenerator(runtime, ana, ast, out).dispatch(module);
+    out.flush().close();
+
+    if (runtime.test("optionKinds")) {
+      out = open(Utilities.getName(module.getClassName()) + KindPrinter.SUFFIX);
+      if (null == out) return;
+      printHeader(out);
+      new KindPrinter(runtime, out).dispatch(module);
+      out.flush().close();
+    }
+  }
+
+  /**
+   * Open a printer for the Java source file with the specified class
+   * name in the output directory.
+   *
+   * @param name The unqualified class name.
+   * @return The printer or <code>null</code> if the file cannot be
+   *   opened.
+   */
+  protected Printer open(String name) {
+    File file = new File(runtime.getOutputDirectory(), name + ".java");
     try {
-      out = new Printer(new PrintWriter(runtime.getWriter(file)));
+      return new Printer(new PrintWriter(runtime.getWriter(file)));
     } catch (IOException x) {
       if (null == x.getMessage()) {
         runtime.error(file.toString() + ": I/O error");
       } else {
         runtime.error(file.toString() + ": " + x.getMessage());
       }
-      return;
+      return null;
     }
-    printHeader(out);
-    new CodeGenerator(runtime, ana, ast, out).dispatch(module);
-    out.flush().close();
   }
 
   /**
@@ -22,6 +22,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 import xtc.util.Pair;
 
 /**
@@ -41,6 +43,14 @@ import xtc.util.Pair;
  * {@link #hasVariable()} and convert fixed size nodes into variable
  * sized nodes through {@link #ensureVariable(GNode)}.
  *
+ * <p />A note on performance: Each distinct name is also identified
+ * by an int <i>kind</i>, which is assigned by a global registry on
+ * first use.  A node's kind is available through {@link #kind()}.
+ * Code testing many nodes can thus compare ints through {@link
+ * #hasKind(int)} or switch on them instead of comparing names.  The
+ * kind constants class generated by <i>Rats!</i> for a grammar maps
+ * kinds to compile-time constants for use in switch statements.
+ *
  * @author Robert Grimm
  * @version $Revision: 1.48 $
  */
@@ -862,9 +872,19 @@ public abstract class GNode extends Node {
    */
   public static final int MAX_FIXED = 8;
 
+  /** The map from names to kinds. */
+  private static final ConcurrentHashMap<String, Integer> kinds =
+    new ConcurrentHashMap<String, Integer>();
+
+  /** The list of names, indexed by kind. */
+  private static final ArrayList<String> names = new ArrayList<String>();
+
   /** The name. */
   final String name;
 
+  /** The kind plus one or 0 if the kind has not been determined. */
+  private int kind;
+
   /** Create a new generic node with the specified name. */
   GNode(String name) {
     this.name = name;
@@ -933,6 +953,82 @@ public abstract class GNode extends Node {
     return this.name.equals(name);
   }
 
+  /**
+   * Get this generic node's kind.
+   *
+   * @return The kind.
+   */
+  public final int kind() {
+    int k = kind;
+    if (0 == k) {
+      // Races are benign, since all threads determine the same kind.
+      k    = kind(name) + 1;
+      kind = k;
+    }
+    return k - 1;
+  }
+
+  /**
+   * Determine whether this generic node has the specified kind.
+   *
+   * @param kind The kind.
+   * @return <code>true</code> if this generic node has the kind.
+   */
+  public final boolean hasKind(int kind) {
+    return kind() == kind;
+  }
+
+  // =======================================================================
+
+  /**
+   * Get the kind for the specified name.  If the name does not have a
+   * kind yet, this method assigns the next available kind to it.
+   * Kinds are dense, starting at 0, and stable for the lifetime of
+   * the virtual machine.
+   *
+   * @param name The name.
+   * @return The corresponding kind.
+   */
+  public static int kind(String name) {
+    Integer k = kinds.get(name);
+    if (null != k) return k;
+
+    synchronized (names) {
+      k = kinds.get(name);
+      if (null == k) {
+        k = names.size();
+        names.add(name);
+        kinds.put(name, k);
+      }
+      return k;
+    }
+  }
+
+  /**
+   * Get the name for the specified kind.
+   *
+   * @param kind The kind.
+   * @return The corresponding name.
+   * @throws IndexOutOfBoundsException Signals that the kind has not
+   *   been assigned.
+   */
+  public static String nameOf(int kind) {
+    synchronized (names) {
+      return names.get(kind);
+    }
+  }
+
+  /**
+   * Get the number of kinds assigned so far.
+   *
+   * @return The number of kinds.
+   */
+  public static int kindCount() {
+    synchronized (names) {
+      return names.size();
+    }
+  }
+
   // =======================================================================
 
   /**
@@ -1277,38 +1373,54 @@ public abstract class GNode extends Node {
 
   /**
    * Create a new generic node that is a (shallow) copy of the
-   * specified node.
+   * specified node.  Generic nodes of other classes, such as lazily
+   * decoded or shared nodes, are copied into regular nodes with the
+   * same children.
    *
    * @param node The node to copy.
    * @return The copy.
    */
   public static GNode create(GNode node) {
-    if (node instanceof Variable) {
-      return new Variable((Variable)node);
-    } else {
-      switch (node.size()) {
-      case 0:
-        return new Fixed0((Fixed0)node);
-      case 1:
-        return new Fixed1((Fixed1)node);
-      case 2:
-        return new Fixed2((Fixed2)node);
-      case 3:
-        return new Fixed3((Fixed3)node);
-      case 4:
-        return new Fixed4((Fixed4)node);
-      case 5:
-        return new Fixed5((Fixed5)node);
-      case 6:
-        return new Fixed6((Fixed6)node);
-      case 7:
-        return new Fixed7((Fixed7)node);
-      case 8:
-        return new Fixed8((Fixed8)node);
-      default:
-        throw new AssertionError("Internal error");
-      }
+    if (node instanceof Variable) return new Variable((Variable)node);
+
+    switch (node.size()) {
+    case 0:
+      if (node instanceof Fixed0) return new Fixed0((Fixed0)node);
+      break;
+    case 1:
+      if (node instanceof Fixed1) return new Fixed1((Fixed1)node);
+      break;
+    case 2:
+      if (node instanceof Fixed2) return new Fixed2((Fixed2)node);
+      break;
+    case 3:
+      if (node instanceof Fixed3) return new Fixed3((Fixed3)node);
+      break;
+    case 4:
+      if (node instanceof Fixed4) return new Fixed4((Fixed4)node);
+      break;
+    case 5:
+      if (node instanceof Fixed5) return new Fixed5((Fixed5)node);
+      break;
+    case 6:
+      if (node instanceof Fixed6) return new Fixed6((Fixed6)node);
+      break;
+    case 7:
+      if (node instanceof Fixed7) return new Fixed7((Fixed7)node);
+      break;
+    case 8:
+      if (node instanceof Fixed8) return new Fixed8((Fixed8)node);
+      break;
+    default:
+      // Fall through.
+    }
+
+    // Copy the children into a regular node.
+    Pair<Object> children = Pair.empty();
+    for (int i=node.size()-1; i>=0; i--) {
+      children = new Pair<Object>(node.get(i), children);
     }
+    return createFromPair(node.name, children);
   }
 
   // =======================================================================
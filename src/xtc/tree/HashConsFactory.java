@@ -0,0 +1,329 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.tree;
+
+import java.util.Collection;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import xtc.util.Pair;
+
+/**
+ * A hash-consing factory for generic nodes.  This factory shares
+ * structurally identical subtrees: Creating a generic node whose
+ * children are all immutable, i.e., <code>null</code>, strings,
+ * boxed primitive values, the empty list, or shared nodes, returns
+ * the same shared node for the same name and children.  Shared nodes
+ * have a fixed number of children and cache their hash codes, so
+ * that hashing and comparing deep trees of shared nodes is cheap.
+ * Shared nodes are equal to regular generic nodes with the same
+ * structure.
+ *
+ * <p />Since they may appear in several trees at the same time,
+ * shared nodes are immutable: They have no location and no
+ * properties, and replacing a child with a different value signals an
+ * <code>UnsupportedOperationException</code>.  Replacing a child with
+ * itself is allowed, so that visitors which unconditionally store
+ * their results back into the tree continue to work for unchanged
+ * subtrees.  Tree transformers that do change a subtree must copy
+ * shared nodes on write, which is most easily done with {@link
+ * #set(GNode,int,Object)}.
+ *
+ * <p />In particular, trees created by node factories generated with
+ * the Factory Factory's <code>-share</code> option must not be
+ * annotated in place: Setting a location or property on a shared node
+ * signals an <code>UnsupportedOperationException</code>.  Code that
+ * annotates such trees, e.g., with types, must first replace the
+ * shared nodes with {@link GNode#create(GNode) copies}.
+ *
+ * <p />A hash-consing factory retains all shared nodes until it is
+ * {@link #clear() cleared}.  It may be used by several threads at the
+ * same time.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class HashConsFactory {
+
+  /** A shared generic node. */
+  static final class Shared extends GNode.Fixed {
+
+    /** The children. */
+    private final Object[] children;
+
+    /** The hash code. */
+    private final int hash;
+
+    /**
+     * Create a new shared node.
+     *
+     * @param name The name.
+     * @param children The children, which must be immutable.
+     */
+    Shared(String name, Object[] children) {
+      super(name);
+      this.children = children;
+
+      int h = name.hashCode();
+      for (Object child : children) {
+        h = (37 * h) + (null == child ? 0 : child.hashCode());
+      }
+      this.hash = h;
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (! (o instanceof Shared)) return super.equals(o);
+
+      final Shared other = (Shared)o;
+      if ((hash != other.hash) ||
+          (children.length != other.children.length) ||
+          (! name.equals(other.name))) {
+        return false;
+      }
+      for (int i=0; i<children.length; i++) {
+        final Object c1 = children[i], c2 = other.children[i];
+        if ((c1 != c2) && ((null == c1) || (! c1.equals(c2)))) return false;
+      }
+      return true;
+    }
+
+    public int size() {
+      return children.length;
+    }
+
+    public Object get(int index) {
+      if ((0 > index) || (children.length <= index)) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " +
+                                            children.length);
+      }
+      return children[index];
+    }
+
+    public Object set(int index, Object value) {
+      final Object old = get(index);
+      if (old != value) throw immutable();
+      return old;
+    }
+
+    public void addAllTo(Collection<Object> c) {
+      for (Object o : children) c.add(o);
+    }
+
+    public Object setProperty(String name, Object value) {
+      throw immutable();
+    }
+
+    public void setLocation(Location location) {
+      if (null != location) throw immutable();
+    }
+
+    public void setLocation(String file, int line, int column) {
+      throw immutable();
+    }
+
+    public void setLocation(Locatable locatable) {
+      if (locatable.hasLocation()) throw immutable();
+    }
+
+    /**
+     * Create the exception for mutating a shared node.
+     *
+     * @return The exception.
+     */
+    private UnsupportedOperationException immutable() {
+      return new UnsupportedOperationException("Shared generic node " + name);
+    }
+
+  }
+
+  // =======================================================================
+
+  /** The shared nodes. */
+  protected final ConcurrentHashMap<Shared, Shared> nodes;
+
+  /** Create a new hash-consing factory. */
+  public HashConsFactory() {
+    nodes = new ConcurrentHashMap<Shared, Shared>();
+  }
+
+  /**
+   * Get the number of shared nodes.
+   *
+   * @return The number of shared nodes.
+   */
+  public int size() {
+    return nodes.size();
+  }
+
+  /** Clear this factory, forgetting all shared nodes. */
+  public void clear() {
+    nodes.clear();
+  }
+
+  /**
+   * Create a generic node with the specified name and children.  If
+   * all children are immutable, this method returns a shared node.
+   * Otherwise, it returns a regular generic node with a fixed number
+   * of children, if possible.
+   *
+   * @param name The name.
+   * @param children The children.
+   * @return The generic node.
+   */
+  public GNode create(String name, Object... children) {
+    for (Object child : children) {
+      if (! isImmutable(child)) {
+        Pair<Object> p = Pair.empty();
+        for (int i=children.length-1; i>=0; i--) {
+          p = new Pair<Object>(children[i], p);
+        }
+        return GNode.createFromPair(name, p);
+      }
+    }
+
+    return intern(name, children.clone());
+  }
+
+  /**
+   * Share the specified tree.  If the tree consists only of generic
+   * nodes with a fixed number of children, without locations and
+   * properties, and of immutable values, this method returns the
+   * corresponding shared tree.  Otherwise, it replaces all such
+   * subtrees in place and returns the specified tree.
+   *
+   * @param o The tree.
+   * @return The possibly shared tree.
+   */
+  @SuppressWarnings("unchecked")
+  public Object share(Object o) {
+    if (o instanceof Pair) {
+      for (Pair<Object> p = (Pair<Object>)o; ! p.isEmpty(); p = p.tail()) {
+        final Object head = p.head(), shared = share(head);
+        if (head != shared) p.setHead(shared);
+      }
+      return o;
+
+    } else if ((! (o instanceof GNode)) || (o instanceof Shared)) {
+      return o;
+    }
+
+    final GNode    n        = (GNode)o;
+    final int      size     = n.size();
+    final Object[] children = new Object[size];
+    boolean        sharable = (! n.hasVariable()) && (! n.hasLocation()) &&
+      (! n.hasProperties());
+
+    for (int i=0; i<size; i++) {
+      final Object child = n.get(i);
+      children[i]        = share(child);
+      if (! isImmutable(children[i])) sharable = false;
+    }
+
+    if (sharable) return intern(n.name, children);
+
+    for (int i=0; i<size; i++) {
+      if (n.get(i) != children[i]) n.set(i, children[i]);
+    }
+    return n;
+  }
+
+  /**
+   * Get the shared node with the specified name and children.
+   *
+   * @param name The name.
+   * @param children The children, which must be immutable and must
+   *   not be modified by the caller.
+   * @return The shared node.
+   */
+  protected GNode intern(String name, Object[] children) {
+    final Shared candidate = new Shared(name, children);
+    final Shared shared    = nodes.putIfAbsent(candidate, candidate);
+    return (null == shared) ? candidate : shared;
+  }
+
+  // =======================================================================
+
+  /**
+   * Determine whether the specified object is immutable and thus can
+   * be the child of a shared node.
+   *
+   * @param o The object.
+   * @return <code>true</code> if the object is immutable.
+   */
+  public static boolean isImmutable(Object o) {
+    return ((null == o) ||
+            (o instanceof Shared) ||
+            (o instanceof String) ||
+            (o instanceof Boolean) ||
+            (o instanceof Integer) ||
+            (o instanceof Long) ||
+            (o instanceof Short) ||
+            (o instanceof Byte) ||
+            (o instanceof Character) ||
+            (o instanceof Double) ||
+            (o instanceof Float) ||
+            (Pair.EMPTY == o));
+  }
+
+  /**
+   * Determine whether the specified object is a shared node.
+   *
+   * @param o The object.
+   * @return <code>true</code> if the object is a shared node.
+   */
+  public static boolean isShared(Object o) {
+    return o instanceof Shared;
+  }
+
+  /**
+   * Ensure that the specified node is mutable.
+   *
+   * @param node The node.
+   * @return A shallow, regular copy of the specified node if it is
+   *   shared; otherwise, the specified node.
+   */
+  public static GNode ensureMutable(GNode node) {
+    return (node instanceof Shared) ? GNode.create(node) : node;
+  }
+
+  /**
+   * Replace the specified node's child with copy-on-write semantics.
+   * If the specified value is the same as the current child, this
+   * method does nothing.  Otherwise, if the node is shared, this
+   * method replaces the child of a copy.
+   *
+   * @param node The node.
+   * @param index The child's index.
+   * @param value The new value.
+   * @return The node with the specified child, which is either the
+   *   specified node or a copy.
+   */
+  public static GNode set(GNode node, int index, Object value) {
+    if (node.get(index) == value) return node;
+    final GNode result = ensureMutable(node);
+    result.set(index, value);
+    return result;
+  }
+
+}
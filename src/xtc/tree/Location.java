@@ -20,14 +20,52 @@ package xtc.tree;
 
 import java.io.IOException;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * The location in a source file.
  *
+ * <p />To avoid one location object per node, a location can also be
+ * {@link #pack(String,int,int) packed} into a single long, which
+ * records the file as an id into a global table of file names
+ * together with the line and column.  Nodes store their locations in
+ * packed form and only create location objects on demand.  All
+ * locations unpacked for the same file share the same file name.
+ *
  * @author Robert Grimm
  * @version $Revision: 1.12 $
  */
 public class Location implements Comparable {
 
+  /** The packed representation of no location. */
+  public static final long NONE = 0;
+
+  /** The number of bits for a packed location's column. */
+  private static final int COLUMN_BITS = 20;
+
+  /** The number of bits for a packed location's line. */
+  private static final int LINE_BITS = 24;
+
+  /** The number of bits for a packed location's file id. */
+  private static final int FILE_BITS = 64 - LINE_BITS - COLUMN_BITS;
+
+  /** The map from file names to file ids. */
+  private static final ConcurrentHashMap<String, Integer> fileIds =
+    new ConcurrentHashMap<String, Integer>();
+
+  /** The lock for assigning file ids. */
+  private static final Object lock = new Object();
+
+  /**
+   * The array of file names, indexed by file id.  The array is only
+   * modified while holding the lock and republished after every
+   * modification, so that reading file names requires no lock.
+   */
+  private static volatile String[] files = new String[16];
+
+  /** The number of file ids. */
+  private static int fileCount = 0;
+
   /** The file name. */
   public final String file;
 
@@ -50,6 +88,86 @@ public class Location implements Comparable {
     this.column = column;
   }
 
+  /**
+   * Get the id for the specified file name.  If the file name does
+   * not have an id yet, this method assigns the next available id to
+   * it.
+   *
+   * @param file The file name.
+   * @return The corresponding id or -1 if all ids have been assigned.
+   */
+  private static int fileId(String file) {
+    Integer id = fileIds.get(file);
+    if (null != id) return id;
+
+    synchronized (lock) {
+      id = fileIds.get(file);
+      if (null == id) {
+        // Reserve the largest id, so that ids plus one fit.
+        if ((1 << FILE_BITS) - 1 <= fileCount) return -1;
+        String[] a = files;
+        if (a.length == fileCount) {
+          final String[] b = new String[2 * a.length];
+          System.arraycopy(a, 0, b, 0, fileCount);
+          a = b;
+        }
+        id      = fileCount++;
+        a[id]   = file;
+        files   = a;
+        fileIds.put(file, id);
+      }
+      return id;
+    }
+  }
+
+  /**
+   * Pack the specified file, line, and column into a long.
+   *
+   * @param file The file name.
+   * @param line The line number.
+   * @param column The column.
+   * @return The packed location or {@link #NONE} if the location
+   *   cannot be packed, notably because the line or column is
+   *   negative or too large.
+   */
+  public static long pack(String file, int line, int column) {
+    if ((0 > line) || ((1 << LINE_BITS) <= line) ||
+        (0 > column) || ((1 << COLUMN_BITS) <= column)) {
+      return NONE;
+    }
+
+    final int id = fileId(file);
+    if (-1 == id) return NONE;
+
+    return (((long)(id + 1)) << (LINE_BITS + COLUMN_BITS)) |
+      (((long)line) << COLUMN_BITS) | column;
+  }
+
+  /**
+   * Pack the specified location into a long.
+   *
+   * @param location The location.
+   * @return The packed location or {@link #NONE} if the location
+   *   cannot be packed.
+   */
+  public static long pack(Location location) {
+    return pack(location.file, location.line, location.column);
+  }
+
+  /**
+   * Unpack the specified location.
+   *
+   * @param position The packed location, which must not be {@link
+   *   #NONE}.
+   * @return The location.
+   */
+  public static Location unpack(long position) {
+    final int    id = (int)(position >>> (LINE_BITS + COLUMN_BITS)) - 1;
+    return new Location(files[id],
+                        (int)(position >>> COLUMN_BITS) & ((1 << LINE_BITS) - 1),
+                        (int)position & ((1 << COLUMN_BITS) - 1));
+  }
+
   public int hashCode() {
     return file.hashCode() + line * 7 + column;
   }
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -50,10 +51,34 @@ import xtc.util.Utilities;
  */
 public abstract class Node implements Iterable<Object>, Locatable {
 
-  /** The properties. */
-  Map<String, Object> properties;
+  /**
+   * The maximum number of properties stored inline, i.e., without a
+   * hash map.
+   */
+  private static final int MAX_INLINE = 4;
+
+  /**
+   * The properties.  This field is <code>null</code> for nodes
+   * without properties.  For nodes with at most {@link #MAX_INLINE}
+   * properties, it is an array of alternating names and values, with
+   * unused slots being <code>null</code>.  For all other nodes, it is
+   * a hash map.  Since most annotated nodes have only one to three
+   * properties, which are usually named by constants, the inline
+   * representation avoids a hash map and its table for those nodes
+   * while still supporting fast lookups.
+   */
+  Object properties;
   
-  /** The optional source location. */
+  /**
+   * The optional source location in packed form or {@link
+   * Location#NONE}.
+   */
+  long position;
+
+  /**
+   * The optional source location, if it cannot be {@link
+   * Location#pack(Location) packed}.
+   */
   Location location;
 
   // ========================================================================
@@ -67,7 +92,10 @@ public abstract class Node implements Iterable<Object>, Locatable {
    * @param location The source location for the new node.
    */
   public Node(Location location) {
-    this.location = location;
+    if (null != location) {
+      this.position = Location.pack(location);
+      if (Location.NONE == position) this.location = location;
+    }
   }
 
   // ========================================================================
@@ -178,6 +206,58 @@ public abstract class Node implements Iterable<Object>, Locatable {
 
   // ========================================================================
 
+  /**
+   * Find the specified property name in the specified inline
+   * properties.
+   *
+   * @param a The inline properties.
+   * @param name The property name.
+   * @return The name's index or -1 if the array does not contain the
+   *   name.
+   */
+  private static int find(Object[] a, String name) {
+    for (int i=0; i<a.length; i+=2) {
+      final Object key = a[i];
+      if (null == key) break;
+      if ((key == name) || key.equals(name)) return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Determine the number of used slots in the specified inline
+   * properties.
+   *
+   * @param a The inline properties.
+   * @return The number of used slots.
+   */
+  private static int used(Object[] a) {
+    int i = 0;
+    while ((i < a.length) && (null != a[i])) i += 2;
+    return i;
+  }
+
+  /**
+   * Get this node's properties as a hash map, converting any inline
+   * properties.
+   *
+   * @return The hash map.
+   */
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> map() {
+    if (properties instanceof Map) return (Map<String, Object>)properties;
+
+    final Map<String, Object> map = new HashMap<String, Object>();
+    if (null != properties) {
+      final Object[] a = (Object[])properties;
+      for (int i=0; (i<a.length) && (null!=a[i]); i+=2) {
+        map.put((String)a[i], a[i+1]);
+      }
+    }
+    properties = map;
+    return map;
+  }
+
   /**
    * Set the value of a property.
    *
@@ -187,10 +267,34 @@ public abstract class Node implements Iterable<Object>, Locatable {
    * property didn't have a value.
    */
   public Object setProperty(String name, Object value) {
-    if (null == properties) {
-      properties = new HashMap<String, Object>();
+    if ((null == properties) && (null != name)) {
+      properties = new Object[] { name, value };
+      return null;
+
+    } else if ((properties instanceof Object[]) && (null != name)) {
+      Object[] a = (Object[])properties;
+      final int i = find(a, name);
+      if (-1 != i) {
+        final Object old = a[i+1];
+        a[i+1]           = value;
+        return old;
+      }
+
+      final int n = used(a);
+      if (n == a.length) {
+        if (2 * MAX_INLINE == n) return map().put(name, value);
+        final Object[] b = new Object[2 * n];
+        System.arraycopy(a, 0, b, 0, n);
+        a          = b;
+        properties = b;
+      }
+      a[n]   = name;
+      a[n+1] = value;
+      return null;
+
+    } else {
+      return map().put(name, value);
     }
-    return properties.put(name, value);
   }
 
   /**
@@ -203,8 +307,10 @@ public abstract class Node implements Iterable<Object>, Locatable {
   public boolean hasProperty(String name) {
     if (null == properties) {
       return false;
+    } else if (properties instanceof Object[]) {
+      return -1 != find((Object[])properties, name);
     } else {
-      return properties.containsKey(name);
+      return ((Map)properties).containsKey(name);
     }
   }
 
@@ -218,8 +324,12 @@ public abstract class Node implements Iterable<Object>, Locatable {
   public Object getProperty(String name) {
     if (null == properties) {
       return null;
+    } else if (properties instanceof Object[]) {
+      final Object[] a = (Object[])properties;
+      final int      i = find(a, name);
+      return (-1 == i) ? null : a[i+1];
     } else {
-      return properties.get(name);
+      return ((Map)properties).get(name);
     }
   }
 
@@ -232,16 +342,12 @@ public abstract class Node implements Iterable<Object>, Locatable {
    * @return The property's value as a boolean.
    */
   public boolean getBooleanProperty(String name) {
-    if (null == properties) {
+    Object o = getProperty(name);
+
+    if (null == o) {
       return false;
     } else {
-      Object o = properties.get(name);
-
-      if (null == o) {
-        return false;
-      } else {
-        return (Boolean)o;
-      }
+      return (Boolean)o;
     }
   }
 
@@ -252,11 +358,7 @@ public abstract class Node implements Iterable<Object>, Locatable {
    * @return The property's value as a string.
    */
   public String getStringProperty(String name) {
-    if (null == properties) {
-      return null;
-    } else {
-      return (String)properties.get(name);
-    }
+    return (String)getProperty(name);
   }
 
   /**
@@ -269,40 +371,127 @@ public abstract class Node implements Iterable<Object>, Locatable {
   public Object removeProperty(String name) {
     if (null == properties) {
       return null;
+    } else if (properties instanceof Object[]) {
+      final Object[] a = (Object[])properties;
+      final int      i = find(a, name);
+      if (-1 == i) return null;
+
+      // Move the last property into the removed property's slots.
+      final Object old  = a[i+1];
+      final int    last = used(a) - 2;
+      a[i]              = a[last];
+      a[i+1]            = a[last+1];
+      a[last]           = null;
+      a[last+1]         = null;
+      if (0 == last) properties = null;
+      return old;
     } else {
-      return properties.remove(name);
+      return ((Map)properties).remove(name);
     }
   }
 
   /**
-   * Get the set of property names.
+   * Determine whether this node has any properties.  Unlike testing
+   * {@link #properties()} for emptiness, this method does not create
+   * a new set.
+   *
+   * @return <code>true</code> if this node has at least one property.
+   */
+  public boolean hasProperties() {
+    if (null == properties) {
+      return false;
+    } else if (properties instanceof Object[]) {
+      // Inline properties are reset to null when the last one is
+      // removed.
+      return true;
+    } else {
+      return ! ((Map)properties).isEmpty();
+    }
+  }
+
+  /**
+   * Get the set of property names.  Note that, for nodes with at most
+   * four properties, the returned set is an unmodifiable snapshot of
+   * the names: It does not reflect later changes to this node's
+   * properties and cannot be used to remove properties.  Otherwise,
+   * the returned set is backed by this node's properties.  Code that
+   * only needs to know whether a node has properties should use
+   * {@link #hasProperties()} instead.
    *
    * @return The set of property names.
    */
+  @SuppressWarnings("unchecked")
   public Set<String> properties() {
     if (null == properties) {
       return Collections.emptySet();
+    } else if (properties instanceof Object[]) {
+      final Object[]    a     = (Object[])properties;
+      final Set<String> names = new HashSet<String>();
+      for (int i=0; (i<a.length) && (null!=a[i]); i+=2) {
+        names.add((String)a[i]);
+      }
+      return Collections.unmodifiableSet(names);
     } else {
-      return properties.keySet();
+      return ((Map<String, Object>)properties).keySet();
     }
   }
 
   // ========================================================================
 
   public boolean hasLocation() {
-    return null != location;
+    return (Location.NONE != position) || (null != location);
   }
 
+  /**
+   * Get this node's location.  Since nodes store locations in packed
+   * form, this method usually returns a new location object, which
+   * is equal to but not the same as any previously returned one.
+   *
+   * @return The location or <code>null</code> if this node does not
+   *   have a location.
+   */
   public Location getLocation() {
-    return location;
+    return (Location.NONE != position) ? Location.unpack(position) : location;
   }
 
   public void setLocation(Location location) {
-    this.location = location;
+    if (null == location) {
+      this.position = Location.NONE;
+      this.location = null;
+    } else {
+      this.position = Location.pack(location);
+      this.location = (Location.NONE != position) ? null : location;
+    }
+  }
+
+  /**
+   * Set this node's location to the specified file, line, and column.
+   * This method avoids creating a location object if possible.
+   *
+   * @param file The file name.
+   * @param line The line number.
+   * @param column The column.
+   */
+  public void setLocation(String file, int line, int column) {
+    position = Location.pack(file, line, column);
+    location = (Location.NONE != position) ? null :
+      new Location(file, line, column);
   }
 
   public void setLocation(Locatable locatable) {
-    if (locatable.hasLocation()) this.location = locatable.getLocation();
+    if (locatable instanceof Node) {
+      // Only copy the packed location directly if the node stores its
+      // own location; subclasses may forward locations elsewhere.
+      final Node n = (Node)locatable;
+      if ((Location.NONE != n.position) || (null != n.location)) {
+        position = n.position;
+        location = n.location;
+        return;
+      }
+    }
+    if (locatable.hasLocation()) {
+      setLocation(locatable.getLocation());
+    }
   }
 
   // ========================================================================
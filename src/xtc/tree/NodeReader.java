@@ -0,0 +1,422 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.tree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import xtc.util.Pair;
+
+/**
+ * A reader for the binary encoding of abstract syntax trees.  This
+ * class decodes trees written by a {@link NodeWriter} partially on
+ * demand: The children of a generic node with a fixed number of
+ * children are only decoded when they are first accessed.  In
+ * contrast, the children of nodes with a variable number of children,
+ * the elements of lists, and the annotated nodes of annotations are
+ * decoded eagerly, together with the node, list, or annotation.
+ * Strings and locations are only decoded once.  Decoding does not
+ * recurse, so that arbitrarily deep trees can be decoded.  Nodes,
+ * lists, and annotations encoded as shared are only decoded once, so
+ * that the decoded tree preserves the sharing of the original tree.
+ * Node names are interned.
+ *
+ * <p />The decoded tree consists of regular generic nodes, lists,
+ * strings, and annotations and can thus be processed by existing
+ * visitors.  Node reads only use absolute positions, so that the
+ * underlying buffer can be memory-mapped.  However, a node reader is
+ * not thread-safe.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class NodeReader {
+
+  /** A generic node with a fixed number of encoded children. */
+  static final class Lazy extends GNode.Fixed {
+
+    /** The reader. */
+    private final NodeReader reader;
+
+    /** The offset of the first child reference. */
+    private final int offset;
+
+    /** The number of children. */
+    private final int size;
+
+    /** The children or <code>null</code> if not yet decoded. */
+    private Object[] children;
+
+    /**
+     * Create a new lazy node.
+     *
+     * @param name The name.
+     * @param reader The reader.
+     * @param offset The offset of the first child reference.
+     * @param size The number of children.
+     */
+    Lazy(String name, NodeReader reader, int offset, int size) {
+      super(name);
+      this.reader = reader;
+      this.offset = offset;
+      this.size   = size;
+    }
+
+    /**
+     * Get the decoded children.
+     *
+     * @return The children.
+     */
+    private Object[] children() {
+      if (null == children) {
+        final Object[] a = new Object[size];
+        for (int i=0; i<size; i++) a[i] = reader.value(offset + 4 * i);
+        children = a;
+      }
+      return children;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public Object get(int index) {
+      if ((0 > index) || (size <= index)) {
+        throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size);
+      }
+      return children()[index];
+    }
+
+    public Object set(int index, Object value) {
+      if ((0 > index) || (size <= index)) {
+        throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size);
+      }
+      final Object[] a   = children();
+      final Object   old = a[index];
+      a[index]           = value;
+      return old;
+    }
+
+    public void addAllTo(Collection<Object> c) {
+      for (Object o : children()) c.add(o);
+    }
+
+  }
+
+  // =======================================================================
+
+  /** The buffer. */
+  protected final ByteBuffer buffer;
+
+  /** The offset of the string table. */
+  protected final int stringOffset;
+
+  /** The offset of the location table. */
+  protected final int locationOffset;
+
+  /** The decoded strings. */
+  protected final String[] strings;
+
+  /** The decoded locations. */
+  protected final Location[] locations;
+
+  /** The map from offsets to decoded shared nodes and lists. */
+  protected final Map<Integer, Object> shared;
+
+  /**
+   * Create a new node reader.
+   *
+   * @param buffer The buffer with the encoding.
+   * @throws IllegalArgumentException Signals that the buffer does not
+   *   contain a supported encoding.
+   */
+  public NodeReader(ByteBuffer buffer) {
+    if ((NodeWriter.HEADER_SIZE > buffer.limit()) ||
+        (NodeWriter.MAGIC != buffer.getInt(0))) {
+      throw new IllegalArgumentException("Not an encoded AST");
+    } else if (NodeWriter.VERSION != buffer.getInt(4)) {
+      throw new IllegalArgumentException("Unsupported AST encoding version " +
+                                         buffer.getInt(4));
+    }
+
+    this.buffer         = buffer;
+    this.stringOffset   = buffer.getInt(12);
+    this.locationOffset = buffer.getInt(16);
+    this.strings        = new String[buffer.getInt(stringOffset)];
+    this.locations      = new Location[buffer.getInt(locationOffset)];
+    this.shared         = new HashMap<Integer, Object>();
+  }
+
+  /**
+   * Create a new node reader for the specified file.  The file is
+   * memory-mapped.
+   *
+   * @param file The file.
+   * @return The node reader.
+   * @throws IOException Signals an I/O error.
+   * @throws IllegalArgumentException Signals that the file does not
+   *   contain a supported encoding.
+   */
+  public static NodeReader map(File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      return new NodeReader(channel.map(FileChannel.MapMode.READ_ONLY,
+                                        0, channel.size()));
+    } finally {
+      // The mapping remains valid after closing the file.
+      raf.close();
+    }
+  }
+
+  /**
+   * Get the root of the encoded tree.
+   *
+   * @return The root.
+   */
+  public Object root() {
+    return value(8);
+  }
+
+  /**
+   * Decode the value referenced at the specified offset.  This method
+   * fills in the children of materialized nodes and the elements of
+   * lists with an explicit work list instead of through recursion.
+   *
+   * @param position The offset of the reference.
+   * @return The value.
+   */
+  protected Object value(int position) {
+    final List<Object> work   = new ArrayList<Object>();
+    final Object       result = value(position, work);
+
+    while (! work.isEmpty()) {
+      // Each work item is the offset of the first reference, the
+      // number of references, and the node's children, the list, or
+      // the annotation.
+      final int    size    = (Integer)work.remove(work.size() - 1);
+      final int    offset  = (Integer)work.remove(work.size() - 1);
+      final Object target  = work.remove(work.size() - 1);
+
+      if (target instanceof Annotation) {
+        ((Annotation)target).setNode((Node)value(offset, work));
+      } else if (target instanceof Pair) {
+        Pair<Object> list = cast(target);
+        for (int i=0; i<size; i++) {
+          list.setHead(value(offset + 4 * i, work));
+          list = list.tail();
+        }
+      } else {
+        final List<Object> children = cast(target);
+        for (int i=0; i<size; i++) children.add(value(offset + 4 * i, work));
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Decode the value referenced at the specified offset.  The
+   * children of nodes with a variable number of children, the
+   * elements of lists, and the annotated nodes of annotations are not
+   * decoded yet but rather added to the specified work list.
+   *
+   * @param position The offset of the reference.
+   * @param work The work list.
+   * @return The value.
+   */
+  private Object value(int position, List<Object> work) {
+    final int ref = buffer.getInt(position);
+    if (0 == ref) return null;
+
+    final int tag    = ref & NodeWriter.TAG_MASK;
+    final int offset = ref & ~NodeWriter.TAG_MASK;
+    if (NodeWriter.TAG_STRING == tag) return string(ref >>> 2);
+
+    final Object known = shared.get(offset);
+    if (null != known) return known;
+
+    final Object result;
+    final int    header;
+    switch (tag) {
+    case NodeWriter.TAG_NODE:
+      header = buffer.getInt(offset + 8);
+      result = node(offset, header, work);
+      break;
+
+    case NodeWriter.TAG_ANNOTATION:
+      header = buffer.getInt(offset + 8);
+      result = annotation(offset, work);
+      break;
+
+    case NodeWriter.TAG_LIST: {
+      header = buffer.getInt(offset);
+      final int size = header >>> 2;
+      Pair<Object> list = Pair.empty();
+      for (int i=0; i<size; i++) list = new Pair<Object>(null, list);
+      if (0 < size) {
+        work.add(list);
+        work.add(offset + 4);
+        work.add(size);
+      }
+      result = list;
+      break;
+    }
+
+    default:
+      throw new IllegalStateException("Malformed reference " + ref);
+    }
+
+    if (0 != (header & NodeWriter.FLAG_SHARED)) shared.put(offset, result);
+    return result;
+  }
+
+  /**
+   * Decode the node at the specified offset.
+   *
+   * @param offset The offset.
+   * @param header The node's header.
+   * @param work The work list.
+   * @return The node.
+   */
+  private GNode node(int offset, int header, List<Object> work) {
+    final String name = string(buffer.getInt(offset)).intern();
+    final int    loc  = buffer.getInt(offset + 4);
+    final int    size = header >>> 2;
+
+    final GNode result;
+    if (0 == (header & NodeWriter.FLAG_VARIABLE)) {
+      result = new Lazy(name, this, offset + 12, size);
+    } else {
+      final ArrayList<Object> children = new ArrayList<Object>(size);
+      result = new GNode.Variable(name, children);
+      if (0 < size) {
+        work.add(children);
+        work.add(offset + 12);
+        work.add(size);
+      }
+    }
+
+    if (-1 != loc) result.setLocation(location(loc));
+    return result;
+  }
+
+  /**
+   * Decode the annotation at the specified offset.
+   *
+   * @param offset The offset.
+   * @param work The work list.
+   * @return The annotation.
+   */
+  private Annotation annotation(int offset, List<Object> work) {
+    final int kind = buffer.getInt(offset);
+    final int loc  = buffer.getInt(offset + 4);
+
+    final Annotation result;
+    switch (kind) {
+    case NodeWriter.ANNOTATION_LINE_MARKER:
+      result = new LineMarker(buffer.getInt(offset + 16),
+                              (String)value(offset + 20, work),
+                              buffer.getInt(offset + 24), null);
+      break;
+
+    case NodeWriter.ANNOTATION_PRAGMA:
+      result = new Pragma((String)value(offset + 16, work), null);
+      break;
+
+    case NodeWriter.ANNOTATION_SOURCE_IDENTITY:
+      result = new SourceIdentity((String)value(offset + 16, work), null);
+      break;
+
+    default:
+      throw new IllegalStateException("Malformed annotation kind " + kind);
+    }
+
+    work.add(result);
+    work.add(offset + 12);
+    work.add(1);
+
+    if (-1 != loc) result.setLocation(location(loc));
+    return result;
+  }
+
+  /**
+   * Cast the specified object.
+   *
+   * @param o The object.
+   * @return The cast object.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> T cast(Object o) {
+    return (T)o;
+  }
+
+  /**
+   * Decode the string with the specified index.
+   *
+   * @param index The index.
+   * @return The string.
+   */
+  protected String string(int index) {
+    String s = strings[index];
+    if (null == s) {
+      final int    offset = buffer.getInt(stringOffset + 4 + 4 * index);
+      final int    length = buffer.getInt(offset);
+      final byte[] bytes  = new byte[length];
+      for (int i=0; i<length; i++) bytes[i] = buffer.get(offset + 4 + i);
+      try {
+        s = new String(bytes, "UTF-8");
+      } catch (UnsupportedEncodingException x) {
+        throw new AssertionError("UTF-8 not supported");
+      }
+      strings[index] = s;
+    }
+    return s;
+  }
+
+  /**
+   * Decode the location with the specified index.
+   *
+   * @param index The index.
+   * @return The location.
+   */
+  protected Location location(int index) {
+    Location loc = locations[index];
+    if (null == loc) {
+      final int offset = locationOffset + 4 + 12 * index;
+      loc = new Location(string(buffer.getInt(offset)).intern(),
+                         buffer.getInt(offset + 4),
+                         buffer.getInt(offset + 8));
+      locations[index] = loc;
+    }
+    return loc;
+  }
+
+}
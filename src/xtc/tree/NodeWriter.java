@@ -0,0 +1,542 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.tree;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import xtc.util.Pair;
+
+/**
+ * A writer for the binary encoding of abstract syntax trees.  The
+ * encoding represents a tree of generic nodes, lists, strings, and
+ * the line marker, pragma, and source identity annotations produced
+ * by the C parser in a single byte buffer, which can be written to a
+ * file and later be decoded with a {@link NodeReader}, including from
+ * a memory-mapped file.  All numbers are 32-bit big-endian ints and
+ * all records are int-aligned.  An encoding has the following
+ * structure:<ul>
+ *
+ * <li>A header with the {@link #MAGIC magic number}, the {@link
+ * #VERSION version}, the reference to the root, and the offsets of
+ * the string and location tables.</li>
+ *
+ * <li>The node, list, and annotation records, with each record
+ * following the records of its children.  A node record contains
+ * the string index of the node's name, the index of the node's
+ * location or -1, a header, and the references to the children.
+ * The header is the number of children shifted left by two, or'ed
+ * with {@link #FLAG_SHARED} for nodes referenced more than once and
+ * with {@link #FLAG_VARIABLE} for nodes with a variable number of
+ * children.  A list record contains a header, i.e., the number of
+ * elements shifted left by two and or'ed with {@link #FLAG_SHARED}
+ * for lists referenced more than once, and the references to the
+ * elements.  An annotation record contains the {@link
+ * #ANNOTATION_LINE_MARKER kind} of annotation, the index of the
+ * annotation's location or -1, a header, i.e., 0 or'ed with {@link
+ * #FLAG_SHARED} for annotations referenced more than once, the
+ * reference to the annotated node, and the annotation's fields: the
+ * line, a reference to the file name, and the flags for line markers,
+ * a reference to the directive for pragmas, and a reference to the
+ * identity for source identities.</li>
+ *
+ * <li>The string table with the number of strings, the offsets of the
+ * strings, and each string's UTF-8 length and bytes.</li>
+ *
+ * <li>The location table with the number of locations and each
+ * location's file name as a string index, line, and column.</li>
+ *
+ * </ul>
+ *
+ * A reference is 0 for <code>null</code>.  Otherwise, its lower two
+ * bits are a {@link #TAG_STRING tag} and the remaining bits are
+ * either a string index or a record offset.  Since records never
+ * start at offset 0, annotation records use tag 0.  Strings and locations
+ * are only stored once, and nodes and lists reachable through several
+ * references are only encoded once and flagged as shared, so that a
+ * {@link NodeReader} decodes them only once as well.  Node properties
+ * and all other annotations, including comments, cannot be encoded,
+ * so trees containing them are rejected.  Trees
+ * are encoded without recursion and may thus be arbitrarily deep.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class NodeWriter {
+
+  /** The magic number. */
+  public static final int MAGIC = 0x58544341;
+
+  /** The version. */
+  public static final int VERSION = 2;
+
+  /** The size of the header. */
+  public static final int HEADER_SIZE = 20;
+
+  /** The tag for annotation references. */
+  public static final int TAG_ANNOTATION = 0;
+
+  /** The tag for string references. */
+  public static final int TAG_STRING = 1;
+
+  /** The tag for node references. */
+  public static final int TAG_NODE = 2;
+
+  /** The tag for list references. */
+  public static final int TAG_LIST = 3;
+
+  /** The mask for a reference's tag. */
+  public static final int TAG_MASK = 3;
+
+  /** The header flag for records referenced more than once. */
+  public static final int FLAG_SHARED = 2;
+
+  /** The header flag for nodes with a variable number of children. */
+  public static final int FLAG_VARIABLE = 1;
+
+  /** The kind of line marker annotation records. */
+  public static final int ANNOTATION_LINE_MARKER = 1;
+
+  /** The kind of pragma annotation records. */
+  public static final int ANNOTATION_PRAGMA = 2;
+
+  /** The kind of source identity annotation records. */
+  public static final int ANNOTATION_SOURCE_IDENTITY = 3;
+
+  /** A node, list, or annotation whose children are being encoded. */
+  static final class Frame {
+
+    /** The node, list, or annotation. */
+    final Object record;
+
+    /** The children or elements. */
+    final Object[] children;
+
+    /** The references to the already encoded children. */
+    final int[] refs;
+
+    /** The index of the next child to encode. */
+    int next;
+
+    /**
+     * Create a new frame.
+     *
+     * @param record The node, list, or annotation.
+     * @param children The children or elements.
+     */
+    Frame(Object record, Object[] children) {
+      this.record   = record;
+      this.children = children;
+      this.refs     = new int[children.length];
+    }
+
+  }
+
+  /** The buffer. */
+  protected ByteBuffer buffer;
+
+  /** The map from strings to their indices. */
+  protected final Map<String, Integer> strings;
+
+  /** The list of strings. */
+  protected final List<String> stringList;
+
+  /** The map from locations to their indices. */
+  protected final Map<Location, Integer> locations;
+
+  /** The list of locations. */
+  protected final List<Location> locationList;
+
+  /** The map from nodes, lists, and annotations to their references. */
+  protected final Map<Object, Integer> records;
+
+  /** Create a new node writer. */
+  public NodeWriter() {
+    strings      = new HashMap<String, Integer>();
+    stringList   = new ArrayList<String>();
+    locations    = new HashMap<Location, Integer>();
+    locationList = new ArrayList<Location>();
+    records      = new IdentityHashMap<Object, Integer>();
+  }
+
+  /**
+   * Encode the specified abstract syntax tree.
+   *
+   * @param root The root, which may be a node, a list, a string, or
+   *   <code>null</code>.
+   * @return The encoding, ready for reading.
+   * @throws IllegalArgumentException Signals that the tree contains
+   *   an object that cannot be encoded.
+   */
+  public ByteBuffer encode(Object root) {
+    buffer = ByteBuffer.allocate(4096);
+    strings.clear();
+    stringList.clear();
+    locations.clear();
+    locationList.clear();
+    records.clear();
+
+    try {
+      buffer.position(HEADER_SIZE);
+      final int rootRef = value(root);
+
+      // Emit the string table.
+      final int stringOffset = buffer.position();
+      final int stringCount  = stringList.size();
+      final byte[][] bytes   = new byte[stringCount][];
+      int            offset  = stringOffset + 4 + 4 * stringCount;
+
+      ensure(4 + 4 * stringCount);
+      buffer.putInt(stringCount);
+      for (int i=0; i<stringCount; i++) {
+        bytes[i] = stringList.get(i).getBytes("UTF-8");
+        buffer.putInt(offset);
+        offset  += 4 + ((bytes[i].length + 3) & ~3);
+      }
+      for (int i=0; i<stringCount; i++) {
+        ensure(4 + bytes[i].length + 3);
+        buffer.putInt(bytes[i].length);
+        buffer.put(bytes[i]);
+        align();
+      }
+
+      // Emit the location table.  Its file names have already been
+      // added to the string table by location().
+      final int locationOffset = buffer.position();
+      ensure(4 + 12 * locationList.size());
+      buffer.putInt(locationList.size());
+      for (Location loc : locationList) {
+        buffer.putInt(strings.get(loc.file));
+        buffer.putInt(loc.line);
+        buffer.putInt(loc.column);
+      }
+
+      // Patch the header.
+      buffer.putInt(0,  MAGIC);
+      buffer.putInt(4,  VERSION);
+      buffer.putInt(8,  rootRef);
+      buffer.putInt(12, stringOffset);
+      buffer.putInt(16, locationOffset);
+
+      buffer.flip();
+      return buffer;
+
+    } catch (UnsupportedEncodingException x) {
+      throw new AssertionError("UTF-8 not supported");
+
+    } finally {
+      buffer = null;
+      records.clear();
+    }
+  }
+
+  /**
+   * Encode the specified abstract syntax tree and write it to the
+   * specified output stream.
+   *
+   * @param root The root.
+   * @param out The output stream.
+   * @throws IllegalArgumentException Signals that the tree contains
+   *   an object that cannot be encoded.
+   * @throws IOException Signals an I/O error.
+   */
+  public void write(Object root, OutputStream out) throws IOException {
+    final ByteBuffer b = encode(root);
+    out.write(b.array(), b.arrayOffset(), b.limit());
+  }
+
+  /**
+   * Ensure that the buffer has room for the specified number of
+   * bytes.
+   *
+   * @param bytes The number of bytes.
+   */
+  protected void ensure(int bytes) {
+    if (buffer.remaining() >= bytes) return;
+
+    int capacity = buffer.capacity() << 1;
+    while (capacity - buffer.position() < bytes) capacity <<= 1;
+
+    final ByteBuffer b = ByteBuffer.allocate(capacity);
+    buffer.flip();
+    b.put(buffer);
+    buffer = b;
+  }
+
+  /** Pad the buffer to the next int boundary. */
+  protected void align() {
+    while (0 != (buffer.position() & 3)) buffer.put((byte)0);
+  }
+
+  /**
+   * Get the index of the specified string, adding it to the string
+   * table if necessary.
+   *
+   * @param s The string.
+   * @return The index.
+   */
+  protected int string(String s) {
+    Integer idx = strings.get(s);
+    if (null == idx) {
+      idx = stringList.size();
+      stringList.add(s);
+      strings.put(s, idx);
+    }
+    return idx;
+  }
+
+  /**
+   * Get the index of the specified location, adding it to the
+   * location table if necessary.
+   *
+   * @param loc The location.
+   * @return The index.
+   */
+  protected int location(Location loc) {
+    Integer idx = locations.get(loc);
+    if (null == idx) {
+      string(loc.file);
+      idx = locationList.size();
+      locationList.add(loc);
+      locations.put(loc, idx);
+    }
+    return idx;
+  }
+
+  /**
+   * Encode the specified value.  Nodes, lists, and annotations are
+   * encoded in post-order with an explicit stack instead of through
+   * recursion.
+   *
+   * @param o The value.
+   * @return The reference to the value.
+   * @throws IllegalArgumentException Signals that the value cannot be
+   *   encoded.
+   */
+  protected int value(Object o) {
+    if (! isRecord(o)) return leaf(o);
+
+    Integer ref = records.get(o);
+    if (null != ref) return shared(ref);
+
+    final List<Frame> stack = new ArrayList<Frame>();
+    stack.add(frame(o));
+
+    while (true) {
+      final Frame f = stack.get(stack.size() - 1);
+
+      if (f.next < f.children.length) {
+        final Object child = f.children[f.next];
+        if (! isRecord(child)) {
+          f.refs[f.next++] = leaf(child);
+        } else if (null != (ref = records.get(child))) {
+          f.refs[f.next++] = shared(ref);
+        } else {
+          stack.add(frame(child));
+        }
+
+      } else {
+        stack.remove(stack.size() - 1);
+        final int r = record(f);
+        records.put(f.record, r);
+
+        if (stack.isEmpty()) return r;
+        final Frame parent = stack.get(stack.size() - 1);
+        parent.refs[parent.next++] = r;
+      }
+    }
+  }
+
+  /**
+   * Determine whether the specified value is encoded as a record.
+   *
+   * @param o The value.
+   * @return <code>true</code> if the value is a node, list, or
+   *   annotation.
+   */
+  protected boolean isRecord(Object o) {
+    return (o instanceof Node) || (o instanceof Pair);
+  }
+
+  /**
+   * Encode the specified value, which is not a record.
+   *
+   * @param o The value.
+   * @return The reference to the value.
+   * @throws IllegalArgumentException Signals that the value cannot be
+   *   encoded.
+   */
+  protected int leaf(Object o) {
+    if (null == o) {
+      return 0;
+    } else if (o instanceof String) {
+      return (string((String)o) << 2) | TAG_STRING;
+    } else {
+      throw new IllegalArgumentException("Unable to encode " + o.getClass());
+    }
+  }
+
+  /**
+   * Create a frame for the specified node, list, or annotation.
+   *
+   * @param o The node, list, or annotation.
+   * @return The frame.
+   * @throws IllegalArgumentException Signals that the node cannot be
+   *   encoded.
+   */
+  protected Frame frame(Object o) {
+    if (o instanceof Pair) {
+      final List<Object> elements = new ArrayList<Object>();
+      for (Object e : (Pair<?>)o) elements.add(e);
+      return new Frame(o, elements.toArray());
+    }
+
+    final Node n = (Node)o;
+    if ((! n.isGeneric()) && (-1 == kind(n))) {
+      throw new IllegalArgumentException("Unable to encode " + n.getClass());
+    } else if (n.hasProperties()) {
+      throw new IllegalArgumentException("Unable to encode properties of " +
+                                         n.getName() + " node");
+    } else if (n.isAnnotation()) {
+      return new Frame(n, new Object[] { n.toAnnotation().getNode() });
+    }
+
+    final int      size     = n.size();
+    final Object[] children = new Object[size];
+    for (int i=0; i<size; i++) children[i] = n.get(i);
+    return new Frame(n, children);
+  }
+
+  /**
+   * Emit the record for the specified frame, whose children have all
+   * been encoded.
+   *
+   * @param f The frame.
+   * @return The reference to the record.
+   */
+  protected int record(Frame f) {
+    final int size = f.refs.length;
+
+    if (f.record instanceof Pair) {
+      ensure(4 + 4 * size);
+      final int offset = buffer.position();
+      buffer.putInt(size << 2);
+      for (int i=0; i<size; i++) buffer.putInt(f.refs[i]);
+      return offset | TAG_LIST;
+    }
+
+    final Node n = (Node)f.record;
+    if (n.isAnnotation()) return annotation(f);
+
+    final int  name = string(n.getName());
+    final int  loc  = n.hasLocation() ? location(n.getLocation()) : -1;
+
+    ensure(12 + 4 * size);
+    final int offset = buffer.position();
+    buffer.putInt(name);
+    buffer.putInt(loc);
+    buffer.putInt((size << 2) | (n.hasVariable() ? FLAG_VARIABLE : 0));
+    for (int i=0; i<size; i++) buffer.putInt(f.refs[i]);
+    return offset | TAG_NODE;
+  }
+
+  /**
+   * Get the kind of annotation record for the specified node.
+   *
+   * @param n The node.
+   * @return The kind or -1 if the node is not an annotation with an
+   *   encoding.
+   */
+  protected int kind(Node n) {
+    if (n instanceof LineMarker) {
+      return ANNOTATION_LINE_MARKER;
+    } else if (n instanceof Pragma) {
+      return ANNOTATION_PRAGMA;
+    } else if (n instanceof SourceIdentity) {
+      return ANNOTATION_SOURCE_IDENTITY;
+    } else {
+      return -1;
+    }
+  }
+
+  /**
+   * Emit the record for the specified frame, which holds an
+   * annotation whose annotated node has been encoded.
+   *
+   * @param f The frame.
+   * @return The reference to the record.
+   */
+  protected int annotation(Frame f) {
+    final Annotation a    = (Annotation)f.record;
+    final int        kind = kind(a);
+    final int        loc  = a.hasLocation() ? location(a.getLocation()) : -1;
+
+    // Add any strings to the string table before ensuring capacity.
+    final int field;
+    switch (kind) {
+    case ANNOTATION_LINE_MARKER:
+      field = leaf(((LineMarker)a).file);
+      break;
+    case ANNOTATION_PRAGMA:
+      field = leaf(((Pragma)a).directive);
+      break;
+    default:
+      field = leaf(((SourceIdentity)a).ident);
+      break;
+    }
+
+    ensure(28);
+    final int offset = buffer.position();
+    buffer.putInt(kind);
+    buffer.putInt(loc);
+    buffer.putInt(0);
+    buffer.putInt(f.refs[0]);
+    if (ANNOTATION_LINE_MARKER == kind) {
+      buffer.putInt(((LineMarker)a).line);
+      buffer.putInt(field);
+      buffer.putInt(((LineMarker)a).flags);
+    } else {
+      buffer.putInt(field);
+    }
+    return offset | TAG_ANNOTATION;
+  }
+
+  /**
+   * Flag the specified record as shared.
+   *
+   * @param ref The reference to the record.
+   * @return The reference.
+   */
+  protected int shared(int ref) {
+    final int offset   = ref & ~TAG_MASK;
+    final int position = (TAG_LIST == (ref & TAG_MASK)) ? offset : offset + 8;
+    buffer.putInt(position, buffer.getInt(position) | FLAG_SHARED);
+    return ref;
+  }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.tree;
+
+import xtc.util.Pair;
+
+/**
+ * Unit tests for the binary encoding of abstract syntax trees.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class NodeWriterTest extends junit.framework.TestCase {
+
+  /** The depth of deep trees. */
+  private static final int DEPTH = 100000;
+
+  /** Create a new test class. */
+  public NodeWriterTest() { /* Nothing to do. */ }
+
+  /**
+   * Encode and then decode the specified tree.
+   *
+   * @param root The root.
+   * @return The decoded root.
+   */
+  private static Object roundTrip(Object root) {
+    return new NodeReader(new NodeWriter().encode(root)).root();
+  }
+
+  /** Test a round trip for a tree with all kinds of values. */
+  public void testRoundTrip() {
+    final GNode var = GNode.create("Block");
+    var.add("a").add(null).add(GNode.create("Empty", false));
+
+    final Pair<Object> list =
+      new Pair<Object>("x", new Pair<Object>(GNode.create("Id", "y")));
+
+    final GNode root = GNode.create("Unit", var, list, "\u00e9t\u00e9", null);
+    root.setLocation(new Location("unit.c", 3, 7));
+    var.setLocation(new Location("unit.c", 4, 1));
+
+    final Object copy = roundTrip(root);
+    assertEquals(root, copy);
+
+    final GNode n = (GNode)copy;
+    assertFalse(n.hasVariable());
+    assertTrue(n.getGeneric(0).hasVariable());
+    assertEquals(new Location("unit.c", 3, 7), n.getLocation());
+    assertEquals(new Location("unit.c", 4, 1), n.getGeneric(0).getLocation());
+    assertFalse(n.getGeneric(0).getGeneric(2).hasLocation());
+    assertEquals(list, n.get(1));
+    assertTrue(Pair.empty() == roundTrip(Pair.empty()));
+    assertEquals("s", roundTrip("s"));
+    assertNull(roundTrip(null));
+  }
+
+  /** Test that shared subtrees remain shared. */
+  public void testSharing() {
+    final GNode        shared = GNode.create("Shared", "s");
+    final Pair<Object> list   = new Pair<Object>(shared);
+    final GNode        var    = GNode.create("Variable");
+    var.add(shared).add(list);
+
+    final GNode root = GNode.create("Root", shared, var, list, shared);
+    final GNode copy = (GNode)roundTrip(root);
+
+    assertEquals(root, copy);
+    assertSame(copy.get(0), copy.get(3));
+    assertSame(copy.get(0), copy.getGeneric(1).get(0));
+    assertSame(copy.get(2), copy.getGeneric(1).get(1));
+    assertSame(copy.get(0), ((Pair<?>)copy.get(2)).head());
+    assertNotSame(copy.get(0), roundTrip(shared));
+  }
+
+  /** Test that deep trees do not exhaust the stack. */
+  public void testDeepTrees() {
+    for (int variable=0; variable<2; variable++) {
+      Object root = "leaf";
+      for (int i=0; i<DEPTH; i++) {
+        if (0 == variable) {
+          root = GNode.create("Fixed", root);
+        } else if (0 == i % 2) {
+          root = GNode.create("Variable").add(root);
+        } else {
+          root = new Pair<Object>(root);
+        }
+      }
+
+      Object o     = roundTrip(root);
+      int    depth = 0;
+      while (! "leaf".equals(o)) {
+        o = (o instanceof Node) ? ((Node)o).get(0) : ((Pair<?>)o).head();
+        depth++;
+      }
+      assertEquals(DEPTH, depth);
+    }
+  }
+
+  /** Test a round trip for a tree with annotations. */
+  public void testAnnotations() {
+    final GNode      decl   = GNode.create("Declaration", "int", "x");
+    final LineMarker marker = new LineMarker(12, "stdio.h",
+                                             LineMarker.FLAG_SYSTEM_HEADER,
+                                             new Pragma("once", decl));
+    final Pragma     empty  = new Pragma("pack", null);
+    marker.setLocation(new Location("unit.c", 1, 0));
+
+    final GNode root = GNode.create("TranslationUnit", marker, empty,
+                                    new SourceIdentity("v1", decl));
+    final GNode copy = (GNode)roundTrip(root);
+
+    assertEquals(root, copy);
+    final LineMarker m = (LineMarker)copy.get(0);
+    assertEquals(LineMarker.FLAG_SYSTEM_HEADER, m.flags);
+    assertEquals(new Location("unit.c", 1, 0), m.getLocation());
+    assertNull(((Pragma)copy.get(1)).getNode());
+    assertSame(m.innerMost().getNode(),
+               ((SourceIdentity)copy.get(2)).getNode());
+
+    try {
+      new NodeWriter().encode(GNode.create("Root",
+                                           Comment.documentation("/** c */")));
+      fail("Encoded a comment");
+    } catch (IllegalArgumentException x) {
+      // Expected.
+    }
+  }
+
+  /** Test that nodes with properties are rejected. */
+  public void testProperties() {
+    final GNode n = GNode.create("Annotated", "a");
+    n.setProperty("type", "int");
+
+    try {
+      new NodeWriter().encode(GNode.create("Root", n));
+      fail("Encoded a node with properties");
+    } catch (IllegalArgumentException x) {
+      // Expected.
+    }
+
+    n.removeProperty("type");
+    assertEquals(n, ((GNode)roundTrip(GNode.create("Root", n))).get(0));
+  }
+
+}
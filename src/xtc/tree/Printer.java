@@ -18,6 +18,7 @@
  */
 package xtc.tree;
 
+import java.io.BufferedWriter;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -25,6 +26,7 @@ import java.io.Writer;
 
 import java.text.BreakIterator;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
@@ -43,11 +45,38 @@ import xtc.util.Utilities;
  * or string constant (e.g., by using '<code>\n</code>' or
  * '<code>\r</code>') but always by calling the appropriate method.
  *
+ * <p />Printers write whitespace for indentation and alignment in
+ * bulk and reuse the buffer for {@link #buffer() fitting} output
+ * onto lines.  For large outputs, a printer can also be {@link
+ * #Printer(Writer,int) created} with its own output buffer, which
+ * must be {@link #flush() flushed} before accessing the underlying
+ * writer.  Furthermore, a printer's {@link #layout(boolean) layout}
+ * can be disabled if the output need not fit onto lines, which
+ * avoids buffering all output between {@link #buffer()} and the
+ * corresponding <code>fit()</code>.
+ *
  * @author Robert Grimm
  * @version $Revision: 1.62 $
  */
 public class Printer extends Utility {
 
+  /** The default size of a printer's own output buffer. */
+  public static final int BUFFER_SIZE = 64 * 1024;
+
+  /** The blanks for writing whitespace in bulk. */
+  private static final String BLANKS;
+
+  /** The separator for {@link #sep()}. */
+  private static final String SEPARATOR;
+
+  static {
+    final char[] c = new char[2 * Constants.LINE_LENGTH];
+    Arrays.fill(c, ' ');
+    BLANKS = new String(c);
+    Arrays.fill(c, '=');
+    SEPARATOR = new String(c);
+  }
+
   /** The break iterator, if any. */
   protected BreakIterator breaks;
 
@@ -63,6 +92,15 @@ public class Printer extends Utility {
   /** The number of outstanding invocations to {@link #buffer()}. */
   protected int buffering = 0;
 
+  /** The reusable string writer for buffering output, if any. */
+  private StringWriter layoutBuffer = null;
+
+  /** The reusable print writer for buffering output, if any. */
+  private PrintWriter layoutOut = null;
+
+  /** The flag for whether output is laid out to fit onto lines. */
+  protected boolean layout = true;
+
   /** The current indentation level. */
   protected int indent = 0;
 
@@ -105,6 +143,21 @@ public class Printer extends Utility {
     directOut = out;
   }
 
+  /**
+   * Create a new printer with the specified writer and its own output
+   * buffer of the specified size.  The printer writes to the
+   * specified writer only when the buffer is full or when the printer
+   * is flushed or closed.
+   *
+   * @param out The writer.
+   * @param size The size of the output buffer.
+   * @throws IllegalArgumentException Signals that the size is not
+   *   positive.
+   */
+  public Printer(Writer out, int size) {
+    this(new PrintWriter(new BufferedWriter(out, size), false));
+  }
+
   // ========================================================================
 
   /**
@@ -165,6 +218,32 @@ public class Printer extends Utility {
     return this;
   }
 
+  /**
+   * Determine whether this printer lays out output to fit onto lines.
+   *
+   * @return <code>true</code> if this printer lays out output.
+   */
+  public boolean layout() {
+    return layout;
+  }
+
+  /**
+   * Enable or disable laying out output to fit onto lines.  If
+   * disabled, {@link #buffer()} and the corresponding
+   * <code>fit()</code> methods have no effect, i.e., all output is
+   * written directly, and {@link #align(int)} only prints a single
+   * space.  Disabling layout is appropriate for output not read by
+   * humans and changes the output.  It does not affect the tracking
+   * of columns and lines.
+   *
+   * @param layout The flag for laying out output.
+   * @return This printer.
+   */
+  public Printer layout(boolean layout) {
+    this.layout = layout;
+    return this;
+  }
+
   // ========================================================================
 
   /**
@@ -182,14 +261,22 @@ public class Printer extends Utility {
    * #reset()}, (3) the last invocation of {@link #unbuffer()}, or (4)
    * the last invocation of any methods printing a newline.
    *
+   * <p />If {@link #layout(boolean) layout} is disabled, this method
+   * has no effect.
+   *
    * @return This printer.
    */
   public Printer buffer() {
+    if (! layout) return this;
+
     if (0 == buffering) {
-      // Create a new string writer and make it the current print
-      // writer.
-      bufferedOut = new StringWriter();
-      out         = new PrintWriter(bufferedOut, false);
+      // Make the reusable string writer the current print writer.
+      if (null == layoutBuffer) {
+        layoutBuffer = new StringWriter();
+        layoutOut    = new PrintWriter(layoutBuffer, false);
+      }
+      bufferedOut = layoutBuffer;
+      out         = layoutOut;
     }
     buffering++;
 
@@ -208,8 +295,9 @@ public class Printer extends Utility {
       // Flush the current print writer.
       out.flush();
 
-      // Get the buffer contents.
+      // Get the buffer contents and clear the buffer for reuse.
       final String s = bufferedOut.toString();
+      bufferedOut.getBuffer().setLength(0);
 
       // Restore the writers and buffer count.
       out         = directOut;
@@ -395,14 +483,26 @@ public class Printer extends Utility {
    */
   public Printer align(int alignment) {
     int toPrint = alignment - column;
-    if (0 >= toPrint) toPrint = 1;
-    for (int i=0; i<toPrint; i++) {
-      out.write(' ');
-    }
+    if ((0 >= toPrint) || (! layout)) toPrint = 1;
+    blanks(toPrint);
     column += toPrint;
     return this;
   }
 
+  /**
+   * Write the specified number of spaces.  This method does not
+   * update the current column.
+   *
+   * @param n The number of spaces.
+   */
+  private void blanks(int n) {
+    while (n > BLANKS.length()) {
+      out.write(BLANKS, 0, BLANKS.length());
+      n -= BLANKS.length();
+    }
+    if (0 < n) out.write(BLANKS, 0, n);
+  }
+
   // ========================================================================
 
   /**
@@ -456,10 +556,7 @@ public class Printer extends Utility {
    * @return This printer.
    */
   public Printer indent() {
-    for (int i=0; i<indent; i++) {
-      out.print(' ');
-    }
-
+    blanks(indent);
     column += indent;
     return this;
   }
@@ -475,10 +572,7 @@ public class Printer extends Utility {
       w = 0;
     }
 
-    for (int i=0; i<w; i++) {
-      out.print(' ');
-    }
-
+    blanks(w);
     column += w;
     return this;
   }
@@ -491,10 +585,7 @@ public class Printer extends Utility {
   public Printer indentMore() {
     final int w = indent + Constants.INDENTATION;
 
-    for (int i=0; i<w; i++) {
-      out.print(' ');
-    }
-
+    blanks(w);
     column += w;
     return this;
   }
@@ -704,9 +795,7 @@ public class Printer extends Utility {
     indent().p("// ");
 
     final int n = Constants.LINE_LENGTH - indent - 3;
-    for (int i=0; i<n; i++) {
-      out.print('=');
-    }
+    if (0 < n) out.write(SEPARATOR, 0, Math.min(n, SEPARATOR.length()));
 
     out.println();
     column = Constants.FIRST_COLUMN;
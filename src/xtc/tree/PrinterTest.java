@@ -0,0 +1,193 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.tree;
+
+import java.io.StringWriter;
+
+import java.util.Random;
+
+/**
+ * Unit tests for printers.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class PrinterTest extends junit.framework.TestCase {
+
+  /** The number of random operations. */
+  private static final int OPERATIONS = 200000;
+
+  /** The words to print. */
+  private static final String[] WORDS = {
+    "foo", "x", "yyyyyyyyyyyyyyyyyyyy", "a b c", "", "longer_identifier_name"
+  };
+
+  /**
+   * The seeds, output lengths, output hash codes, final columns, and
+   * final lines for random operations.  The lengths and hash codes
+   * have been recorded with the printer before whitespace was written
+   * in bulk and the fit buffer was reused.
+   */
+  private static final long[][] EXPECTED = {
+    { 1, 1837324, -1341965133, 148, 14848 },
+    { 2, 1839298,  1900334391,   2, 14923 },
+    { 3, 1662591,  1873966637,  52, 14582 }
+  };
+
+  /** Create a new test class. */
+  public PrinterTest() { /* Nothing to do. */ }
+
+  /**
+   * Perform random operations on the specified printer.
+   *
+   * @param p The printer.
+   * @param seed The seed.
+   * @param all The flag for performing all operations, including
+   *   separators and line continuations, whose text depends on the
+   *   layout.
+   */
+  private static void run(Printer p, long seed, boolean all) {
+    final Random r = new Random(seed);
+
+    for (int i=0; i<OPERATIONS; i++) {
+      switch (r.nextInt(18)) {
+      case 0: case 1: case 2:
+        p.p(WORDS[r.nextInt(WORDS.length)]);
+        break;
+      case 3:
+        p.p('c');
+        break;
+      case 4:
+        p.indent();
+        break;
+      case 5:
+        if (p.level() < 30) p.incr();
+        break;
+      case 6:
+        if (p.level() > 0) p.decr();
+        break;
+      case 7:
+        p.buffer();
+        break;
+      case 8:
+        p.fit();
+        break;
+      case 9:
+        p.fit(r.nextInt(40));
+        break;
+      case 10:
+        if (all) p.fit("// ");
+        break;
+      case 11:
+        p.fitMore();
+        break;
+      case 12:
+        p.align(r.nextInt(100));
+        break;
+      case 13:
+        if (0 == r.nextInt(3)) {
+          p.pln();
+        } else {
+          p.pln(WORDS[r.nextInt(WORDS.length)]);
+        }
+        break;
+      case 14:
+        if ((0 == r.nextInt(20)) && all) p.sep();
+        break;
+      case 15:
+        p.unbuffer();
+        break;
+      case 16:
+        p.indentMore();
+        p.indentLess();
+        break;
+      case 17:
+        p.pad(r.nextInt(1000), 6);
+        break;
+      }
+    }
+    p.flush();
+  }
+
+  /**
+   * Remove all whitespace from the specified string.
+   *
+   * @param s The string.
+   * @return The string without whitespace.
+   */
+  private static String strip(String s) {
+    final StringBuilder buf = new StringBuilder(s.length());
+    for (int i=0; i<s.length(); i++) {
+      final char c = s.charAt(i);
+      if (! Character.isWhitespace(c)) buf.append(c);
+    }
+    return buf.toString();
+  }
+
+  /** Test that random operations produce the recorded output. */
+  public void testRandomOperations() {
+    for (long[] e : EXPECTED) {
+      final StringWriter out = new StringWriter();
+      final Printer      p   = new Printer(out);
+      run(p, e[0], true);
+
+      final String s = out.toString();
+      assertEquals("seed " + e[0], e[1], s.length());
+      assertEquals("seed " + e[0], e[2], s.hashCode());
+      assertEquals("seed " + e[0], e[3], p.column());
+      assertEquals("seed " + e[0], e[4], p.line());
+    }
+  }
+
+  /** Test that a printer with its own buffer produces the same output. */
+  public void testOutputBuffer() {
+    final StringWriter out = new StringWriter();
+    final Printer      p   = new Printer(out, 100);
+    p.p("x");
+    assertEquals("", out.toString());
+    p.flush();
+    assertEquals("x", out.toString());
+
+    for (long[] e : EXPECTED) {
+      final StringWriter out1 = new StringWriter();
+      run(new Printer(out1), e[0], true);
+
+      final StringWriter out2 = new StringWriter();
+      run(new Printer(out2, 100), e[0], true);
+      assertEquals("seed " + e[0], out1.toString(), out2.toString());
+    }
+  }
+
+  /** Test that disabling layout only changes whitespace. */
+  public void testNoLayout() {
+    for (long[] e : EXPECTED) {
+      final StringWriter out1 = new StringWriter();
+      run(new Printer(out1), e[0], false);
+
+      final StringWriter out2 = new StringWriter();
+      final Printer      p    = new Printer(out2).layout(false);
+      run(p, e[0], false);
+
+      assertFalse(p.layout());
+      assertEquals("seed " + e[0], strip(out1.toString()),
+                   strip(out2.toString()));
+    }
+  }
+
+}
@@ -51,11 +51,12 @@ public class Relocator extends Visitor {
    * @param n The node.
    */
   protected void relocate(Node n) {
-    if ((null == markedFile) || (null == n.location)) return;
+    if ((null == markedFile) || (! n.hasLocation())) return;
 
-    final int line = n.location.line - baseLine - 1 + markedLine;
-    if ((line != n.location.line) || (! n.location.file.equals(markedFile))) {
-      n.location = new Location(markedFile, line, n.location.column);
+    final Location loc  = n.getLocation();
+    final int      line = loc.line - baseLine - 1 + markedLine;
+    if ((line != loc.line) || (! loc.file.equals(markedFile))) {
+      n.setLocation(markedFile, line, loc.column);
     }
   }
 
@@ -82,13 +83,13 @@ public class Relocator extends Visitor {
 
   /** Process the specified line marker. */
   public Node visit(LineMarker m) {
-    if (null == m.location) {
+    if (! m.hasLocation()) {
       throw new IllegalArgumentException("Line marker without location");
     }
 
     markedFile = m.file;
     markedLine = m.line;
-    baseLine   = m.location.line;
+    baseLine   = m.getLocation().line;
 
     return (Node)dispatch(m.node);
   }
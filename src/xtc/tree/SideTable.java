@@ -0,0 +1,136 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.tree;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A side table for node properties.  A side table stores the values
+ * of a single property for many nodes outside the nodes themselves.
+ * It is meant to be owned by an analysis pass, which can simply drop
+ * the table when done, instead of {@link Node#setProperty(String,
+ * Object) setting} and later removing a property on each node.  Nodes
+ * are compared by identity, independent of their {@link
+ * Node#equals(Object) equality}, and the table's storage is a flat
+ * array without per-entry objects.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class SideTable<T> {
+
+  /** The map from nodes to values. */
+  protected final IdentityHashMap<Node, T> values;
+
+  /** Create a new side table. */
+  public SideTable() {
+    values = new IdentityHashMap<Node, T>();
+  }
+
+  /**
+   * Create a new side table.
+   *
+   * @param size The expected number of nodes.
+   */
+  public SideTable(int size) {
+    values = new IdentityHashMap<Node, T>(size);
+  }
+
+  /**
+   * Get the number of nodes with a value.
+   *
+   * @return The number of nodes.
+   */
+  public int size() {
+    return values.size();
+  }
+
+  /**
+   * Determine whether the specified node has a value.
+   *
+   * @param n The node.
+   * @return <code>true</code> if the node has a value.
+   */
+  public boolean has(Node n) {
+    return values.containsKey(n);
+  }
+
+  /**
+   * Get the specified node's value.
+   *
+   * @param n The node.
+   * @return The value or <code>null</code> if the node does not have
+   *   a value.
+   */
+  public T get(Node n) {
+    return values.get(n);
+  }
+
+  /**
+   * Set the specified node's value.
+   *
+   * @param n The node.
+   * @param value The new value.
+   * @return The old value or <code>null</code> if the node did not
+   *   have a value.
+   */
+  public T put(Node n, T value) {
+    return values.put(n, value);
+  }
+
+  /**
+   * Remove the specified node's value.
+   *
+   * @param n The node.
+   * @return The old value or <code>null</code> if the node did not
+   *   have a value.
+   */
+  public T remove(Node n) {
+    return values.remove(n);
+  }
+
+  /**
+   * Get the set of nodes with a value.
+   *
+   * @return The set of nodes.
+   */
+  public Set<Node> nodes() {
+    return values.keySet();
+  }
+
+  /**
+   * Copy the values of this side table into the specified property
+   * of the corresponding nodes.
+   *
+   * @param name The property name.
+   */
+  public void copyTo(String name) {
+    for (Map.Entry<Node, T> e : values.entrySet()) {
+      e.getKey().setProperty(name, e.getValue());
+    }
+  }
+
+  /** Clear this side table. */
+  public void clear() {
+    values.clear();
+  }
+
+}
@@ -20,9 +20,11 @@ package xtc.tree;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import xtc.util.Utilities;
 
@@ -38,6 +40,13 @@ import xtc.util.Utilities;
  * representing a pattern variable must have exactly one child that is
  * a string representing the variable's name.
  *
+ * <p />If {@link #setSharing(String) sharing} is enabled, the created
+ * methods use a {@link HashConsFactory} for all nodes besides the
+ * root that do not contain pattern variables, so that repeatedly
+ * created constant subtrees are shared.  Shared subtrees are
+ * immutable and thus cannot be annotated with locations or
+ * properties.
+ *
  * @author Robert Grimm
  * @version $Revision: 1.5 $
  */
@@ -52,6 +61,18 @@ public class Transducer extends Visitor {
   /** The temporary variable count. */
   protected int varcount;
 
+  /**
+   * The expression for the hash-consing factory or <code>null</code>
+   * if nodes are not shared.
+   */
+  protected String factory;
+
+  /** The root of the currently processed tree. */
+  protected Node root;
+
+  /** The temporary variables holding shared nodes. */
+  protected final Set<String> shared;
+
   /**
    * Create a new transducer.  The newly created transducer treats all
    * trees as literals, without pattern variables.
@@ -75,6 +96,17 @@ public class Transducer extends Visitor {
   public Transducer(Printer printer, Map<String, String> variables) {
     this.printer   = printer;
     this.variables = variables;
+    this.shared    = new HashSet<String>();
+  }
+
+  /**
+   * Set the hash-consing factory for sharing constant subtrees.
+   *
+   * @param factory The Java expression for the {@link
+   *   HashConsFactory} or <code>null</code> to not share nodes.
+   */
+  public void setSharing(String factory) {
+    this.factory = factory;
   }
 
   /**
@@ -208,6 +240,8 @@ public class Transducer extends Visitor {
 
     // Reset this visitor's state.
     varcount = 0;
+    root     = n;
+    shared.clear();
 
     // Declare the list of pattern holes and their types.
     final List<String> holes = new ArrayList<String>();
@@ -314,14 +348,35 @@ public class Transducer extends Visitor {
       }
     }
 
+    // Determine whether the node can be shared: It must not be the
+    // root and all its children must be literals or shared nodes.
+    boolean share = (null != factory) && (n != root) && (! hasList) &&
+      (GNode.MAX_FIXED >= size);
+    for (int i=0; share && (i<size); i++) {
+      final Object o = n.get(i);
+      if ((o instanceof Node) && (! Token.test(o))) {
+        share = shared.contains(vars.get(i));
+      }
+    }
+
     // Emit code for declaring and creating the node.
     String result = "v$" + (++varcount);
 
-    printer.indent().p("Node ").p(result).p(" = GNode.create(\"").
-      p(n.getName()).p("\"");
+    printer.indent().p("Node ").p(result).p(" = ");
+    if (share) {
+      shared.add(result);
+      printer.p(factory).p(".create(\"");
+    } else {
+      printer.p("GNode.create(\"");
+    }
+    printer.p(n.getName()).p("\"");
 
     // Emit the code for the node's children.
-    if (0 == size) {
+    if (share && (0 == size)) {
+      // A shared node with no children.
+      printer.pln(");");
+
+    } else if (0 == size) {
       // A node with no children.
       printer.pln(", false);");
 
@@ -18,11 +18,14 @@
  */
 package xtc.tree;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
 import java.lang.reflect.Method;
-import java.lang.reflect.InvocationTargetException;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import xtc.util.Pair;
 
@@ -51,80 +54,81 @@ import xtc.util.Pair;
  * dynamically test and cast lists of nodes through {@link
  * Node#isList(Object)} and {@link Node#toList(Object)} respectively.
  *
+ * <p />The <code>visit()</code> method selected for a node depends
+ * only on the visitor's class and the node's name (for generic nodes)
+ * or class (for all other nodes).  Each visitor class thus has its
+ * own dispatch table, which maps names and classes to method handles
+ * and is filled in on demand.  The tables are never evicted and may
+ * be shared by visitors running in different threads.
+ *
  * @author Robert Grimm
  * @version $Revision: 1.31 $
  */
 public abstract class Visitor {
 
-  /** Key for the method lookup cache. */
-  static final class CacheKey {
+  /** A visitor class's dispatch table. */
+  static final class DispatchTable {
 
-    /** The visitor. */
-    public Visitor visitor;
+    /** The visitor class. */
+    final Class<?> type;
 
-    /** The object identifying the node. */
-    public Object  node;
+    /**
+     * The map from node names and node classes to method handles.
+     * Each method handle has been adapted to take a visitor and a node
+     * as its arguments and to return an object.
+     */
+    final ConcurrentHashMap<Object, MethodHandle> handles;
 
     /**
-     * Create a new cache key.
+     * Create a new dispatch table.
      *
-     * @param visitor The visitor.
-     * @param node The object identifying the node.
+     * @param type The visitor class.
      */
-    public CacheKey(Visitor visitor, Object node) {
-      this.visitor = visitor;
-      this.node    = node;
-    }
-
-    public int hashCode() {
-      return (37 * visitor.hashCode()) + node.hashCode();
-    }
-
-    public boolean equals(Object o) {
-      if (! (o instanceof CacheKey)) return false;
-      CacheKey other = (CacheKey)o;
-      if (! visitor.equals(other.visitor)) return false;
-      return node.equals(other.node);
+    DispatchTable(Class<?> type) {
+      this.type    = type;
+      this.handles = new ConcurrentHashMap<Object, MethodHandle>();
     }
 
   }
 
   // ========================================================================
 
-  /** The size of the method lookup cache. */
-  private static final int CACHE_SIZE = 300;
-
-  /** The capacity of the method lookup cache. */
-  private static final int CACHE_CAPACITY = 400;
+  /** The uniform type of all method handles in the dispatch tables. */
+  private static final MethodType HANDLE_TYPE =
+    MethodType.methodType(Object.class, Visitor.class, Node.class);
 
-  /** The load factor of the method lookup cache. */
-  private static final float CACHE_LOAD = (float)0.75;
-
-  /** The method lookup cache. */
-  private static final LinkedHashMap<CacheKey, Method> cache;
+  /** The dispatch tables, one per visitor class. */
+  private static final ClassValue<DispatchTable> tables =
+    new ClassValue<DispatchTable>() {
+      protected DispatchTable computeValue(Class<?> type) {
+        return new DispatchTable(type);
+      }
+    };
 
-  /** The pre-allocated cache key for looking up methods. */
-  private static final CacheKey key;
+  /** The flag for counting dispatches. */
+  private static volatile boolean counting = false;
 
-  /** The pre-allocated array for passing the argument to invoke(). */
-  private static final Object[] arguments;
+  /** The number of dispatches since counting was enabled. */
+  private static final LongAdder dispatches = new LongAdder();
 
   /**
-   * The pre-allocated array for passing the type argument to
-   * getMethod().
+   * Enable or disable counting the dispatches of all visitors.
+   * Enabling counting resets the count.
+   *
+   * @param enable The flag for counting dispatches.
    */
-  private static final Class<?>[] types;
+  public static void countDispatches(boolean enable) {
+    if (enable) dispatches.reset();
+    counting = enable;
+  }
 
-  static {
-    cache     =
-      new LinkedHashMap<CacheKey, Method>(CACHE_CAPACITY, CACHE_LOAD, true) {
-        protected boolean removeEldestEntry(Map.Entry e) {
-          return size() > CACHE_SIZE;
-        }
-      };
-    key       = new CacheKey(null, null);
-    arguments = new Object[]   { null };
-    types     = new Class<?>[] { null };
+  /**
+   * Get the number of dispatches since counting was enabled.
+   *
+   * @return The number of dispatches.
+   */
+  public static long dispatchCount() {
+    return dispatches.sum();
   }
 
   // ========================================================================
@@ -185,81 +189,83 @@ public abstract class Visitor {
   public final Object dispatch(final Node n) {
     // Get the trivial case out of the way.
     if (null == n) return null;
-
-    // Check the method lookup cache.
-    Method method;
-    key.visitor = this;
-    if (n.isGeneric()) {
-      key.node = n.getName();
-    } else {
-      key.node = n.getClass();
+    if (counting) dispatches.increment();
+
+    // Check the visitor class's dispatch table.
+    final DispatchTable table = tables.get(getClass());
+    final Object        key   = n.isGeneric() ? n.getName() : n.getClass();
+    MethodHandle        handle = table.handles.get(key);
+
+    if (null == handle) {
+      // Determine the correct handle and add it to the table.  If
+      // another thread beats us to it, both handles are equivalent.
+      handle = findHandle(table.type, n);
+      table.handles.putIfAbsent(key, handle);
     }
-    method = cache.get(key);
-
-    if (null == method) {
-      // Determine the correct cache value and cache it.
-      method = findMethod(n);
-      cache.put(new CacheKey(this, key.node), method);
-    }
-
-    // Set up the argument.
-    arguments[0] = n;
 
     // Invoke the method.
     try {
-      return method.invoke(this, arguments);
-    } catch (IllegalAccessException x) {
-      throw new VisitorException("Unable to invoke " + method + " on " +
-                                 arguments[0]);
-    } catch (IllegalArgumentException x) {
-      throw new VisitorException("Internal error while visiting node " +
-                                 n + " with visitor " + this);
-    } catch (InvocationTargetException x) {
-      Throwable cause = x.getCause();
-
+      return (Object)handle.invokeExact(this, n);
+    } catch (VisitingException x) {
       // Rethrow visiting and visitor exceptions.
-      if (cause instanceof VisitingException) {
-        throw (VisitingException)cause;
-      } else if (cause instanceof VisitorException) {
-        throw (VisitorException)cause;
-      }
-
+      throw x;
+    } catch (VisitorException x) {
+      throw x;
+    } catch (Throwable x) {
       // Throw the appropriate visiting exception.
       throw new VisitingException("Error visiting node " + n + " with " +
-                                  "visitor " + this, cause);
-    } catch (NullPointerException x) {
-      throw new VisitorException("Internal error while visiting node " +
-                                 n + " with visitor " + this);
+                                  "visitor " + this, x);
+    }
+  }
+
+  /**
+   * Determine the method handle for visiting the specified node with
+   * the specified visitor class.
+   *
+   * @param visitorT The visitor class.
+   * @param n The node.
+   * @return The corresponding method handle.
+   * @throws VisitorException Signals that the method cannot be
+   *   accessed.
+   */
+  private static MethodHandle findHandle(Class<?> visitorT, final Node n) {
+    final Method method = findMethod(visitorT, n);
+
+    // Override access control, since visitors are frequently
+    // anonymous or private classes.
+    method.setAccessible(true);
+    try {
+      return MethodHandles.lookup().unreflect(method).asType(HANDLE_TYPE);
+    } catch (IllegalAccessException x) {
+      throw new VisitorException("Unable to invoke " + method + " on " + n);
     }
   }
 
   /**
-   * Determine the method for visiting the specified node with this
-   * visitor.
+   * Determine the method for visiting the specified node with the
+   * specified visitor class.
    *
+   * @param visitorT The visitor class.
    * @param n The node.
    * @return The corresponding method.
    */
-  private Method findMethod(final Node n) {
-    Class<?> visitorT = getClass();
-    Method   method   = null;
+  private static Method findMethod(Class<?> visitorT, final Node n) {
+    Method method = null;
 
     if (n.isGeneric()) {
       // Look for visit<n.getName()>(GNode).
-      types[0] = GNode.class;
       try {
-        method = visitorT.getMethod("visit" + n.getName(), types);
+        method = visitorT.getMethod("visit" + n.getName(), GNode.class);
       } catch (NoSuchMethodException x) {
 
         // Look for visit(GNode).
         try {
-          method = visitorT.getMethod("visit", types);
+          method = visitorT.getMethod("visit", GNode.class);
         } catch (NoSuchMethodException xx) {
 
           // Look for visit(Node).
-          types[0] = Node.class;
           try {
-            method = visitorT.getMethod("visit", types);
+            method = visitorT.getMethod("visit", Node.class);
           } catch (NoSuchMethodException xxx) {
             // Ignore.
           }
@@ -273,16 +279,13 @@ public abstract class Visitor {
 
     // Look for unableToVisit(Node).
     if (null == method) {
-      types[0] = Node.class;
       try {
-        method = visitorT.getMethod("unableToVisit", types);
+        method = visitorT.getMethod("unableToVisit", Node.class);
       } catch (NoSuchMethodException x) {
         throw new AssertionError("Unable to find unableToVisit(Node)");
       }
     }
 
-    // Override access control and return method.
-    method.setAccessible(true);
     return method;
   }
 
@@ -298,20 +301,18 @@ public abstract class Visitor {
    * @param paramT The parameter type.
    * @return The method or <code>null</code> if no such method exists.
    */
-  private static Method findMethod(Class<?> k, String name, Class paramT) {
+  private static Method findMethod(Class<?> k, String name, Class<?> paramT) {
     Method method = null;
 
     do {
-      types[0] = paramT;
       try {
-        method = k.getMethod(name, types);
+        method = k.getMethod(name, paramT);
       } catch (NoSuchMethodException x) {
         // Try the interfaces implemented by paramT.
         Class<?>[] interfaces = paramT.getInterfaces();
         for (int i=0; i<interfaces.length; i++) {
-          types[0] = interfaces[i];
           try {
-            method = k.getMethod(name, types);
+            method = k.getMethod(name, interfaces[i]);
             break;
           } catch (NoSuchMethodException xx) {
             // Ignore.
@@ -344,7 +344,7 @@ public abstract class Type extends Node {
     if (sealed) {
       return Collections.unmodifiableSet(super.properties());
     } else {
-      return properties();
+      return super.properties();
     }
   }
 
@@ -19,10 +19,14 @@
 package xtc.typical;
 
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import xtc.tree.Node;
+import xtc.tree.SideTable;
  
+import xtc.util.Environment;
+import xtc.util.PersistentSymbolTable;
 import xtc.util.Runtime;
+import xtc.util.SymbolKey;
 import xtc.util.SymbolTable;
 import xtc.util.Pair;
 import xtc.util.Function;
@@ -39,7 +43,7 @@ public abstract class Analyzer {
   protected final Runtime runtime;
   
   /** The symbol table. */
-  protected final SymbolTable gamma;
+  protected final Environment gamma;
 
   /** The property to check if enter a scope. */
   protected final String ENTERSCOPE = "enterScope" ;
@@ -47,14 +51,30 @@ public abstract class Analyzer {
   /** The property of check if exit a scope. */
   protected final String EXITSCOPE = "exitScope";
 
+  /** The property to check if delete a temporary scope. */
+  protected final String DELETESCOPE = "deleteScope";
+
+  /**
+   * The side table for the scopes entered at nodes or
+   * <code>null</code> if scopes are stored as node properties.
+   */
+  protected SideTable<String> enterScopes;
+
+  /**
+   * The side table for the temporary scopes deleted at nodes or
+   * <code>null</code> if scopes are stored as node properties.
+   */
+  protected SideTable<String> deleteScopes;
+
   /** 
-   * The property to store the times of not entering a new scope because
+   * The map from nodes to the times of not entering a new scope because
    *   the new scope is also the current scope.
    */
-  protected final String MAGICNUMBER = "magicNumber"; 
+  protected final IdentityHashMap<Node, Integer> reentries =
+    new IdentityHashMap<Node, Integer>(); 
   
-  /** The hash table */ 
-  protected Hashtable<Object, Object> hashTable;
+  /** The store for type variables. */ 
+  protected UnionFind hashTable;
     
   /** The analyzer. */
   protected Function.F1<?, Node> analyzer;
@@ -91,7 +111,7 @@ public abstract class Analyzer {
     new Function.F3<Void,String,String,Object>() {
       public Void apply(String s, String ns, Object t) {
         if (null == s || null == ns) return null;
-        gamma.current().define(SymbolTable.toNameSpace(s, ns), t);
+        gamma.define(SymbolTable.toNameSpace(s, ns), t);
         return null;
       }  
     };  
@@ -127,7 +147,7 @@ public abstract class Analyzer {
                                (null == n ? "Null" : n.getName());
         checkEnterScope(n);
 
-        final Object res = gamma.lookup(tup.get1().mangle(tup.get2()));
+        final Object res = lookupName(tup.get1(), tup.get2());
         if (null == res) showMessage("error",  "Undefined: " + 
                                      tup.get1().mangle(tup.get2()), n); 
         checkExitScope(n);
@@ -145,7 +165,7 @@ public abstract class Analyzer {
         assert (null != tup) : "Unable to map namespace for node " + 
                                (null == n ? "Null" : n.getName());        
         checkEnterScope(n);
-        final Object res = gamma.lookup(tup.get1().mangle(tup.get2()));
+        final Object res = lookupName(tup.get1(), tup.get2());
         if (null == res) showMessage(tag, err, n);
         checkExitScope(n);
         return res;
@@ -161,7 +181,7 @@ public abstract class Analyzer {
                                (null == n ? "Null" : n.getName());
 
         checkEnterScope(n);
-        final Object res = gamma.lookup(tup.get1().mangle(tup.get2()));
+        final Object res = lookupName(tup.get1(), tup.get2());
         if (null == res) showMessage("error", "Undefined in the current scope: " 
                                      + tup.get1().mangle(tup.get2()), n);
         checkExitScope(n);
@@ -180,7 +200,7 @@ public abstract class Analyzer {
                                (null == n ? "Null" : n.getName()); 
        
         checkEnterScope(n);
-        final Object res = gamma.lookup(tup.get1().mangle(tup.get2()));
+        final Object res = lookupName(tup.get1(), tup.get2());
         if (null == res) showMessage(tag,err,n);
         checkExitScope(n);
         return res;
@@ -197,7 +217,7 @@ public abstract class Analyzer {
         assert (null != tup) : "define : no namespace for " + 
                                (null == n ? "Null" : n.getName());      
         checkEnterScope(n);
-        gamma.current().define(tup.get1().mangle(tup.get2()), t);
+        defineName(tup.get1(), tup.get2(), t);
         checkExitScope(n);
         return null;
       }     
@@ -216,11 +236,10 @@ public abstract class Analyzer {
                                (null == n ? "Null" : n.getName());  
     
         checkEnterScope(n);
-        final String newName = tup.get1().mangle(tup.get2());
-        if (gamma.current().isDefined(newName)) {
+        if (isNameRedefined(tup.get1(), tup.get2())) {
           showMessage(tag,err,n);          
         }
-        gamma.current().define(newName, t);
+        defineName(tup.get1(), tup.get2(), t);
         checkExitScope(n);
         return null;
       }
@@ -237,8 +256,7 @@ public abstract class Analyzer {
                                (null == n ? "Null" : n.getName());  
           
         checkEnterScope(n);
-        String newName = tup.get1().mangle(tup.get2());
-        gamma.current().define(newName, t);
+        defineName(tup.get1(), tup.get2(), t);
         checkExitScope(n);
         return null;        
       }   
@@ -253,7 +271,7 @@ public abstract class Analyzer {
         assert (null != tup) : "is_define : no namespace for " + 
                                (null == n ? "Null" : n.getName());
         checkEnterScope(n);
-        final boolean res = gamma.isDefined(tup.get1().mangle(tup.get2()));          
+        final boolean res = isNameDefined(tup.get1(), tup.get2());          
         checkExitScope(n);
         return res;
       }       
@@ -269,7 +287,7 @@ public abstract class Analyzer {
                                (null == n ? "Null" : n.getName());
         
         checkEnterScope(n);
-        boolean res = gamma.current().isDefinedLocally(tup.get1().mangle(tup.get2()));
+        boolean res = isNameDefinedLocally(tup.get1(), tup.get2());
         checkExitScope(n);
         return res;
       }    
@@ -280,10 +298,10 @@ public abstract class Analyzer {
     new Function.F1<Boolean, String>() {
       public Boolean apply(String s) {
         if ("local".equals(s)) {
-          gamma.current().dump(runtime.console());
+          gamma.dump(runtime.console(), false);
           runtime.console().flush();        
         } else if ("all".equals(s)) {
-          gamma.root().dump(runtime.console());
+          gamma.dump(runtime.console(), true);
           runtime.console().flush();        
         } else {
           runtime.error("local or all required to use show_symbol function");  
@@ -313,36 +331,185 @@ public abstract class Analyzer {
     }; 
 
   /**
-   * Create a new TypeChecker base.
+   * Create a new TypeChecker base.  The type checker uses a mutable
+   * {@link SymbolTable}.
    *
    * @param runt The runtime.
    */
   public Analyzer(Runtime runt) {
+    this(runt, new SymbolTable());
+  }
+
+  /**
+   * Create a new TypeChecker base with the specified symbol table.
+   * Type checkers opt into a {@link PersistentSymbolTable} through
+   * this constructor.
+   *
+   * @param runt The runtime.
+   * @param gamma The symbol table.
+   */
+  protected Analyzer(Runtime runt, Environment gamma) {
     runtime = runt;
-    gamma = new SymbolTable();
-    hashTable = new Hashtable<Object, Object>();
+    this.gamma = gamma;
+    hashTable = new UnionFind();
     getScopeNodes();    
   }
 
+  /**
+   * Set the recognizer for type variables.
+   *
+   * @param variables The variable recognizer.
+   * @see UnionFind#setVariables(Function.F1)
+   */
+  public void setTypeVariables(Function.F1<Object, Object> variables) {
+    hashTable.setVariables(variables);
+  }
+
+  /**
+   * Set whether to store scopes in side tables.  By default, this
+   * analyzer records the scopes to enter, exit, and delete as node
+   * properties, which later passes such as Typical's {@link
+   * Transformer} may depend on.  With side tables, the scopes are
+   * stored in identity-keyed tables owned by this analyzer instead,
+   * which are dropped together with the analyzer.  This method must
+   * be called before running the analyzer.
+   *
+   * @param sideTables The flag for using side tables.
+   */
+  public void setSideTables(boolean sideTables) {
+    if (sideTables) {
+      enterScopes  = new SideTable<String>();
+      deleteScopes = new SideTable<String>();
+    } else {
+      enterScopes  = null;
+      deleteScopes = null;
+    }
+  }
+
+  /**
+   * Get the scope entered at the specified node.
+   *
+   * @param n The node.
+   * @return The scope's name or <code>null</code> if the node does
+   *   not enter a scope.
+   */
+  protected String getEnterScope(Node n) {
+    return (null == enterScopes) ?
+      (String)n.getProperty(ENTERSCOPE) : enterScopes.get(n);
+  }
+
+  /**
+   * Determine whether the specified node exits a scope.
+   *
+   * @param n The node.
+   * @return <code>true</code> if the node exits a scope.
+   */
+  protected boolean hasExitScope(Node n) {
+    return (null == enterScopes) ?
+      n.hasProperty(EXITSCOPE) : enterScopes.has(n);
+  }
+
+  /**
+   * Get the temporary scope deleted at the specified node.
+   *
+   * @param n The node.
+   * @return The scope's name or <code>null</code> if the node does
+   *   not delete a scope.
+   */
+  protected String getDeleteScope(Node n) {
+    return (null == deleteScopes) ?
+      (String)n.getProperty(DELETESCOPE) : deleteScopes.get(n);
+  }
+
+  /**
+   * Look up the specified name in the specified namespace.
+   *
+   * @param name The name.
+   * @param ns The namespace.
+   * @return The value or <code>null</code> if the name is undefined.
+   */
+  protected Object lookupName(Name<?> name, String ns) {
+    final SymbolKey key = name.key(ns);
+    return null == key ? gamma.lookup(name.mangle(ns)) : gamma.lookup(key);
+  }
+
+  /**
+   * Determine whether the specified name is defined in the specified
+   * namespace.
+   *
+   * @param name The name.
+   * @param ns The namespace.
+   * @return <code>true</code> if the name is defined.
+   */
+  protected boolean isNameDefined(Name<?> name, String ns) {
+    final SymbolKey key = name.key(ns);
+    return null == key ?
+      gamma.isDefined(name.mangle(ns)) : gamma.isDefined(key);
+  }
+
+  /**
+   * Determine whether defining the specified name in the specified
+   * namespace redefines it.  Unlike {@link #isNameDefined(Name,String)},
+   * this method does not resolve qualified names to the named scope.
+   * Rather, it checks the current scope and its ancestors for the
+   * mangled name, since {@link #defineName(Name,String,Object)} defines
+   * qualified names under their mangled name in the current scope.
+   *
+   * @param name The name.
+   * @param ns The namespace.
+   * @return <code>true</code> if the name is defined.
+   */
+  protected boolean isNameRedefined(Name<?> name, String ns) {
+    final SymbolKey key = name.key(ns);
+    return gamma.isDefined(null == key ? SymbolKey.of(name.mangle(ns)) : key);
+  }
+
+  /**
+   * Determine whether the specified name is defined in the specified
+   * namespace of the current scope.
+   *
+   * @param name The name.
+   * @param ns The namespace.
+   * @return <code>true</code> if the name is defined locally.
+   */
+  protected boolean isNameDefinedLocally(Name<?> name, String ns) {
+    final SymbolKey key = name.key(ns);
+    return null == key ?
+      gamma.isDefinedLocally(name.mangle(ns)) : gamma.isDefinedLocally(key);
+  }
+
+  /**
+   * Define the specified name in the specified namespace of the
+   * current scope.
+   *
+   * @param name The name.
+   * @param ns The namespace.
+   * @param value The value.
+   */
+  protected void defineName(Name<?> name, String ns, Object value) {
+    final SymbolKey key = name.key(ns);
+    if (null == key) {
+      gamma.define(name.mangle(ns), value);
+    } else {
+      gamma.define(key, value);
+    }
+  }
+
   /**
    * Check a node and enter a scope.
    *
    * @param n The node to check.
    */
   protected void checkEnterScope(Node n) {   
-    if (null != n && n.hasProperty(ENTERSCOPE)) {
-      final String scopeName = (String)n.getProperty(ENTERSCOPE);
-      if (!scopeName.equals(gamma.current().getName())){
+    final String scopeName = (null == n) ? null : getEnterScope(n);
+    if (null != scopeName) {
+      if (!scopeName.equals(gamma.currentName())){
         gamma.enter(scopeName);      
       } else {
-        // magicNumber is the number of times not entering a new scope
+        // The reentries are the number of times not entering a new scope
         //   at this node because the new scope is the current scope
-        if (!n.hasProperty(MAGICNUMBER)) {
-          n.setProperty(MAGICNUMBER, 1);
-        } else {
-          final Integer num = (Integer)n.getProperty(MAGICNUMBER);
-          n.setProperty(MAGICNUMBER, num + 1);
-        }
+        final Integer num = reentries.get(n);
+        reentries.put(n, null == num ? 1 : num + 1);
       }
     }
     
@@ -354,17 +521,14 @@ public abstract class Analyzer {
    * @param n The node to check.
    */
   protected void checkExitScope(Node n){
-    if (null != n && n.hasProperty(EXITSCOPE)) {
-      if (!n.hasProperty(MAGICNUMBER)) gamma.exit();
-      else {
-        final Integer num = (Integer)n.getProperty(MAGICNUMBER);
-        if (1 == num) n.removeProperty(MAGICNUMBER);
-        else n.setProperty(MAGICNUMBER, num - 1);
-      }
-    }
-    if (null != n && n.hasProperty("deleteScope")) {
-      gamma.delete((String)n.getProperty("deleteScope"));
+    if (null != n && hasExitScope(n)) {
+      final Integer num = reentries.get(n);
+      if (null == num) gamma.exit();
+      else if (1 == num) reentries.remove(n);
+      else reentries.put(n, num - 1);
     }
+    final String deleted = (null == n) ? null : getDeleteScope(n);
+    if (null != deleted) gamma.delete(deleted);
   }
   
   /**
@@ -477,15 +641,23 @@ public abstract class Analyzer {
       if ( node == null) {
         continue;
       }
-      if (!node.hasProperty(ENTERSCOPE)) {
-        node.setProperty(ENTERSCOPE,str);
-        node.setProperty(EXITSCOPE,true);
+      if (null == getEnterScope(node)) {
+        if (null == enterScopes) {
+          node.setProperty(ENTERSCOPE,str);
+          node.setProperty(EXITSCOPE,true);
+        } else {
+          enterScopes.put(node, str);
+        }
         prob = index;
       }
     }
     if ((prob!=-1) && (scopename.isTemporary())) {
       Node node = nodeList.get(prob);
-      node.setProperty("deleteScope",str);
+      if (null == deleteScopes) {
+        node.setProperty(DELETESCOPE,str);
+      } else {
+        deleteScopes.put(node, str);
+      }
     }
   }
   
@@ -511,7 +683,11 @@ public abstract class Analyzer {
     matching_nodes.add(n);
     analyzer.apply(n);
 
-    return gamma;
+    if (gamma instanceof PersistentSymbolTable) {
+      return ((PersistentSymbolTable)gamma).toSymbolTable();
+    } else {
+      return (SymbolTable)gamma;
+    }
   }  
 
   /**
@@ -0,0 +1,202 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.typical;
+
+import java.io.StringWriter;
+
+import xtc.tree.GNode;
+import xtc.tree.Node;
+import xtc.tree.Printer;
+
+import xtc.util.Environment;
+import xtc.util.Function;
+import xtc.util.Pair;
+import xtc.util.PersistentSymbolTable;
+import xtc.util.Runtime;
+import xtc.util.SymbolTable;
+
+/**
+ * Unit tests for the symbol table functions of Typical analyzers.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class AnalyzerTest extends junit.framework.TestCase {
+
+  /** An analyzer with the specified symbol table. */
+  static final class Checker extends Analyzer {
+
+    /**
+     * Create a new checker.
+     *
+     * @param gamma The symbol table.
+     */
+    Checker(Environment gamma) {
+      super(newRuntime(), gamma);
+    }
+
+    protected void getScopeNodes() { /* Nothing to do. */ }
+
+    /**
+     * Define the specified name with an error message for
+     * redefinitions.
+     *
+     * @param name The name.
+     * @return The number of errors so far.
+     */
+    int define(final Name<?> name) {
+      define5.apply(GNode.create("Name"), Boolean.TRUE, "error",
+                    "redefined", new Function.F1<Object, Node>() {
+          public Object apply(Node n) {
+            return new Tuple.T3<Name<?>, String, String>(name, "value",
+                                                           "type");
+          }
+        });
+      return runtime.errorCount();
+    }
+
+  }
+
+  /** Create a new test class. */
+  public AnalyzerTest() { /* Nothing to do. */ }
+
+  /**
+   * Create a new runtime that discards error messages.
+   *
+   * @return The runtime.
+   */
+  static Runtime newRuntime() {
+    final Runtime runtime = new Runtime();
+    runtime.setErrConsole(new Printer(new StringWriter()));
+    return runtime;
+  }
+
+  /**
+   * Create a qualified name.
+   *
+   * @param qualifier The qualifier.
+   * @param name The unqualified name.
+   * @return The name.
+   */
+  static Name<?> qualified(String qualifier, String name) {
+    return new Name.QualifiedName(new Pair<String>(qualifier,
+                                                   new Pair<String>(name)));
+  }
+
+  /**
+   * Create a generated getScope function.
+   *
+   * @param kind The scope kind.
+   * @param n The node entering the scope.
+   * @return The function.
+   */
+  static Function.F1<Object, Node> getScope(ScopeKind<?> kind, Node n) {
+    final Scope scope = new Scope(kind, new Pair<Node>(n));
+    return new Function.F1<Object, Node>() {
+      public Object apply(Node node) {
+        return scope;
+      }
+    };
+  }
+
+  /**
+   * Check entering, exiting, and deleting scopes.
+   *
+   * @param sideTables The flag for storing scopes in side tables.
+   */
+  static void checkScopes(boolean sideTables) {
+    final Checker checker = new Checker(new SymbolTable());
+    checker.setSideTables(sideTables);
+
+    final Node fun = GNode.create("FunExpression");
+    final Node let = GNode.create("LetExpression");
+    checker.processScope(fun,
+      getScope(new ScopeKind.Named(new Name.SimpleName("f")), fun));
+    checker.processScope(let,
+      getScope(new ScopeKind.Temporary("let"), let));
+    assertEquals(! sideTables, fun.hasProperties());
+    assertEquals(! sideTables, let.hasProperties());
+
+    checker.checkEnterScope(fun);
+    assertEquals("f", checker.gamma.currentName());
+    checker.checkEnterScope(let);
+    final String temporary = checker.gamma.currentName();
+    assertFalse("f".equals(temporary));
+    assertEquals(0, checker.define(new Name.SimpleName("x")));
+    assertTrue(checker.isNameDefinedLocally(new Name.SimpleName("x"),
+                                            "value"));
+
+    // Exiting the temporary scope also deletes it.
+    checker.checkExitScope(let);
+    assertEquals("f", checker.gamma.currentName());
+    checker.gamma.enter(temporary);
+    assertFalse(checker.isNameDefinedLocally(new Name.SimpleName("x"),
+                                             "value"));
+    checker.gamma.exit();
+
+    checker.checkExitScope(fun);
+    assertFalse("f".equals(checker.gamma.currentName()));
+  }
+
+  /** Test scopes stored as node properties. */
+  public void testScopeProperties() {
+    checkScopes(false);
+  }
+
+  /** Test scopes stored in side tables. */
+  public void testScopeSideTables() {
+    checkScopes(true);
+  }
+
+  /**
+   * Check redefinitions with the specified symbol table.
+   *
+   * @param gamma The symbol table.
+   */
+  static void checkRedefinitions(Environment gamma) {
+    final Checker checker = new Checker(gamma);
+
+    // Simple names are redefined in the current scope or an ancestor.
+    assertEquals(0, checker.define(new Name.SimpleName("x")));
+    gamma.enter("inner");
+    assertEquals(1, checker.define(new Name.SimpleName("x")));
+
+    // Qualified names are redefined under their mangled name in the
+    // current scope or an ancestor, not in the named scope.
+    gamma.exit();
+    gamma.enter("M");
+    assertEquals(1, checker.define(new Name.SimpleName("y")));
+    gamma.exit();
+    gamma.enter("other");
+    assertEquals(1, checker.define(qualified("M", "y")));
+    gamma.enter("inner");
+    assertEquals(2, checker.define(qualified("M", "y")));
+  }
+
+  /** Test redefinitions with a mutable symbol table. */
+  public void testRedefinitions() {
+    checkRedefinitions(new SymbolTable());
+  }
+
+  /** Test redefinitions with a persistent symbol table. */
+  public void testPersistentRedefinitions() {
+    checkRedefinitions(new PersistentSymbolTable());
+  }
+
+}
@@ -21,6 +21,7 @@ package xtc.typical;
 import java.util.Iterator;
 
 import xtc.util.Pair;
+import xtc.util.SymbolKey;
 import xtc.util.SymbolTable;
 
 /**
@@ -74,9 +75,23 @@ public abstract class Name<T extends Tuple> extends Variant<T> {
    */
   public abstract String mangle(String ns);
 
+  /**
+   * Convert the name into a key suitable for symbol table access.
+   *
+   * @param ns The namespace.
+   * @return The key or <code>null</code> if this name cannot be
+   *   represented as a key.
+   */
+  public SymbolKey key(String ns) {
+    return null;
+  }
+
   /** The simple namespace name. */
   public static class SimpleName extends Name<Tuple.T1<String>> {
 
+    /** The key for the most recently used namespace. */
+    private SymbolKey key;
+
     /**
      * Create a new simple name.
      * 
@@ -103,8 +118,16 @@ public abstract class Name<T extends Tuple> extends Variant<T> {
     }
 
     public String mangle(String ns) {
-      if ("default".equals(ns)) return tuple.get1();
-      else return SymbolTable.toNameSpace(tuple.get1(), ns);
+      return key(ns).symbol();
+    }
+
+    public SymbolKey key(String ns) {
+      final SymbolKey.Space space = "default".equals(ns) ?
+        SymbolKey.DEFAULT : SymbolKey.space(ns);
+      if ((null == key) || (space != key.getSpace())) {
+        key = space.key(tuple.get1());
+      }
+      return key;
     }
 
   }
@@ -19,7 +19,6 @@
 package xtc.typical;
 
 import java.math.BigInteger;
-import java.util.Hashtable;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.HashMap;
@@ -46,6 +45,22 @@ public class Primitives {
   private static final BigInteger INT_MAX =
     BigInteger.valueOf(Integer.MAX_VALUE);
 
+  /** The smallest cached big integer value. */
+  private static final int CACHE_LOW = -128;
+
+  /** The largest cached big integer value plus one. */
+  private static final int CACHE_HIGH = 1024;
+
+  /** The cached big integers. */
+  private static final BigInteger[] CACHE =
+    new BigInteger[CACHE_HIGH - CACHE_LOW];
+
+  static {
+    for (int i=0; i<CACHE.length; i++) {
+      CACHE[i] = BigInteger.valueOf(i + CACHE_LOW);
+    }
+  }
+
   private Primitives() { /* Nothing to do. */ }
 
   // =========================================================================
@@ -67,6 +82,36 @@ public class Primitives {
     return val.intValue();
   }
 
+  /**
+   * Get the big integer for the specified long value.  Small values,
+   * such as typical list lengths and counters, are cached.
+   *
+   * @param val The long value.
+   * @return The corresponding big integer.
+   */
+  public static final BigInteger valueOf(long val) {
+    return (CACHE_LOW <= val) && (val < CACHE_HIGH) ?
+      CACHE[(int)val - CACHE_LOW] : BigInteger.valueOf(val);
+  }
+
+  /**
+   * Determine whether the specified big integer's value is in the
+   * cached range.  Adding or subtracting {@link BigInteger#ONE}, which
+   * is also the result of <code>BigInteger.valueOf(1)</code> in
+   * generated code, to or from such a value uses int arithmetic and
+   * returns a cached big integer, so that counters do not allocate.
+   * Other operations always use big integer arithmetic, since any
+   * test for small values measurably slows down operations on large
+   * values.
+   *
+   * @param val The big integer.
+   * @return <code>true</code> if the value is in the cached range.
+   */
+  private static boolean isCached(BigInteger val) {
+    final int index = val.intValue() - CACHE_LOW;
+    return (0 <= index) && (index < CACHE.length) && CACHE[index].equals(val);
+  }
+
   /**
    * Trace the specified object.
    *
@@ -338,7 +383,11 @@ public class Primitives {
   public static final Function.F2<BigInteger,BigInteger,BigInteger> addInt =
     new Function.F2<BigInteger,BigInteger,BigInteger>() {
     public BigInteger apply(BigInteger val1, BigInteger val2) {
-      return (null == val1) || (null == val2) ? null : val1.add(val2);
+      if ((null == val1) || (null == val2)) return null;
+      if ((BigInteger.ONE == val2) && isCached(val1)) {
+        return valueOf(val1.intValue() + 1);
+      }
+      return val1.add(val2);
     }
   };
 
@@ -368,7 +417,11 @@ public class Primitives {
   public static final Function.F2<BigInteger,BigInteger,BigInteger> subtractInt=
     new Function.F2<BigInteger,BigInteger,BigInteger>() {
     public BigInteger apply(BigInteger val1, BigInteger val2) {
-      return (null == val1) || (null == val2) ? null : val1.subtract(val2);
+      if ((null == val1) || (null == val2)) return null;
+      if ((BigInteger.ONE == val2) && isCached(val1)) {
+        return valueOf(val1.intValue() - 1);
+      }
+      return val1.subtract(val2);
     }
   };
 
@@ -670,7 +723,7 @@ public class Primitives {
   public static final Function.F1<BigInteger,Pair<?>> length =
     new Function.F1<BigInteger,Pair<?>>() {
     public BigInteger apply(Pair<?> list) {
-      return null == list ? null : BigInteger.valueOf(list.size());
+      return null == list ? null : valueOf(list.size());
     }
   };
 
@@ -976,7 +1029,7 @@ public class Primitives {
   public static final Function.F1<BigInteger,String> ssize =
     new Function.F1<BigInteger,String>() {
     public BigInteger apply(String s) {
-      return null == s ? null : BigInteger.valueOf(s.length());
+      return null == s ? null : valueOf(s.length());
     }
   };
 
@@ -1225,21 +1278,18 @@ public class Primitives {
   // =========================================================================
   //                            Map operations
   // =========================================================================
-  /** A get function to access the hash table. */ 
-  public static final Function.F2<Object, Object, Hashtable<Object, Object>> 
-    get = new Function.F2<Object, Object, Hashtable<Object, Object>>() {
-      public final Object apply(Object o, 
-                                Hashtable<Object, Object> hashTable) {
+  /** A get function to access the type variable store. */ 
+  public static final Function.F2<Object, Object, UnionFind> 
+    get = new Function.F2<Object, Object, UnionFind>() {
+      public final Object apply(Object o, UnionFind hashTable) {
         return null == o ? null : hashTable.get(o);
       }
     };
 
-  /** A put function to access the hash table. */
-  public static final Function.F3<Void, Object, Object, 
-                              Hashtable<Object, Object>> put =
-    new Function.F3<Void, Object, Object, Hashtable<Object, Object>>() {
-      public final Void apply(Object o, Object ob, 
-                              Hashtable<Object, Object> hashTable) {
+  /** A put function to access the type variable store. */
+  public static final Function.F3<Void, Object, Object, UnionFind> put =
+    new Function.F3<Void, Object, Object, UnionFind>() {
+      public final Void apply(Object o, Object ob, UnionFind hashTable) {
         if (null == o || null == ob) return null;
         hashTable.put(o,ob);
         return null;
@@ -21,6 +21,8 @@ package xtc.typical;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 import xtc.tree.Comment;
@@ -2110,7 +2112,12 @@ public class Transformer extends Visitor {
         
         if (tcmatch) pmatch2.setProperty("TCMatch", null);
         
-        nodes.add((Node)dispatch(pmatch2));
+        Node res = (Node)dispatch(pmatch2);
+        if (! tcmatch) {
+          String name = getMatchedName(patterns.getGeneric(j));
+          if (null != name) res.setProperty("NName", name);
+        }
+        nodes.add(res);
         
         exitScope(foo);
       }      
@@ -2167,11 +2174,94 @@ public class Transformer extends Visitor {
       
       if (tcmatch) {
         return nodes2;
+      } else {
+        return makeNameSwitches(nodes, (String)n.getProperty(MATCHARG));
       }
     }
     
     return nodes;
   }
+
+  /**
+   * Get the name of the nodes matched by the specified pattern.
+   *
+   * @param pattern The pattern.
+   * @return The name or <code>null</code> if the pattern may match
+   *   nodes with different names or no nodes at all.
+   */
+  private String getMatchedName(Node pattern) {
+    while (pattern.hasName("WhenPattern") || pattern.hasName("AsPattern") ||
+           pattern.hasName("TypedPattern")) {
+      pattern = pattern.getGeneric(0);
+    }
+    if (! pattern.hasName("TypeConstructorPattern") ||
+        pattern.hasProperty("ancestor")) {
+      return null;
+    }
+
+    final Node typeNode = mapper.toTypeNode(pattern.getProperty(TYPE), false);
+    if (nodeType.equals(typeNode) || gnodeType.equals(typeNode)) {
+      return pattern.getString(0);
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * Turn the specified matches on a node into a decision tree.  Each
+   * maximal run of matches on names is replaced by a switch statement
+   * on the hash code of the node's name, with the matches for each
+   * name in their original order.  Since matches on different names
+   * are mutually exclusive, the result matches the same cases as the
+   * linear sequence of matches, but only performs the tests for the
+   * node's name.
+   *
+   * @param matches The matches in order.
+   * @param matchArg The name of the match argument.
+   * @return The matches with switch statements.
+   */
+  private List<Node> makeNameSwitches(List<Node> matches, String matchArg) {
+    List<Node> result = new ArrayList<Node>();
+    Map<Integer, List<Node>> bins = new LinkedHashMap<Integer, List<Node>>();
+    int count = 0;
+
+    for (int i = 0; i <= matches.size(); i++) {
+      Node node = (i < matches.size()) ? matches.get(i) : null;
+
+      if (null != node && node.hasProperty("NName")) {
+        Integer hash = node.getStringProperty("NName").hashCode();
+        if (! bins.containsKey(hash)) bins.put(hash, new ArrayList<Node>());
+        bins.get(hash).add(node);
+        count++;
+        continue;
+      }
+
+      // Emit the current run, using a switch statement only if it
+      // avoids at least one test.
+      if (1 < bins.size()) {
+        Node cond = factory.nameSwitch(toIdentifier(matchArg));
+        Node switchn = GNode.ensureVariable(cond.getGeneric(1));
+
+        for (Map.Entry<Integer, List<Node>> e : bins.entrySet()) {
+          switchn.add(makeCase(toLiteral("IntegerLiteral",
+                                         e.getKey().toString()),
+                               e.getValue(), null));
+        }
+        switchn.add(GNode.create("DefaultClause", 
+                                 GNode.create("BreakStatement", null)));
+        cond.set(1, switchn);
+        result.add(cond);
+      } else if (0 < count) {
+        for (List<Node> bin : bins.values()) result.addAll(bin);
+      }
+      bins.clear();
+      count = 0;
+
+      if (null != node) result.add(node);
+    }
+
+    return result;
+  }
         
   /**
    * Transform a typed pattern.
@@ -3184,6 +3184,24 @@ public class TreeFactory {
     return v$4;
   }
 
+  /**
+   * Create a conditional statement.
+   *
+   * @param arg The arg.
+   * @return The generic node.
+   */
+  public Node nameSwitch(Node arg) {
+    Node v$1 = GNode.create("NullLiteral", false);
+    Node v$2 = GNode.create("EqualityExpression", v$1, "!=", arg);
+    Node v$3 = GNode.create("Arguments", false);
+    Node v$4 = GNode.create("CallExpression", arg, null, "getName", v$3);
+    Node v$5 = GNode.create("Arguments", false);
+    Node v$6 = GNode.create("CallExpression", v$4, null, "hashCode", v$5);
+    Node v$7 = GNode.create("SwitchStatement", v$6);
+    Node v$8 = GNode.create("ConditionalStatement", v$2, v$7, null);
+    return v$8;
+  }
+
   /**
    * Create a switch statement.
    *
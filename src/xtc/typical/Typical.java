@@ -29,12 +29,14 @@ import java.io.FileWriter;
 import xtc.lang.JavaPrinter;
 
 import xtc.parser.ParseException;
+import xtc.parser.Result;
 import xtc.tree.GNode;
 import xtc.tree.Node;
 import xtc.tree.Printer;
 import xtc.tree.Visitor;
 
 import xtc.util.Tool;
+import xtc.util.Metrics;
 import xtc.util.Runtime;
 
 import xtc.util.SymbolTable;
@@ -80,7 +82,8 @@ public class Typical extends Tool {
       bool("printSource", "printSource", false,
            "Print the java source code of the generated checker.").
       bool("Oswitch", "optimizeMatch", false,
-           "Use switch statements and type tags for pattern matches.").
+           "Use switch statements on type tags and node names for " +
+           "pattern matches.").
       bool("Ofold-let", "optimizeFoldLet", false,
            "Collapse let expressions where possible.").
       bool("Olet", "optimizeLet", false,
@@ -95,7 +98,9 @@ public class Typical extends Tool {
     typicalName = file.toString();
     TypicalParser parser =
       new TypicalParser(in, file.toString(), (int)file.length());    
-    return (Node)parser.value(parser.pModule(0));
+    Result result = parser.pModule(0);
+    recordMemoization(parser);
+    return (Node)parser.value(result);
   }
 
   public void process(Node ast) {
@@ -118,8 +123,11 @@ public class Typical extends Tool {
     if (null == nodeType) nodeType = "node";
       
     SymbolTable table = null;
+    Metrics.Timer timer = runtime.metrics().start("TypicalAnalyzer");
     TypicalAnalyzer analyzer = new TypicalAnalyzer(runtime, nodeType);
+    analyzer.setTypeVariables(UnionFind.TYPE_VARIABLES);
     table = analyzer.run(ast);
+    timer.stop();
     
     if (0 < runtime.errorCount()) return ;
       
@@ -140,8 +148,10 @@ public class Typical extends Tool {
       
     if (!runtime.test("optionCheckOnly")) {
       Transformer transformer = null;
+      timer = runtime.metrics().start("Transformer");
       transformer = new Transformer((GNode)ast,table,output, runtime);
       transformer.run();
+      timer.stop();
       result_ast = transformer.getCheckerAST();
       types_ast =  transformer.getTypesAST();
       support_ast = transformer.getSupportAST();
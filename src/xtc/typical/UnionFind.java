@@ -0,0 +1,305 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.typical;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import xtc.util.Function;
+
+/**
+ * The store for type variables during unification.  This class
+ * implements array-based union-find over integer variable ids, with
+ * path compression and union by rank.  Each equivalence class of
+ * variables has an optional binding.  Variables are named by
+ * arbitrary objects, usually strings, which are mapped to dense ids
+ * on first use.
+ *
+ * <p />The store also supports the map-like {@link #get(Object)} and
+ * {@link #put(Object,Object)} operations used by Typical's
+ * <code>Map.get</code> and <code>Map.put</code> primitives.  If the
+ * store has a {@link #setVariables(Function.F1) variable
+ * recognizer}, binding a variable to another variable unions the two
+ * variables' classes.  Getting a variable then returns its class's
+ * binding, or a variable naming the class's representative if the
+ * class is unbound.  As a result, resolving a chain of variables
+ * takes a single lookup.  Without a variable recognizer, the store
+ * behaves like a map.
+ *
+ * <p />A store is not thread-safe.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class UnionFind {
+
+  /**
+   * The recognizer for type variables.  Following the convention of
+   * Typical's own type checker, it recognizes variants named
+   * <code>VariableT</code>, whose first member is the variable's name.
+   */
+  public static final Function.F1<Object, Object> TYPE_VARIABLES =
+    new Function.F1<Object, Object>() {
+    public Object apply(Object o) {
+      return ((o instanceof Variant) &&
+              "VariableT".equals(((Variant<?>)o).getName())) ?
+        ((Variant<?>)o).getTuple().get1() : null;
+    }
+  };
+
+  /** The initial capacity. */
+  private static final int CAPACITY = 64;
+
+  /** The map from variable names to ids. */
+  protected final Map<Object, Integer> ids;
+
+  /** The parent of each id. */
+  protected int[] parent;
+
+  /** The rank of each root. */
+  protected byte[] rank;
+
+  /** The binding of each root or <code>null</code> if unbound. */
+  protected Object[] binding;
+
+  /** The representative of each root's class or -1 if none. */
+  protected int[] representative;
+
+  /** The variable naming each root's representative. */
+  protected Object[] variable;
+
+  /** The number of ids. */
+  protected int size;
+
+  /**
+   * The function mapping values that are variables to their names or
+   * <code>null</code> if this store does not recognize variables.
+   */
+  protected Function.F1<Object, Object> variables;
+
+  /** Create a new union-find store. */
+  public UnionFind() {
+    ids            = new HashMap<Object, Integer>();
+    parent         = new int[CAPACITY];
+    rank           = new byte[CAPACITY];
+    binding        = new Object[CAPACITY];
+    representative = new int[CAPACITY];
+    variable       = new Object[CAPACITY];
+    size           = 0;
+  }
+
+  /**
+   * Set the variable recognizer.  The specified function maps a
+   * value to the name of the variable it represents or to
+   * <code>null</code> if the value is not a variable.
+   *
+   * @param variables The variable recognizer or <code>null</code> to
+   *   not recognize variables.
+   */
+  public void setVariables(Function.F1<Object, Object> variables) {
+    this.variables = variables;
+  }
+
+  /**
+   * Get the number of variables.
+   *
+   * @return The number of variables.
+   */
+  public int size() {
+    return size;
+  }
+
+  /** Clear this store. */
+  public void clear() {
+    ids.clear();
+    for (int i=0; i<size; i++) {
+      binding[i]  = null;
+      variable[i] = null;
+    }
+    size = 0;
+  }
+
+  /**
+   * Get the id for the specified variable name, creating a new id
+   * and thus a new singleton class if necessary.
+   *
+   * @param name The name.
+   * @return The id.
+   */
+  public int id(Object name) {
+    Integer id = ids.get(name);
+    if (null != id) return id;
+
+    if (parent.length == size) {
+      final int capacity = 2 * size;
+      int[]     p        = new int[capacity];
+      byte[]    r        = new byte[capacity];
+      Object[]  b        = new Object[capacity];
+      int[]     s        = new int[capacity];
+      Object[]  v        = new Object[capacity];
+      System.arraycopy(parent, 0, p, 0, size);
+      System.arraycopy(rank, 0, r, 0, size);
+      System.arraycopy(binding, 0, b, 0, size);
+      System.arraycopy(representative, 0, s, 0, size);
+      System.arraycopy(variable, 0, v, 0, size);
+      parent         = p;
+      rank           = r;
+      binding        = b;
+      representative = s;
+      variable       = v;
+    }
+
+    final int i       = size++;
+    parent[i]         = i;
+    rank[i]           = 0;
+    binding[i]        = null;
+    representative[i] = -1;
+    variable[i]       = null;
+    ids.put(name, i);
+    return i;
+  }
+
+  /**
+   * Find the root of the specified id's class.  This method halves
+   * the path from the id to the root.
+   *
+   * @param id The id.
+   * @return The root.
+   */
+  public int find(int id) {
+    while (parent[id] != id) {
+      parent[id] = parent[parent[id]];
+      id         = parent[id];
+    }
+    return id;
+  }
+
+  /**
+   * Union the classes of the specified ids.  The united class keeps
+   * the second class's binding and representative if it has them and
+   * the first class's otherwise.
+   *
+   * @param id1 The first id.
+   * @param id2 The second id.
+   * @return The root of the united class.
+   */
+  public int union(int id1, int id2) {
+    final int r1 = find(id1), r2 = find(id2);
+    if (r1 == r2) return r1;
+
+    final Object b = (null != binding[r2]) ? binding[r2] : binding[r1];
+    final int    s;
+    final Object v;
+    if (-1 != representative[r2]) {
+      s = representative[r2];
+      v = variable[r2];
+    } else {
+      s = representative[r1];
+      v = variable[r1];
+    }
+
+    final int root, child;
+    if (rank[r1] < rank[r2]) {
+      root  = r2;
+      child = r1;
+    } else {
+      root  = r1;
+      child = r2;
+      if (rank[r1] == rank[r2]) rank[r1]++;
+    }
+
+    parent[child]         = root;
+    binding[child]        = null;
+    variable[child]       = null;
+    binding[root]         = b;
+    representative[root]  = s;
+    variable[root]        = v;
+    return root;
+  }
+
+  /**
+   * Get the binding of the specified id's class.
+   *
+   * @param id The id.
+   * @return The binding or <code>null</code> if the class is unbound.
+   */
+  public Object binding(int id) {
+    return binding[find(id)];
+  }
+
+  /**
+   * Bind the specified id's class to the specified value.
+   *
+   * @param id The id.
+   * @param value The value.
+   */
+  public void bind(int id, Object value) {
+    binding[find(id)] = value;
+  }
+
+  /**
+   * Get the value of the specified variable.
+   *
+   * @param name The name.
+   * @return The binding of the variable's class, a variable naming
+   *   the class's representative if the class is unbound and the
+   *   variable is not the representative, or <code>null</code>.
+   */
+  public Object get(Object name) {
+    final Integer id = ids.get(name);
+    if (null == id) return null;
+
+    final int r = find(id);
+    if (null != binding[r]) {
+      return binding[r];
+    } else if ((-1 != representative[r]) && (id != representative[r])) {
+      return variable[r];
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * Set the value of the specified variable.  If the value is a
+   * different variable, this method unions the two variables'
+   * classes, with the value's representative becoming the united
+   * class's representative.  Otherwise, it binds the variable's class
+   * to the value.
+   *
+   * @param name The name.
+   * @param value The value.
+   */
+  public void put(Object name, Object value) {
+    final int    id    = id(name);
+    final Object other = (null == variables) ? null : variables.apply(value);
+
+    if ((null == other) || other.equals(name)) {
+      bind(id, value);
+    } else {
+      final int o = id(other);
+      final int r = find(o);
+      if (-1 == representative[r]) {
+        representative[r] = o;
+        variable[r]       = value;
+      }
+      union(id, o);
+    }
+  }
+
+}
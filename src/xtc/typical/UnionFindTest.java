@@ -0,0 +1,248 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.typical;
+
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Unit tests for the union-find store.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class UnionFindTest extends junit.framework.TestCase {
+
+  /** The store under test, either a map or a union-find store. */
+  private Object store;
+
+  /** Create a new test class. */
+  public UnionFindTest() { /* Nothing to do. */ }
+
+  /**
+   * Create a type variable.
+   *
+   * @param name The name.
+   * @return The type variable.
+   */
+  private static Object var(String name) {
+    return new TypicalTypes.VariableT(name, Boolean.FALSE);
+  }
+
+  /**
+   * Get the name of the specified type variable.
+   *
+   * @param o The object.
+   * @return The name or <code>null</code> if the object is not a type
+   *   variable.
+   */
+  private static String name(Object o) {
+    return (String)UnionFind.TYPE_VARIABLES.apply(o);
+  }
+
+  /**
+   * Get the specified variable's value from the store.
+   *
+   * @param key The variable name.
+   * @return The value.
+   */
+  @SuppressWarnings("unchecked")
+  private Object get(Object key) {
+    return (store instanceof UnionFind) ?
+      ((UnionFind)store).get(key) : ((Map<Object, Object>)store).get(key);
+  }
+
+  /**
+   * Set the specified variable's value in the store.
+   *
+   * @param key The variable name.
+   * @param value The value.
+   */
+  @SuppressWarnings("unchecked")
+  private void put(Object key, Object value) {
+    if (store instanceof UnionFind) {
+      ((UnionFind)store).put(key, value);
+    } else {
+      ((Map<Object, Object>)store).put(key, value);
+    }
+  }
+
+  /**
+   * Unify the specified types, following the rules of Typical's
+   * <code>unify</code> function with integers as concrete types.
+   *
+   * @param t1 The first type.
+   * @param t2 The second type.
+   * @return The unified type or <code>null</code> on failure.
+   */
+  private Object unify(Object t1, Object t2) {
+    final String s1 = name(t1), s2 = name(t2);
+
+    if ((null != s1) && (null != s2)) {
+      if (s1.equals(s2)) return t1;
+      final Object t = get(s1);
+      if (null == t) {
+        final Object ty = get(s2);
+        if (null == ty) {
+          put(s1, t2);
+          return t2;
+        }
+        return unify(t1, ty);
+      }
+      return unify(t, t2);
+
+    } else if (null != s1) {
+      final Object t = get(s1);
+      if (null == t) {
+        put(s1, t2);
+        return t2;
+      }
+      return unify(t, t2);
+
+    } else if (null != s2) {
+      return unify(t2, t1);
+
+    } else {
+      return t1.equals(t2) ? t1 : null;
+    }
+  }
+
+  /**
+   * Resolve the specified type.
+   *
+   * @param t The type.
+   * @return The resolved type.
+   */
+  private Object resolve(Object t) {
+    final String s = name(t);
+    if (null == s) return t;
+    final Object b = get(s);
+    return (null == b) ? t : resolve(b);
+  }
+
+  /**
+   * Run a random sequence of unifications and summarize the results.
+   *
+   * @param seed The seed.
+   * @return The summary of unification results, resolved types, and
+   *   the partition of unresolved variables.
+   */
+  private String run(long seed) {
+    final Random        random = new Random(seed);
+    final int           n      = 2 + random.nextInt(30);
+    final StringBuilder buf    = new StringBuilder();
+
+    for (int i=0; i<3*n; i++) {
+      final Object x = var("v" + random.nextInt(n));
+      final Object y = (0 == random.nextInt(4)) ?
+        (Object)Integer.valueOf(random.nextInt(3)) :
+        var("v" + random.nextInt(n));
+
+      final Object t = unify(x, y);
+      if (null == t) {
+        buf.append('F');
+      } else {
+        final Object r = resolve(t);
+        buf.append((null == name(r)) ? "C" + r : "V");
+      }
+      buf.append(',');
+    }
+
+    final Map<String, Integer> classes = new HashMap<String, Integer>();
+    for (int i=0; i<n; i++) {
+      final Object t = resolve(var("v" + i));
+      final String s = name(t);
+      if (null == s) {
+        buf.append('v').append(i).append('=').append(t).append(';');
+      } else {
+        Integer c = classes.get(s);
+        if (null == c) {
+          c = classes.size();
+          classes.put(s, c);
+        }
+        buf.append('v').append(i).append('#').append(c).append(';');
+      }
+    }
+
+    return buf.toString();
+  }
+
+  /** Test the recognizer for type variables. */
+  public void testTypeVariables() {
+    assertEquals("a", name(var("a")));
+    assertNull(name("a"));
+    assertNull(name(new TypicalTypes.IntT()));
+  }
+
+  /** Test that a store without recognizer behaves like a map. */
+  public void testMap() {
+    final UnionFind u = new UnionFind();
+    u.put("a", var("b"));
+    u.put("b", "int");
+    assertEquals(var("b"), u.get("a"));
+    assertEquals("int", u.get("b"));
+    assertNull(u.get("c"));
+    assertEquals(2, u.size());
+  }
+
+  /** Test unions through variable bindings. */
+  public void testUnion() {
+    final UnionFind u = new UnionFind();
+    u.setVariables(UnionFind.TYPE_VARIABLES);
+
+    u.put("a", var("b"));
+    u.put("b", var("c"));
+    assertEquals(var("c"), u.get("a"));
+    assertEquals(var("c"), u.get("b"));
+    assertNull(u.get("c"));
+
+    u.put("c", "int");
+    assertEquals("int", u.get("a"));
+    assertEquals("int", u.get("b"));
+    assertEquals("int", u.get("c"));
+
+    u.clear();
+    assertEquals(0, u.size());
+    assertNull(u.get("a"));
+  }
+
+  /**
+   * Test random unifications with a union-find store against a map.
+   * Both stores must produce the same results, the same resolved
+   * types, and the same partition of unresolved variables.
+   */
+  public void testUnifyAgainstMap() {
+    final Random random = new Random(7);
+
+    for (int i=0; i<20000; i++) {
+      final long seed = random.nextLong();
+
+      store = new Hashtable<Object, Object>();
+      final String expected = run(seed);
+
+      final UnionFind u = new UnionFind();
+      u.setVariables(UnionFind.TYPE_VARIABLES);
+      store = u;
+      assertEquals("seed " + seed, expected, run(seed));
+    }
+  }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.util;
+
+import xtc.tree.Printer;
+
+/**
+ * The interface to scoped symbol tables.  An environment maps
+ * symbols represented as strings to values of any type, with the
+ * mapping being organized into hierarchical, named scopes.  Symbols
+ * are defined in the current scope.  Unqualified symbols are resolved
+ * relative to the current scope and its ancestors, while symbols
+ * qualified by the {@link xtc.Constants#QUALIFIER qualification
+ * character} are resolved relative to the root scope.  This interface
+ * captures the operations common to the mutable {@link SymbolTable}
+ * and the {@link PersistentSymbolTable persistent symbol table}.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public interface Environment {
+
+  /**
+   * Get the unqualified name of the current scope.
+   *
+   * @return The current scope's name.
+   */
+  String currentName();
+
+  /**
+   * Determine whether the specified symbol is defined.  If the symbol
+   * is qualified, this method checks whether the symbol is defined in
+   * the named scope.  Otherwise, it checks whether the symbol is
+   * defined in the current scope or one of its ancestors.
+   *
+   * @param symbol The symbol.
+   * @return <code>true</code> if the specified symbol is defined.
+   */
+  boolean isDefined(String symbol);
+
+  /**
+   * Determine whether the specified symbol is defined in the current
+   * scope.
+   *
+   * @param symbol The unqualified symbol.
+   * @return <code>true</code> if the symbol is defined in the current
+   *   scope.
+   */
+  boolean isDefinedLocally(String symbol);
+
+  /**
+   * Get the value for the specified symbol.  If the symbol is
+   * qualified, this method returns the definition within the named
+   * scope.  Otherwise, it searches the current scope and all its
+   * ancestors, returning the value of the first definition.
+   *
+   * @param symbol The symbol.
+   * @return The corresponding value or <code>null</code> if no such
+   *   definition exists.
+   */
+  Object lookup(String symbol);
+
+  /**
+   * Determine whether the specified key is defined in the current
+   * scope or one of its ancestors.
+   *
+   * @param key The key.
+   * @return <code>true</code> if the key is defined.
+   */
+  boolean isDefined(SymbolKey key);
+
+  /**
+   * Determine whether the specified key is defined in the current
+   * scope.
+   *
+   * @param key The key.
+   * @return <code>true</code> if the key is defined in the current
+   *   scope.
+   */
+  boolean isDefinedLocally(SymbolKey key);
+
+  /**
+   * Get the value for the specified key.  This method searches the
+   * current scope and all its ancestors, returning the value of the
+   * first definition.
+   *
+   * @param key The key.
+   * @return The corresponding value or <code>null</code> if no such
+   *   definition exists.
+   */
+  Object lookup(SymbolKey key);
+
+  /**
+   * Set the specified symbol's value in the current scope.  Any
+   * previous definition in the current scope is replaced.
+   *
+   * @param symbol The unqualified symbol.
+   * @param value The value.
+   */
+  void define(String symbol, Object value);
+
+  /**
+   * Set the specified key's value in the current scope.  Any previous
+   * definition in the current scope is replaced.
+   *
+   * @param key The key.
+   * @param value The value.
+   */
+  void define(SymbolKey key, Object value);
+
+  /**
+   * Enter the scope with the specified unqualified name.  If the
+   * current scope does not have a scope with the specified name, a
+   * new scope with the specified name is created.  In either case,
+   * the scope with that name becomes the current scope.
+   *
+   * @param name The unqualified name.
+   */
+  void enter(String name);
+
+  /**
+   * Exit the current scope.
+   *
+   * @throws IllegalStateException
+   *   Signals that the current scope is the root scope.
+   */
+  void exit();
+
+  /**
+   * Delete the scope with the specified unqualified name from the
+   * current scope, including all its contents.
+   *
+   * @param name The unqualified name.
+   */
+  void delete(String name);
+
+  /**
+   * Create a fresh name incorporating the specified base name.
+   *
+   * @param base The base name.
+   * @return The corresponding fresh name.
+   */
+  String freshName(String base);
+
+  /**
+   * Print this environment's symbols to the specified printer.
+   *
+   * @param printer The printer.
+   * @param all The flag for printing all scopes starting with the
+   *   root instead of only the current scope.
+   */
+  void dump(Printer printer, boolean all);
+
+}
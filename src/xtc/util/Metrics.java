@@ -0,0 +1,437 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.util;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import xtc.tree.Printer;
+
+/**
+ * A collector of per-phase performance metrics.  A metrics collector
+ * tracks named phases, such as reading, parsing, or an analysis
+ * pass, and named counters.  For each phase, it records the elapsed
+ * time in nanoseconds and, if supported by the Java virtual machine,
+ * the number of bytes allocated by the measuring thread.  The
+ * collected metrics can be printed as a console summary, as JSON, or
+ * as comma-separated values.
+ *
+ * <p />Phases are measured with a {@link Timer}:<pre>
+ *   Metrics.Timer t = runtime.metrics().start("CAnalyzer");
+ *   ...
+ *   t.stop();
+ * </pre>
+ * Timers may be nested and used by several threads at the same time.
+ * A disabled metrics collector returns a timer that does nothing,
+ * so that code may be instrumented unconditionally.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class Metrics {
+
+  /** A timer for a single execution of a phase. */
+  public static class Timer {
+
+    /** The metrics collector. */
+    private final Metrics metrics;
+
+    /** The phase name. */
+    private final String phase;
+
+    /** The start time in nanoseconds. */
+    private final long time;
+
+    /** The allocated bytes at the start or -1 if not available. */
+    private final long bytes;
+
+    /** The flag for whether this timer has been stopped. */
+    private boolean stopped;
+
+    /**
+     * Create a new timer.
+     *
+     * @param metrics The metrics collector.
+     * @param phase The phase name.
+     */
+    Timer(Metrics metrics, String phase) {
+      this.metrics = metrics;
+      this.phase   = phase;
+      this.bytes   = (null == metrics) ? -1 : allocatedBytes();
+      this.time    = (null == metrics) ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Stop this timer and record the phase's time and allocated
+     * bytes.  Stopping a timer more than once has no effect on the
+     * recorded metrics beyond the first time.
+     */
+    public void stop() {
+      if ((null == metrics) || stopped) return;
+      stopped = true;
+
+      final long t = System.nanoTime() - time;
+      final long b = (-1 == bytes) ? -1 : allocatedBytes() - bytes;
+      metrics.record(phase, t, b);
+    }
+
+  }
+
+  /** The timer for disabled metrics collectors. */
+  private static final Timer NONE = new Timer(null, null);
+
+  /** The thread management bean or <code>null</code> if unavailable. */
+  private static final com.sun.management.ThreadMXBean threads;
+
+  static {
+    com.sun.management.ThreadMXBean bean = null;
+    try {
+      final java.lang.management.ThreadMXBean b =
+        ManagementFactory.getThreadMXBean();
+      if ((b instanceof com.sun.management.ThreadMXBean) &&
+          ((com.sun.management.ThreadMXBean)b).
+          isThreadAllocatedMemorySupported()) {
+        bean = (com.sun.management.ThreadMXBean)b;
+        bean.setThreadAllocatedMemoryEnabled(true);
+      }
+    } catch (Throwable x) {
+      bean = null;
+    }
+    threads = bean;
+  }
+
+  /**
+   * Get the number of bytes allocated by the current thread.
+   *
+   * @return The number of bytes or -1 if not available.
+   */
+  static long allocatedBytes() {
+    return (null == threads) ? -1 :
+      threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  // ========================================================================
+
+  /** The flag for whether this collector is enabled. */
+  protected final boolean enabled;
+
+  /** The map from phase names to times in nanoseconds. */
+  protected final Map<String, Statistics> times;
+
+  /** The map from phase names to allocated bytes. */
+  protected final Map<String, Statistics> bytes;
+
+  /** The map from counter names to counts. */
+  protected final Map<String, Long> counters;
+
+  /**
+   * Create a new metrics collector.
+   *
+   * @param enabled The flag for whether the collector is enabled.
+   */
+  public Metrics(boolean enabled) {
+    this.enabled  = enabled;
+    this.times    = new LinkedHashMap<String, Statistics>();
+    this.bytes    = new LinkedHashMap<String, Statistics>();
+    this.counters = new TreeMap<String, Long>();
+  }
+
+  /**
+   * Determine whether this collector is enabled.
+   *
+   * @return <code>true</code> if this collector is enabled.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Determine whether allocated bytes are measured.
+   *
+   * @return <code>true</code> if allocated bytes are measured.
+   */
+  public static boolean measuresBytes() {
+    return null != threads;
+  }
+
+  /**
+   * Start timing the specified phase.
+   *
+   * @param phase The phase name.
+   * @return The timer.
+   */
+  public Timer start(String phase) {
+    return enabled ? new Timer(this, phase) : NONE;
+  }
+
+  /**
+   * Record a single execution of the specified phase.
+   *
+   * @param phase The phase name.
+   * @param time The elapsed time in nanoseconds.
+   * @param allocated The allocated bytes or -1 if not available.
+   */
+  public synchronized void record(String phase, long time, long allocated) {
+    if (! enabled) return;
+
+    Statistics t = times.get(phase);
+    if (null == t) {
+      t = new Statistics();
+      times.put(phase, t);
+      bytes.put(phase, new Statistics());
+    }
+    t.add(time);
+    if (-1 != allocated) bytes.get(phase).add(allocated);
+  }
+
+  /**
+   * Increment the specified counter.
+   *
+   * @param counter The counter name.
+   */
+  public void count(String counter) {
+    count(counter, 1);
+  }
+
+  /**
+   * Add the specified amount to the specified counter.
+   *
+   * @param counter The counter name.
+   * @param delta The amount.
+   */
+  public synchronized void count(String counter, long delta) {
+    if (! enabled) return;
+
+    final Long value = counters.get(counter);
+    counters.put(counter, (null == value) ? delta : value + delta);
+  }
+
+  /**
+   * Get the value of the specified counter.
+   *
+   * @param counter The counter name.
+   * @return The value.
+   */
+  public synchronized long counter(String counter) {
+    final Long value = counters.get(counter);
+    return (null == value) ? 0 : value;
+  }
+
+  /**
+   * Get the times for the specified phase.
+   *
+   * @param phase The phase name.
+   * @return The times in nanoseconds or <code>null</code> if the phase
+   *   has not been recorded.
+   */
+  public synchronized Statistics times(String phase) {
+    return times.get(phase);
+  }
+
+  /** Reset this collector. */
+  public synchronized void reset() {
+    times.clear();
+    bytes.clear();
+    counters.clear();
+  }
+
+  // ========================================================================
+
+  /**
+   * Convert the specified number of nanoseconds to milliseconds,
+   * rounded to two digits after the decimal point.
+   *
+   * @param nanos The nanoseconds.
+   * @return The milliseconds.
+   */
+  protected static double millis(double nanos) {
+    return Statistics.round(nanos / 1000000.0);
+  }
+
+  /**
+   * Print a summary of the collected metrics to the specified
+   * printer.  Times are printed in milliseconds and allocated bytes
+   * in kilobytes.
+   *
+   * @param printer The printer.
+   */
+  public synchronized void print(Printer printer) {
+    printer.pln("Legend: phase, count, time (total, ave, p50, p90, p99, max), " +
+                "allocated KB (total, ave)");
+    printer.pln();
+
+    for (Map.Entry<String, Statistics> e : times.entrySet()) {
+      final Statistics t = e.getValue();
+      final Statistics b = bytes.get(e.getKey());
+
+      printer.p(e.getKey()).p(' ').p(t.size()).p(' ').
+        p(millis(t.sum())).p(' ').
+        p(millis(t.mean())).p(' ').
+        p(millis(t.percentile(50))).p(' ').
+        p(millis(t.percentile(90))).p(' ').
+        p(millis(t.percentile(99))).p(' ').
+        p(millis(t.max()));
+      if (0 == b.size()) {
+        printer.pln(" - -");
+      } else {
+        printer.p(' ').p(Statistics.round(b.sum() / 1024.0)).p(' ').
+          pln(Statistics.round(b.mean() / 1024.0));
+      }
+    }
+
+    for (Map.Entry<String, Long> e : counters.entrySet()) {
+      printer.p(e.getKey()).p(" : ").pln(e.getValue());
+    }
+    printer.flush();
+  }
+
+  /**
+   * Print the collected metrics as a JSON object to the specified
+   * printer.  The object has a <code>phases</code> member mapping
+   * each phase to its count, times in nanoseconds, and allocated
+   * bytes, and a <code>counters</code> member mapping each counter
+   * to its value.
+   *
+   * @param printer The printer.
+   */
+  public synchronized void printJSON(Printer printer) {
+    printer.pln('{').incr();
+    printer.indent().pln("\"phases\": {").incr();
+    boolean first = true;
+    for (Map.Entry<String, Statistics> e : times.entrySet()) {
+      final Statistics t = e.getValue();
+      final Statistics b = bytes.get(e.getKey());
+
+      if (first) {
+        first = false;
+      } else {
+        printer.pln(',');
+      }
+      printer.indent().p('"').p(json(e.getKey())).pln("\": {").incr();
+      printer.indent().p("\"count\": ").p(t.size()).pln(',');
+      printer.indent().p("\"totalNanos\": ").p((long)t.sum()).pln(',');
+      printer.indent().p("\"meanNanos\": ").p((long)t.mean()).pln(',');
+      printer.indent().p("\"p50Nanos\": ").p((long)t.percentile(50)).pln(',');
+      printer.indent().p("\"p90Nanos\": ").p((long)t.percentile(90)).pln(',');
+      printer.indent().p("\"p99Nanos\": ").p((long)t.percentile(99)).pln(',');
+      printer.indent().p("\"maxNanos\": ").p((long)t.max()).pln(',');
+      printer.indent().p("\"allocatedBytes\": ");
+      if (0 == b.size()) {
+        printer.pln("null");
+      } else {
+        printer.pln((long)b.sum());
+      }
+      printer.decr().indent().p('}');
+    }
+    if (! first) printer.pln();
+    printer.decr().indent().pln("},");
+
+    printer.indent().pln("\"counters\": {").incr();
+    first = true;
+    for (Map.Entry<String, Long> e : counters.entrySet()) {
+      if (first) {
+        first = false;
+      } else {
+        printer.pln(',');
+      }
+      printer.indent().p('"').p(json(e.getKey())).p("\": ").
+        p(e.getValue());
+    }
+    if (! first) printer.pln();
+    printer.decr().indent().pln('}');
+    printer.decr().pln('}').flush();
+  }
+
+  /**
+   * Print the collected metrics as comma-separated values to the
+   * specified printer.  The output starts with a header line,
+   * followed by one line per phase and one line per counter.  A
+   * counter's line only has the kind, name, and count; allocated
+   * bytes are empty if not available.
+   *
+   * @param printer The printer.
+   */
+  public synchronized void printCSV(Printer printer) {
+    printer.pln("kind,name,count,total_ns,mean_ns,p50_ns,p90_ns,p99_ns," +
+                "max_ns,allocated_bytes");
+
+    for (Map.Entry<String, Statistics> e : times.entrySet()) {
+      final Statistics t = e.getValue();
+      final Statistics b = bytes.get(e.getKey());
+
+      printer.p("phase,").p(csv(e.getKey())).p(',').p(t.size()).p(',').
+        p((long)t.sum()).p(',').
+        p((long)t.mean()).p(',').
+        p((long)t.percentile(50)).p(',').
+        p((long)t.percentile(90)).p(',').
+        p((long)t.percentile(99)).p(',').
+        p((long)t.max()).p(',');
+      if (0 != b.size()) printer.p((long)b.sum());
+      printer.pln();
+    }
+
+    for (Map.Entry<String, Long> e : counters.entrySet()) {
+      printer.p("counter,").p(csv(e.getKey())).p(',').p(e.getValue()).
+        pln(",,,,,,,");
+    }
+    printer.flush();
+  }
+
+  /**
+   * Escape the specified name for a JSON string.  Quotes and
+   * backslashes are escaped with a backslash and control characters
+   * as Unicode escapes.
+   *
+   * @param name The name.
+   * @return The escaped name.
+   */
+  protected static String json(String name) {
+    final StringBuilder buf = new StringBuilder(name.length());
+    for (int i=0; i<name.length(); i++) {
+      final char c = name.charAt(i);
+      if (('"' == c) || ('\\' == c)) {
+        buf.append('\\').append(c);
+      } else if (0x20 > c) {
+        buf.append("\\u00").append(Character.forDigit(c >> 4, 16)).
+          append(Character.forDigit(c & 0xf, 16));
+      } else {
+        buf.append(c);
+      }
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Quote the specified name for comma-separated values if necessary.
+   *
+   * @param name The name.
+   * @return The quoted name.
+   */
+  protected static String csv(String name) {
+    if ((-1 == name.indexOf(',')) && (-1 == name.indexOf('"'))) {
+      return name;
+    } else {
+      return '"' + name.replace("\"", "\"\"") + '"';
+    }
+  }
+
+}
@@ -0,0 +1,288 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.util;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import xtc.tree.Node;
+import xtc.tree.NodeReader;
+import xtc.tree.NodeWriter;
+
+/**
+ * A persistent cache of parsed abstract syntax trees.  The cache is a
+ * directory with one file per tree.  Each file's name is a hash over
+ * the configuration, the canonical path, and the contents of the parsed file,
+ * and each file holds the tree in the {@link NodeWriter binary
+ * encoding}.  The configuration must capture everything besides the
+ * parsed file that affects the tree, notably the tool and its
+ * version.  Hits are {@link NodeReader#map(File) memory-mapped} and
+ * partially decoded on demand.
+ *
+ * <p />The cache's size is capped.  When adding a tree exceeds the
+ * cap, the least recently used trees are deleted, with a file's last
+ * modification time recording its last use.  Trees are written to a
+ * temporary file first and then renamed, so that several processes
+ * can safely share the same cache directory.  A parse cache can also
+ * be shared by several threads.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class ParseCache {
+
+  /** The file extension for cached trees. */
+  public static final String EXTENSION = ".ast";
+
+  /** The directory. */
+  protected final File directory;
+
+  /** The maximum size in bytes. */
+  protected final long capacity;
+
+  /** The configuration. */
+  protected final String configuration;
+
+  /** The writer. */
+  protected final NodeWriter writer;
+
+  /** The approximate size in bytes. */
+  protected long size;
+
+  /** The number of hits. */
+  protected int hits;
+
+  /** The number of misses. */
+  protected int misses;
+
+  /** The number of trees that could not be added. */
+  protected int skipped;
+
+  /**
+   * Create a new parse cache.
+   *
+   * @param directory The directory, which is created if necessary.
+   * @param capacity The maximum size in bytes.
+   * @param configuration The configuration.
+   * @throws IOException Signals that the directory cannot be created.
+   */
+  public ParseCache(File directory, long capacity, String configuration)
+    throws IOException {
+    if ((! directory.isDirectory()) && (! directory.mkdirs())) {
+      throw new IOException(directory + ": unable to create cache directory");
+    }
+
+    this.directory     = directory;
+    this.capacity      = capacity;
+    this.configuration = configuration;
+    this.writer        = new NodeWriter();
+    this.size          = 0;
+    for (File f : entries()) size += f.length();
+  }
+
+  /**
+   * Get the number of hits.
+   *
+   * @return The number of hits.
+   */
+  public synchronized int hits() {
+    return hits;
+  }
+
+  /**
+   * Get the number of misses.
+   *
+   * @return The number of misses.
+   */
+  public synchronized int misses() {
+    return misses;
+  }
+
+  /**
+   * Get the number of trees that could not be added, since they could
+   * not be encoded or written.
+   *
+   * @return The number of skipped trees.
+   */
+  public synchronized int skipped() {
+    return skipped;
+  }
+
+  /**
+   * Determine the key for the specified file.  The key reflects the
+   * file's canonical path, so that different paths to the same file
+   * share an entry.
+   *
+   * @param file The file.
+   * @return The key.
+   * @throws IOException Signals an I/O error while reading the file.
+   */
+  public String key(File file) throws IOException {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException x) {
+      throw new AssertionError("SHA-256 not supported");
+    }
+
+    digest.update(configuration.getBytes("UTF-8"));
+    digest.update((byte)0);
+    digest.update(file.getCanonicalPath().getBytes("UTF-8"));
+    digest.update((byte)0);
+
+    final InputStream in  = new FileInputStream(file);
+    final byte[]      buf = new byte[8192];
+    try {
+      for (int n = in.read(buf); -1 != n; n = in.read(buf)) {
+        digest.update(buf, 0, n);
+      }
+    } finally {
+      in.close();
+    }
+
+    final byte[]        hash = digest.digest();
+    final StringBuilder key  = new StringBuilder(2 * hash.length);
+    for (byte b : hash) {
+      key.append(Character.forDigit((b >> 4) & 0xf, 16));
+      key.append(Character.forDigit(b & 0xf, 16));
+    }
+    return key.toString();
+  }
+
+  /**
+   * Get the tree for the specified key.  If the cached tree cannot be
+   * read or decoded, e.g., because its file has been truncated, this
+   * method deletes the file and counts a miss.
+   *
+   * @param key The key.
+   * @return The tree or <code>null</code> if the cache does not
+   *   contain a tree for the key.
+   */
+  public synchronized Node get(String key) {
+    final File file = new File(directory, key + EXTENSION);
+    if (file.isFile()) {
+      try {
+        final Object root = NodeReader.map(file).root();
+        if (root instanceof Node) {
+          file.setLastModified(System.currentTimeMillis());
+          hits++;
+          return (Node)root;
+        }
+      } catch (IOException x) {
+        // Treat as a miss.
+      } catch (RuntimeException x) {
+        // The file is corrupt.  Treat as a miss.
+      }
+      final long length = file.length();
+      if (file.delete()) size -= length;
+    }
+    misses++;
+    return null;
+  }
+
+  /**
+   * Add the specified tree for the specified key.  If the tree cannot
+   * be encoded or written, this method only counts the tree as
+   * skipped.
+   *
+   * @param key The key.
+   * @param root The tree.
+   * @return <code>true</code> if the tree has been added.
+   */
+  public synchronized boolean put(String key, Node root) {
+    final File file = new File(directory, key + EXTENSION);
+    File       temp = null;
+
+    try {
+      temp = File.createTempFile(key, ".tmp", directory);
+      final OutputStream out = new FileOutputStream(temp);
+      try {
+        writer.write(root, out);
+      } finally {
+        out.close();
+      }
+      if (! temp.renameTo(file)) {
+        file.delete();
+        if (! temp.renameTo(file)) {
+          temp.delete();
+          skipped++;
+          return false;
+        }
+      }
+      size += file.length();
+    } catch (IOException x) {
+      if (null != temp) temp.delete();
+      skipped++;
+      return false;
+    } catch (IllegalArgumentException x) {
+      // The tree contains nodes without a binary encoding.
+      temp.delete();
+      skipped++;
+      return false;
+    }
+
+    if (size > capacity) evict();
+    return true;
+  }
+
+  /** Evict the least recently used trees until below the capacity. */
+  protected void evict() {
+    final File[] entries = entries();
+    Arrays.sort(entries, new Comparator<File>() {
+        public int compare(File f1, File f2) {
+          final long t1 = f1.lastModified(), t2 = f2.lastModified();
+          return (t1 < t2) ? -1 : ((t1 == t2) ? 0 : 1);
+        }
+      });
+
+    size = 0;
+    for (File f : entries) size += f.length();
+
+    for (int i=0; (size > capacity) && (i < entries.length); i++) {
+      final long length = entries[i].length();
+      if (entries[i].delete()) size -= length;
+    }
+  }
+
+  /**
+   * Get the files holding cached trees.
+   *
+   * @return The files.
+   */
+  protected File[] entries() {
+    final File[] entries = directory.listFiles(new FileFilter() {
+        public boolean accept(File f) {
+          return f.getName().endsWith(EXTENSION);
+        }
+      });
+    return (null == entries) ? new File[0] : entries;
+  }
+
+}
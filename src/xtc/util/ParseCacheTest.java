@@ -0,0 +1,122 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+
+import xtc.tree.GNode;
+
+/**
+ * Unit tests for parse caches.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class ParseCacheTest extends junit.framework.TestCase {
+
+  /** The cache directory. */
+  private File directory;
+
+  /** The source file. */
+  private File source;
+
+  /** Create a new test class. */
+  public ParseCacheTest() { /* Nothing to do. */ }
+
+  protected void setUp() throws IOException {
+    directory = File.createTempFile("cache", "");
+    directory.delete();
+    source    = File.createTempFile("source", ".c");
+
+    final Writer out = new FileWriter(source);
+    try {
+      out.write("int x;\n");
+    } finally {
+      out.close();
+    }
+  }
+
+  protected void tearDown() {
+    final File[] files = directory.listFiles();
+    if (null != files) {
+      for (File f : files) f.delete();
+    }
+    directory.delete();
+    source.delete();
+  }
+
+  /**
+   * Create a tree.
+   *
+   * @return The tree.
+   */
+  private static GNode tree() {
+    return GNode.create("TranslationUnit",
+                        GNode.create("Declaration", "int", "x"));
+  }
+
+  /** Test hits and misses. */
+  public void testHitsAndMisses() throws IOException {
+    final ParseCache cache = new ParseCache(directory, 1024 * 1024, "test");
+    final String     key   = cache.key(source);
+
+    assertNull(cache.get(key));
+    assertTrue(cache.put(key, tree()));
+    assertEquals(tree(), cache.get(key));
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+
+    // A different configuration results in a different key.
+    final ParseCache other = new ParseCache(directory, 1024 * 1024, "other");
+    assertFalse(key.equals(other.key(source)));
+    assertNull(other.get(other.key(source)));
+  }
+
+  /** Test that truncated and corrupt entries count as misses. */
+  public void testCorruptEntries() throws IOException {
+    final ParseCache cache = new ParseCache(directory, 1024 * 1024, "test");
+    final String     key   = cache.key(source);
+    final File       file  = new File(directory, key + ParseCache.EXTENSION);
+
+    // Truncate the entry right after its header.
+    assertTrue(cache.put(key, tree()));
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(24);
+    raf.close();
+    assertNull(cache.get(key));
+    assertFalse(file.exists());
+
+    // Corrupt the root reference.
+    assertTrue(cache.put(key, tree()));
+    raf = new RandomAccessFile(file, "rw");
+    raf.seek(8);
+    raf.writeInt(0x7ffffff1);
+    raf.close();
+    assertNull(cache.get(key));
+    assertFalse(file.exists());
+
+    assertEquals(0, cache.hits());
+    assertEquals(2, cache.misses());
+  }
+
+}
@@ -0,0 +1,753 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import xtc.Constants;
+
+import xtc.tree.Node;
+import xtc.tree.Printer;
+
+/**
+ * A persistent symbol table.  This class implements the same scoped
+ * mapping from symbols to values as {@link SymbolTable}, but all
+ * scopes are immutable and share structure: Each scope maps its
+ * symbols and its nested scopes with a persistent hash array mapped
+ * trie, and the current scope is tracked by an immutable chain of
+ * {@link Snapshot snapshots} from the current scope up to the root.
+ * Defining a symbol copies a trie path of at most seven nodes,
+ * entering and exiting a scope are constant time operations unless
+ * the exited scope changed, and unqualified lookups walk the chain
+ * of scopes just like a mutable symbol table.
+ *
+ * <p />As a result, taking a {@link #snapshot() snapshot} of the
+ * entire symbol table and {@link #restore(Snapshot) restoring} it
+ * later takes constant time, which makes backing out of speculative
+ * analysis trivial.  Furthermore, a symbol table can be {@link
+ * #fork() forked} in constant time, e.g., for analyzing sibling
+ * subtrees.  A persistent symbol table object is not thread-safe,
+ * but forks of the same symbol table can be used by different
+ * threads at the same time.  Forks share the counter for {@link
+ * #freshName(String) fresh names}, so that fresh names remain unique
+ * across forks.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class PersistentSymbolTable implements Environment {
+
+  /** The marker for a missing mapping. */
+  static final Object NONE = new Object();
+
+  /**
+   * A persistent hash array mapped trie.  Each trie node consumes
+   * five bits of a key's hash code and stores up to 32 entries in an
+   * array compressed by a bitmap.  Each entry takes two array slots:
+   * either a key followed by its value or <code>null</code> followed
+   * by a nested trie.  Nodes below the last level of hash bits store
+   * colliding keys in a flat array.
+   */
+  static final class Trie {
+
+    /** The empty trie. */
+    static final Trie EMPTY = new Trie(0, new Object[0]);
+
+    /** The bitmap of occupied entries. */
+    final int bitmap;
+
+    /** The array of entries. */
+    final Object[] array;
+
+    /**
+     * Create a new trie.
+     *
+     * @param bitmap The bitmap.
+     * @param array The array.
+     */
+    Trie(int bitmap, Object[] array) {
+      this.bitmap = bitmap;
+      this.array  = array;
+    }
+
+    /**
+     * Determine whether this trie is empty.
+     *
+     * @return <code>true</code> if this trie is empty.
+     */
+    boolean isEmpty() {
+      return 0 == array.length;
+    }
+
+    /**
+     * Get the value for the specified key.
+     *
+     * @param key The key.
+     * @param hash The key's hash code.
+     * @param shift The number of hash bits consumed by ancestors.
+     * @return The value or {@link #NONE} if this trie does not map
+     *   the key.
+     */
+    Object get(Object key, int hash, int shift) {
+      if (32 <= shift) {
+        for (int i=0; i<array.length; i+=2) {
+          if (key.equals(array[i])) return array[i+1];
+        }
+        return NONE;
+      }
+
+      final int bit = 1 << ((hash >>> shift) & 31);
+      if (0 == (bitmap & bit)) return NONE;
+
+      final int    idx = 2 * Integer.bitCount(bitmap & (bit - 1));
+      final Object k   = array[idx];
+      if (null == k) {
+        return ((Trie)array[idx+1]).get(key, hash, shift + 5);
+      } else {
+        return key.equals(k) ? array[idx+1] : NONE;
+      }
+    }
+
+    /**
+     * Map the specified key to the specified value.
+     *
+     * @param key The key.
+     * @param hash The key's hash code.
+     * @param value The value.
+     * @param shift The number of hash bits consumed by ancestors.
+     * @return The updated trie, which is this trie if the key already
+     *   maps to the value.
+     */
+    Trie put(Object key, int hash, Object value, int shift) {
+      if (32 <= shift) {
+        for (int i=0; i<array.length; i+=2) {
+          if (key.equals(array[i])) {
+            return (value == array[i+1]) ? this : replace(i+1, value);
+          }
+        }
+        final Object[] a = new Object[array.length + 2];
+        System.arraycopy(array, 0, a, 0, array.length);
+        a[array.length]   = key;
+        a[array.length+1] = value;
+        return new Trie(0, a);
+      }
+
+      final int bit = 1 << ((hash >>> shift) & 31);
+      final int idx = 2 * Integer.bitCount(bitmap & (bit - 1));
+
+      if (0 == (bitmap & bit)) {
+        final Object[] a = new Object[array.length + 2];
+        System.arraycopy(array, 0, a, 0, idx);
+        a[idx]   = key;
+        a[idx+1] = value;
+        System.arraycopy(array, idx, a, idx + 2, array.length - idx);
+        return new Trie(bitmap | bit, a);
+      }
+
+      final Object k = array[idx], v = array[idx+1];
+      if (null == k) {
+        final Trie t = ((Trie)v).put(key, hash, value, shift + 5);
+        return (t == v) ? this : replace(idx+1, t);
+
+      } else if (key.equals(k)) {
+        return (value == v) ? this : replace(idx+1, value);
+
+      } else {
+        final Trie t = EMPTY.put(k, k.hashCode(), v, shift + 5).
+          put(key, hash, value, shift + 5);
+        final Object[] a = array.clone();
+        a[idx]   = null;
+        a[idx+1] = t;
+        return new Trie(bitmap, a);
+      }
+    }
+
+    /**
+     * Remove the mapping for the specified key.
+     *
+     * @param key The key.
+     * @param hash The key's hash code.
+     * @param shift The number of hash bits consumed by ancestors.
+     * @return The updated trie, which is this trie if it does not map
+     *   the key.
+     */
+    Trie remove(Object key, int hash, int shift) {
+      if (32 <= shift) {
+        for (int i=0; i<array.length; i+=2) {
+          if (key.equals(array[i])) return without(i, 0);
+        }
+        return this;
+      }
+
+      final int bit = 1 << ((hash >>> shift) & 31);
+      if (0 == (bitmap & bit)) return this;
+
+      final int    idx = 2 * Integer.bitCount(bitmap & (bit - 1));
+      final Object k   = array[idx], v = array[idx+1];
+      if (null == k) {
+        final Trie t = ((Trie)v).remove(key, hash, shift + 5);
+        if (t == v) {
+          return this;
+        } else if (t.isEmpty()) {
+          return without(idx, bit);
+        } else if ((2 == t.array.length) && (null != t.array[0])) {
+          // Pull the remaining mapping up into this trie.
+          final Object[] a = array.clone();
+          a[idx]   = t.array[0];
+          a[idx+1] = t.array[1];
+          return new Trie(bitmap, a);
+        } else {
+          return replace(idx+1, t);
+        }
+
+      } else if (key.equals(k)) {
+        return without(idx, bit);
+
+      } else {
+        return this;
+      }
+    }
+
+    /**
+     * Add all mappings in this trie to the specified list, with each
+     * key followed by its value.
+     *
+     * @param list The list.
+     */
+    void addTo(List<Object> list) {
+      for (int i=0; i<array.length; i+=2) {
+        if (null == array[i]) {
+          ((Trie)array[i+1]).addTo(list);
+        } else {
+          list.add(array[i]);
+          list.add(array[i+1]);
+        }
+      }
+    }
+
+    /**
+     * Copy this trie with the specified array slot replaced.
+     *
+     * @param idx The index.
+     * @param o The new slot value.
+     * @return The copy.
+     */
+    private Trie replace(int idx, Object o) {
+      final Object[] a = array.clone();
+      a[idx] = o;
+      return new Trie(bitmap, a);
+    }
+
+    /**
+     * Copy this trie without the specified entry.
+     *
+     * @param idx The index of the entry's first slot.
+     * @param bit The entry's bit.
+     * @return The copy.
+     */
+    private Trie without(int idx, int bit) {
+      if (2 == array.length) return EMPTY;
+
+      final Object[] a = new Object[array.length - 2];
+      System.arraycopy(array, 0, a, 0, idx);
+      System.arraycopy(array, idx + 2, a, idx, array.length - idx - 2);
+      return new Trie(bitmap & ~bit, a);
+    }
+
+  }
+
+  // =========================================================================
+
+  /** An immutable scope. */
+  static final class Scope {
+
+    /** The name. */
+    final String name;
+
+    /** The map from symbols to values. */
+    final Trie symbols;
+
+    /** The map from names to nested scopes. */
+    final Trie scopes;
+
+    /**
+     * Create a new scope.
+     *
+     * @param name The name.
+     * @param symbols The symbols.
+     * @param scopes The nested scopes.
+     */
+    Scope(String name, Trie symbols, Trie scopes) {
+      this.name    = name;
+      this.symbols = symbols;
+      this.scopes  = scopes;
+    }
+
+    /**
+     * Get the value for the specified symbol.
+     *
+     * @param symbol The symbol.
+     * @return The value or {@link #NONE} if this scope does not define
+     *   the symbol.
+     */
+    Object get(String symbol) {
+      return symbols.get(symbol, symbol.hashCode(), 0);
+    }
+
+    /**
+     * Get the nested scope with the specified name.
+     *
+     * @param name The name.
+     * @return The nested scope or <code>null</code> if this scope does
+     *   not have a nested scope with the name.
+     */
+    Scope getNested(String name) {
+      final Object scope = scopes.get(name, name.hashCode(), 0);
+      return (NONE == scope) ? null : (Scope)scope;
+    }
+
+    /**
+     * Define the specified symbol.
+     *
+     * @param symbol The symbol.
+     * @param value The value.
+     * @return The updated scope.
+     */
+    Scope define(String symbol, Object value) {
+      final Trie t = symbols.put(symbol, symbol.hashCode(), value, 0);
+      return (t == symbols) ? this : new Scope(name, t, scopes);
+    }
+
+    /**
+     * Add or replace the specified nested scope.
+     *
+     * @param nested The nested scope.
+     * @return The updated scope.
+     */
+    Scope withNested(Scope nested) {
+      final Trie t = scopes.put(nested.name, nested.name.hashCode(), nested, 0);
+      return (t == scopes) ? this : new Scope(name, symbols, t);
+    }
+
+    /**
+     * Remove the nested scope with the specified name.
+     *
+     * @param name The name.
+     * @return The updated scope.
+     */
+    Scope withoutNested(String name) {
+      final Trie t = scopes.remove(name, name.hashCode(), 0);
+      return (t == scopes) ? this : new Scope(this.name, symbols, t);
+    }
+
+    /**
+     * Print this scope and its nested scopes to the specified printer.
+     *
+     * @param printer The printer.
+     */
+    void dump(Printer printer) {
+      final boolean      hasVisitor = (null != printer.visitor());
+      final List<Object> entries    = new ArrayList<Object>();
+      symbols.addTo(entries);
+
+      printer.indent().p('.').p(name).pln(" = {").incr();
+
+      for (int i=0; i<entries.size(); i+=2) {
+        final String symbol = (String)entries.get(i);
+        final Object value  = entries.get(i+1);
+
+        printer.indent().p(symbol).p(" = ");
+        if (null == value) {
+          printer.p("null");
+        } else if (hasVisitor && (value instanceof Node)) {
+          printer.p((Node)value);
+        } else if (value instanceof String) {
+          printer.p('"').escape((String)value, Utilities.JAVA_ESCAPES).p('"');
+        } else {
+          try {
+            printer.p(value.toString());
+          } catch (final Exception e) {
+            printer.p(value.getClass().getName() + "@?");
+          }
+        }
+        printer.pln(';');
+
+        final Scope nested = getNested(symbol);
+        if (null != nested) nested.dump(printer);
+      }
+
+      entries.clear();
+      scopes.addTo(entries);
+      for (int i=0; i<entries.size(); i+=2) {
+        final Scope nested = (Scope)entries.get(i+1);
+        if (NONE == get(nested.name)) nested.dump(printer);
+      }
+
+      printer.decr().indent().pln("};");
+    }
+
+  }
+
+  // =========================================================================
+
+  /**
+   * An immutable snapshot of a persistent symbol table.  A snapshot
+   * captures the current scope, including its current definitions,
+   * and, through its parent snapshot, all ancestors of the current
+   * scope.
+   */
+  public static final class Snapshot {
+
+    /** The current scope. */
+    final Scope scope;
+
+    /** The snapshot for the parent scope. */
+    final Snapshot parent;
+
+    /** The current scope's qualified name. */
+    final String qName;
+
+    /** The current scope's nesting depth. */
+    final int depth;
+
+    /**
+     * Create a new snapshot.
+     *
+     * @param scope The current scope.
+     * @param parent The snapshot for the parent scope.
+     * @param qName The qualified name.
+     */
+    Snapshot(Scope scope, Snapshot parent, String qName) {
+      this.scope  = scope;
+      this.parent = parent;
+      this.qName  = qName;
+      this.depth  = (null == parent) ? 0 : parent.depth + 1;
+    }
+
+    /**
+     * Get the snapshot with the specified current scope.
+     *
+     * @param scope The updated current scope.
+     * @return The corresponding snapshot.
+     */
+    Snapshot with(Scope scope) {
+      return (scope == this.scope) ? this : new Snapshot(scope, parent, qName);
+    }
+
+  }
+
+  // =========================================================================
+
+  /** The current state. */
+  protected Snapshot state;
+
+  /** The fresh name count. */
+  protected final AtomicInteger freshNameCount;
+
+  /**
+   * Create a new persistent symbol table with the empty string as the
+   * root scope's name.
+   */
+  public PersistentSymbolTable() {
+    this("");
+  }
+
+  /**
+   * Create a new persistent symbol table.
+   *
+   * @param root The name of the root scope.
+   */
+  public PersistentSymbolTable(String root) {
+    this(new Snapshot(new Scope(root, Trie.EMPTY, Trie.EMPTY), null, root),
+         new AtomicInteger());
+  }
+
+  /**
+   * Create a new persistent symbol table.
+   *
+   * @param state The state.
+   * @param freshNameCount The fresh name count.
+   */
+  protected PersistentSymbolTable(Snapshot state, AtomicInteger freshNameCount) {
+    this.state          = state;
+    this.freshNameCount = freshNameCount;
+  }
+
+  // =========================================================================
+
+  /**
+   * Clear this symbol table.  This method deletes all scopes and
+   * their definitions from this symbol table.
+   */
+  public void reset() {
+    Snapshot s = state;
+    while (null != s.parent) s = s.parent;
+
+    state = new Snapshot(new Scope(s.scope.name, Trie.EMPTY, Trie.EMPTY),
+                         null, s.qName);
+    freshNameCount.set(0);
+  }
+
+  /**
+   * Take a snapshot of this symbol table.
+   *
+   * @return The snapshot.
+   */
+  public Snapshot snapshot() {
+    return state;
+  }
+
+  /**
+   * Restore this symbol table to the specified snapshot.  The
+   * snapshot should have been taken from this symbol table or one of
+   * its forks.
+   *
+   * @param snapshot The snapshot.
+   */
+  public void restore(Snapshot snapshot) {
+    state = snapshot;
+  }
+
+  /**
+   * Fork this symbol table.  The returned symbol table starts with
+   * this symbol table's scopes and definitions, but subsequent
+   * changes to either symbol table are not visible in the other.
+   *
+   * @return The fork.
+   */
+  public PersistentSymbolTable fork() {
+    return new PersistentSymbolTable(state, freshNameCount);
+  }
+
+  public String currentName() {
+    return state.scope.name;
+  }
+
+  /**
+   * Get the qualified name of the current scope.
+   *
+   * @return The current scope's qualified name.
+   */
+  public String currentQualifiedName() {
+    return state.qName;
+  }
+
+  /**
+   * Determine whether the current scope is the root scope.
+   *
+   * @return <code>true</code> if the current scope is the root scope.
+   */
+  public boolean isRoot() {
+    return null == state.parent;
+  }
+
+  public boolean isDefined(String symbol) {
+    return NONE != find(symbol);
+  }
+
+  public boolean isDefinedLocally(String symbol) {
+    return NONE != state.scope.get(symbol);
+  }
+
+  public Object lookup(String symbol) {
+    final Object value = find(symbol);
+    return (NONE == value) ? null : value;
+  }
+
+  public boolean isDefined(SymbolKey key) {
+    return NONE != find(key);
+  }
+
+  public boolean isDefinedLocally(SymbolKey key) {
+    return NONE != state.scope.symbols.get(key.symbol, key.hash, 0);
+  }
+
+  public Object lookup(SymbolKey key) {
+    final Object value = find(key);
+    return (NONE == value) ? null : value;
+  }
+
+  /**
+   * Get the value for the specified key.
+   *
+   * @param key The key.
+   * @return The value or {@link #NONE} if no such definition exists.
+   */
+  protected Object find(SymbolKey key) {
+    for (Snapshot s = state; null != s; s = s.parent) {
+      final Object value = s.scope.symbols.get(key.symbol, key.hash, 0);
+      if (NONE != value) return value;
+    }
+    return NONE;
+  }
+
+  /**
+   * Get the value for the specified symbol.
+   *
+   * @param symbol The symbol.
+   * @return The value or {@link #NONE} if no such definition exists.
+   */
+  protected Object find(String symbol) {
+    if (Utilities.isQualified(symbol)) {
+      final Scope scope = getScope(Utilities.getQualifier(symbol));
+      return (null == scope) ? NONE : scope.get(Utilities.getName(symbol));
+    }
+
+    final int hash = symbol.hashCode();
+    for (Snapshot s = state; null != s; s = s.parent) {
+      final Object value = s.scope.symbols.get(symbol, hash, 0);
+      if (NONE != value) return value;
+    }
+    return NONE;
+  }
+
+  /**
+   * Get the scope with the specified qualified name.  Scopes on the
+   * path from the root to the current scope are taken from this
+   * symbol table's snapshots, since their parents have not been
+   * updated yet.
+   *
+   * @param qName The qualified name.
+   * @return The corresponding scope or <code>null</code> if no such
+   *   scope exists.
+   */
+  Scope getScope(String qName) {
+    final String[]   components = Utilities.toComponents(qName);
+    final Snapshot[] path       = new Snapshot[state.depth + 1];
+    for (Snapshot s = state; null != s; s = s.parent) path[s.depth] = s;
+
+    Scope   scope  = path[0].scope.name.equals(components[0]) ?
+      path[0].scope : null;
+    boolean onPath = true;
+
+    for (int i=1; (null != scope) && (i<components.length); i++) {
+      if (onPath && (i < path.length) &&
+          path[i].scope.name.equals(components[i])) {
+        scope  = path[i].scope;
+      } else {
+        onPath = false;
+        scope  = scope.getNested(components[i]);
+      }
+    }
+
+    return scope;
+  }
+
+  public void define(String symbol, Object value) {
+    state = state.with(state.scope.define(symbol, value));
+  }
+
+  public void define(SymbolKey key, Object value) {
+    state = state.with(state.scope.define(key.symbol, value));
+  }
+
+  public void enter(String name) {
+    Scope child = state.scope.getNested(name);
+    if (null == child) child = new Scope(name, Trie.EMPTY, Trie.EMPTY);
+    state = new Snapshot(child, state, Utilities.qualify(state.qName, name));
+  }
+
+  public void exit() {
+    final Snapshot parent = state.parent;
+    if (null == parent) {
+      throw new IllegalStateException("Unable to exit root scope");
+    }
+
+    if (parent.scope.getNested(state.scope.name) == state.scope) {
+      state = parent;
+    } else {
+      state = parent.with(parent.scope.withNested(state.scope));
+    }
+  }
+
+  public void delete(String name) {
+    state = state.with(state.scope.withoutNested(name));
+  }
+
+  public String freshName(String base) {
+    StringBuilder buf = new StringBuilder();
+    buf.append(base);
+    buf.append(Constants.START_OPAQUE);
+    buf.append(freshNameCount.getAndIncrement());
+    buf.append(Constants.END_OPAQUE);
+    return buf.toString();
+  }
+
+  public void dump(Printer printer, boolean all) {
+    (all ? root() : state.scope).dump(printer);
+  }
+
+  /**
+   * Get the root scope, updated with all changes to the scopes on the
+   * path to the current scope.
+   *
+   * @return The root scope.
+   */
+  Scope root() {
+    Scope scope = state.scope;
+    for (Snapshot s = state.parent; null != s; s = s.parent) {
+      scope = s.scope.withNested(scope);
+    }
+    return scope;
+  }
+
+  /**
+   * Convert this persistent symbol table into a mutable symbol table.
+   * The returned symbol table has the same scopes, definitions,
+   * current scope, and fresh name count as this symbol table.
+   *
+   * @return The mutable symbol table.
+   */
+  public SymbolTable toSymbolTable() {
+    final Scope       root  = root();
+    final SymbolTable table = new SymbolTable(root.name);
+    copy(root, table);
+    table.setScope(table.getScope(state.qName));
+    table.freshNameCount = freshNameCount.get();
+    return table;
+  }
+
+  /**
+   * Copy the specified scope's definitions and nested scopes into the
+   * specified symbol table's current scope.
+   *
+   * @param scope The scope.
+   * @param table The symbol table.
+   */
+  private static void copy(Scope scope, SymbolTable table) {
+    final List<Object> entries = new ArrayList<Object>();
+    scope.symbols.addTo(entries);
+    for (int i=0; i<entries.size(); i+=2) {
+      table.define((String)entries.get(i), entries.get(i+1));
+    }
+
+    entries.clear();
+    scope.scopes.addTo(entries);
+    for (int i=0; i<entries.size(); i+=2) {
+      final Scope nested = (Scope)entries.get(i+1);
+      table.enter(nested.name);
+      copy(nested, table);
+      table.exit();
+    }
+  }
+
+}
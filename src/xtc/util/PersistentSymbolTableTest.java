@@ -0,0 +1,268 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.util;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Unit tests for persistent symbol tables.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public class PersistentSymbolTableTest extends junit.framework.TestCase {
+
+  /** A key with an explicit hash code. */
+  static final class Key {
+
+    /** The name. */
+    final String name;
+
+    /** The hash code. */
+    final int hash;
+
+    /**
+     * Create a new key.
+     *
+     * @param name The name.
+     * @param hash The hash code.
+     */
+    Key(String name, int hash) {
+      this.name = name;
+      this.hash = hash;
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+
+    public boolean equals(Object o) {
+      return (o instanceof Key) && name.equals(((Key)o).name);
+    }
+
+    public String toString() {
+      return name;
+    }
+
+  }
+
+  /** Create a new test class. */
+  public PersistentSymbolTableTest() { /* Nothing to do. */ }
+
+  /**
+   * Put the specified key into the specified trie.
+   *
+   * @param t The trie.
+   * @param k The key.
+   * @param v The value.
+   * @return The updated trie.
+   */
+  private static PersistentSymbolTable.Trie put(PersistentSymbolTable.Trie t,
+                                                Key k, Object v) {
+    return t.put(k, k.hash, v, 0);
+  }
+
+  /**
+   * Get the value for the specified key from the specified trie.
+   *
+   * @param t The trie.
+   * @param k The key.
+   * @return The value.
+   */
+  private static Object get(PersistentSymbolTable.Trie t, Key k) {
+    return t.get(k, k.hash, 0);
+  }
+
+  /**
+   * Remove the specified key from the specified trie.
+   *
+   * @param t The trie.
+   * @param k The key.
+   * @return The updated trie.
+   */
+  private static PersistentSymbolTable.Trie remove(PersistentSymbolTable.Trie t,
+                                                   Key k) {
+    return t.remove(k, k.hash, 0);
+  }
+
+  /** Test keys whose hash codes agree in all 32 bits. */
+  public void testFullCollisions() {
+    final Key a = new Key("a", 0x12345678);
+    final Key b = new Key("b", 0x12345678);
+    final Key c = new Key("c", 0x12345678);
+
+    PersistentSymbolTable.Trie t = PersistentSymbolTable.Trie.EMPTY;
+    t = put(put(put(t, a, "1"), b, "2"), c, "3");
+    assertEquals("1", get(t, a));
+    assertEquals("2", get(t, b));
+    assertEquals("3", get(t, c));
+    assertSame(PersistentSymbolTable.NONE, get(t, new Key("d", 0x12345678)));
+
+    final PersistentSymbolTable.Trie t2 = put(t, b, "4");
+    assertEquals("4", get(t2, b));
+    assertEquals("2", get(t, b));
+    assertSame(t2, put(t2, b, get(t2, b)));
+
+    PersistentSymbolTable.Trie t3 = remove(t2, b);
+    assertSame(PersistentSymbolTable.NONE, get(t3, b));
+    assertEquals("1", get(t3, a));
+    assertEquals("3", get(t3, c));
+    assertSame(t3, remove(t3, b));
+
+    t3 = remove(remove(t3, a), c);
+    assertTrue(t3.isEmpty());
+
+    // Also check strings with the same hash code.
+    assertEquals("Aa".hashCode(), "BB".hashCode());
+    PersistentSymbolTable.Trie t4 = PersistentSymbolTable.Trie.EMPTY;
+    t4 = t4.put("Aa", "Aa".hashCode(), "x", 0).
+      put("BB", "BB".hashCode(), "y", 0);
+    assertEquals("x", t4.get("Aa", "Aa".hashCode(), 0));
+    assertEquals("y", t4.get("BB", "BB".hashCode(), 0));
+  }
+
+  /** Test that removal pulls a lone remaining mapping up. */
+  public void testRemovePullUp() {
+    // Both keys share the first five hash bits.
+    final Key a = new Key("a", 1);
+    final Key b = new Key("b", 1 | (1 << 5));
+
+    final PersistentSymbolTable.Trie t =
+      put(put(PersistentSymbolTable.Trie.EMPTY, a, "1"), b, "2");
+    assertNull(t.array[0]);
+    assertEquals("1", get(t, a));
+    assertEquals("2", get(t, b));
+
+    final PersistentSymbolTable.Trie t2 = remove(t, a);
+    assertEquals(2, t2.array.length);
+    assertSame(b, t2.array[0]);
+    assertEquals("2", get(t2, b));
+    assertSame(PersistentSymbolTable.NONE, get(t2, a));
+
+    assertTrue(remove(t2, b).isEmpty());
+  }
+
+  /** Test random operations against a hash map. */
+  public void testRandomOperations() {
+    final Random random = new Random(9);
+    final HashMap<Key, Integer> map = new HashMap<Key, Integer>();
+    PersistentSymbolTable.Trie t = PersistentSymbolTable.Trie.EMPTY;
+
+    for (int i=0; i<20000; i++) {
+      // Use few hash codes to force deep tries and collisions.
+      final int r = random.nextInt(200);
+      final Key k = new Key("k" + r, (r % 7) * 0x10101010 + (r % 3));
+      if (random.nextInt(3) == 0) {
+        map.remove(k);
+        t = remove(t, k);
+      } else {
+        map.put(k, i);
+        t = put(t, k, i);
+      }
+    }
+
+    for (int r=0; r<200; r++) {
+      final Key    k = new Key("k" + r, (r % 7) * 0x10101010 + (r % 3));
+      final Object v = get(t, k);
+      if (map.containsKey(k)) {
+        assertEquals(map.get(k), v);
+      } else {
+        assertSame(PersistentSymbolTable.NONE, v);
+      }
+    }
+  }
+
+  /** Test qualified lookups in scopes off the current path. */
+  public void testQualifiedLookup() {
+    final PersistentSymbolTable table = new PersistentSymbolTable();
+
+    table.enter("a");
+    table.define("x", "ax");
+    table.enter("b");
+    table.define("x", "bx");
+    final String qb = table.currentQualifiedName();
+    table.exit();
+    table.enter("c");
+    table.define("y", "cy");
+    final String qc = table.currentQualifiedName();
+
+    // Scope b is off the current path, while a and c are on it and
+    // have not been updated in their parents yet.
+    assertEquals("bx", table.lookup(Utilities.qualify(qb, "x")));
+    assertEquals("cy", table.lookup(Utilities.qualify(qc, "y")));
+    assertEquals("ax", table.lookup("x"));
+    assertNull(table.lookup(Utilities.qualify(qb, "y")));
+    assertFalse(table.isDefined(Utilities.qualify(qc, "x")));
+
+    table.exit();
+    table.exit();
+    assertEquals("bx", table.lookup(Utilities.qualify(qb, "x")));
+    assertEquals("cy", table.lookup(Utilities.qualify(qc, "y")));
+  }
+
+  /** Test snapshots. */
+  public void testSnapshot() {
+    final PersistentSymbolTable table = new PersistentSymbolTable();
+    table.define("x", "1");
+    final PersistentSymbolTable.Snapshot s = table.snapshot();
+
+    table.enter("a");
+    table.define("x", "2");
+    final String qa = table.currentQualifiedName();
+    assertEquals("2", table.lookup("x"));
+    table.exit();
+    assertNotNull(table.getScope(qa));
+
+    table.restore(s);
+    assertTrue(table.isRoot());
+    assertEquals("1", table.lookup("x"));
+    assertNull(table.getScope(qa));
+  }
+
+  /** Test the conversion into a mutable symbol table. */
+  public void testToSymbolTable() {
+    final PersistentSymbolTable table = new PersistentSymbolTable();
+    table.define("x", "1");
+    table.freshName("tmp");
+    table.enter("a");
+    table.define("y", "2");
+    table.enter("b");
+    table.define("z", "3");
+    table.exit();
+    table.enter("c");
+    table.define("x", "4");
+
+    final SymbolTable copy = table.toSymbolTable();
+    assertEquals(table.currentQualifiedName(),
+                 copy.current().getQualifiedName());
+    assertEquals("4", copy.lookup("x"));
+    assertEquals("2", copy.lookup("y"));
+    assertNull(copy.lookup("z"));
+    assertEquals("3", copy.root().getNested("a").getNested("b").
+                 lookupLocally("z"));
+    assertEquals("1", copy.root().lookupLocally("x"));
+    assertEquals(table.freshName("tmp"), copy.freshName("tmp"));
+
+    copy.exit();
+    copy.exit();
+    assertTrue(copy.current().isRoot());
+  }
+
+}
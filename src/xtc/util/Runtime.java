@@ -35,6 +35,12 @@ import java.io.Writer;
 
 import java.io.StringReader;
 
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -102,11 +108,21 @@ public class Runtime {
   /** The actual options. */
   protected final Map<String, Object> options;
 
+  /**
+   * The per-thread console printers.  If a thread has its own
+   * printers, they take precedence over the console and error
+   * console.
+   */
+  protected final ThreadLocal<Printer[]> localConsoles;
+
   /** The error count. */
-  protected int errors;
+  protected volatile int errors;
 
   /** The warning count. */
-  protected int warnings;
+  protected volatile int warnings;
+
+  /** The metrics collector. */
+  protected Metrics metrics;
 
   // ========================================================================
 
@@ -116,16 +132,18 @@ public class Runtime {
    * directory.
    */
   public Runtime() {
-    console     = new
-      Printer(new BufferedWriter(new OutputStreamWriter(System.out)));
-    errConsole  = new
+    console       = new
+      Printer(new OutputStreamWriter(System.out), Printer.BUFFER_SIZE);
+    errConsole    = new
       Printer(new BufferedWriter(new OutputStreamWriter(System.err)));
-    optionList  = new ArrayList<Option>();
-    externalMap = new HashMap<String, Option>();
-    internalMap = new HashMap<String, Option>();
-    options     = new HashMap<String, Object>();
-    errors      = 0;
-    warnings    = 0;
+    optionList    = new ArrayList<Option>();
+    externalMap   = new HashMap<String, Option>();
+    internalMap   = new HashMap<String, Option>();
+    options       = new HashMap<String, Object>();
+    localConsoles = new ThreadLocal<Printer[]>();
+    errors        = 0;
+    warnings      = 0;
+    metrics       = new Metrics(false);
   }
 
   // ========================================================================
@@ -136,7 +154,8 @@ public class Runtime {
    * @return A printer to the console.
    */
   public Printer console() {
-    return console;
+    final Printer[] local = localConsoles.get();
+    return (null == local) ? console : local[0];
   }
 
   /**
@@ -155,7 +174,8 @@ public class Runtime {
    * @return A printer to the error console.
    */
   public Printer errConsole() {
-    return errConsole;
+    final Printer[] local = localConsoles.get();
+    return (null == local) ? errConsole : local[1];
   }
 
   /**
@@ -168,6 +188,47 @@ public class Runtime {
     errConsole = console;
   }
 
+  /**
+   * Set the console and error console for the current thread.  Until
+   * {@link #clearLocalConsoles() cleared}, {@link #console()} and
+   * {@link #errConsole()} return the specified printers when invoked
+   * from the current thread.  This method lets several threads
+   * buffer their output independently.
+   *
+   * @param console The thread's console.
+   * @param errConsole The thread's error console.
+   */
+  public void setLocalConsoles(Printer console, Printer errConsole) {
+    localConsoles.set(new Printer[] { console, errConsole });
+  }
+
+  /** Clear the console and error console for the current thread. */
+  public void clearLocalConsoles() {
+    localConsoles.remove();
+  }
+
+  // ========================================================================
+
+  /**
+   * Get the metrics collector.  Unless {@link #setMetrics(Metrics)
+   * replaced}, the collector is disabled and thus does not record any
+   * metrics.
+   *
+   * @return The metrics collector.
+   */
+  public Metrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * Update the metrics collector.
+   *
+   * @param metrics The new metrics collector.
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
   // ========================================================================
 
   /**
@@ -899,6 +960,45 @@ public class Runtime {
     return getReader(new FileInputStream(file));
   }
 
+  /**
+   * Get a buffer with the entire contents of the specified file.
+   * This method memory-maps the file and decodes it in one step,
+   * using this runtime's input encoding.
+   *
+   * @see #INPUT_ENCODING
+   *
+   * @param file The file.
+   * @return The corresponding character buffer.
+   * @throws UnsupportedEncodingException
+   *   Signals that this runtime's encoding is not valid.
+   * @throws IOException Signals an I/O error.
+   */
+  public CharBuffer getBuffer(File file) throws IOException {
+    String  encoding = (String)options.get(INPUT_ENCODING);
+    Charset charset;
+
+    if (null == encoding) {
+      charset = Charset.defaultCharset();
+    } else {
+      try {
+        charset = Charset.forName(encoding);
+      } catch (IllegalCharsetNameException x) {
+        throw new UnsupportedEncodingException(encoding);
+      } catch (UnsupportedCharsetException x) {
+        throw new UnsupportedEncodingException(encoding);
+      }
+    }
+
+    FileInputStream in = new FileInputStream(file);
+    try {
+      FileChannel channel = in.getChannel();
+      return charset.decode(channel.map(FileChannel.MapMode.READ_ONLY,
+                                        0, channel.size()));
+    } finally {
+      in.close();
+    }
+  }
+
   /**
    * Get a reader for the specified input stream.  The reader uses
    * this runtime's input encoding and is buffered.
@@ -986,9 +1086,20 @@ public class Runtime {
     return errors;
   }
 
+  /**
+   * Get the current warning count.
+   *
+   * @return The current warning count.
+   */
+  public int warningCount() {
+    return warnings;
+  }
+
   /** Record an error reported through another means. */
   public void error() {
-    errors++;
+    synchronized (this) {
+      errors++;
+    }
   }
 
   /**
@@ -997,8 +1108,8 @@ public class Runtime {
    * @param msg The error message.
    */
   public void error(String msg) {
-    errConsole.p("error: ").pln(msg).flush();
-    errors++;
+    errConsole().p("error: ").pln(msg).flush();
+    error();
   }
   
   /**
@@ -1008,13 +1119,15 @@ public class Runtime {
    * @param n The offending node.
    */
   public void error(String msg, Node n) {
-    errConsole.loc(n).p(": ");
+    errConsole().loc(n).p(": ");
     error(msg);
   }
 
   /** Record a warning reported through another means. */
   public void warning() {
-    warnings++;
+    synchronized (this) {
+      warnings++;
+    }
   }
 
   /**
@@ -1023,8 +1136,8 @@ public class Runtime {
    * @param msg The warning message.
    */
   public void warning(String msg) {
-    errConsole.p("warning: ").pln(msg).flush();
-    warnings++;
+    errConsole().p("warning: ").pln(msg).flush();
+    warning();
   }
 
   /**
@@ -1034,7 +1147,7 @@ public class Runtime {
    * @param n The offending node.
    */
   public void warning(String msg, Node n) {
-    errConsole.loc(n).p(": ");
+    errConsole().loc(n).p(": ");
     warning(msg);
   }
 
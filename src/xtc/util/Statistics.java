@@ -122,6 +122,42 @@ public class Statistics {
     }
   }
 
+  /**
+   * Calculate the specified percentile.  This method uses the
+   * nearest-rank method and, like {@link #median()}, sorts a copy of
+   * the numbers in this collection.
+   *
+   * @param p The percentile between 0 and 100.
+   * @return The percentile.
+   */
+  public double percentile(final double p) {
+    if (0 == size()) {
+      return 0;
+
+    } else {
+      List<Double> sorted = new ArrayList<Double>(numbers);
+      Collections.sort(sorted);
+      final int rank = (int)Math.ceil(p / 100 * size());
+      return sorted.get(Math.min(Math.max(rank - 1, 0), size() - 1));
+    }
+  }
+
+  /**
+   * Calculate the maximum.
+   *
+   * @return The maximum.
+   */
+  public double max() {
+    double max = 0;
+
+    final int size = numbers.size();
+    for (int i=0; i<size; i++) {
+      if ((0 == i) || (max < numbers.get(i))) max = numbers.get(i);
+    }
+
+    return max;
+  }
+
   /**
    * Calculate the standard deviation.
    *
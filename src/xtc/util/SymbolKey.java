@@ -0,0 +1,269 @@
+/*
+ * xtc - The eXTensible Compiler
+ * Copyright (C) 2009 Robert Grimm
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301,
+ * USA.
+ */
+package xtc.util;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An unqualified symbol in a name space.  A symbol key combines a
+ * {@link Space name space} with a name and caches the corresponding
+ * {@link SymbolTable#toNameSpace mangled} symbol and its hash code.
+ * As a result, looking up a symbol with a key, e.g., through {@link
+ * SymbolTable.Scope#lookup(SymbolKey)}, does not create a new string
+ * for every reference to the symbol.  Keys in the {@link #DEFAULT
+ * default} name space map to the unmangled name.
+ *
+ * <p />Keys are values: Two keys are equal if they have the same
+ * name space and name.  Code that resolves the same names over and
+ * over again should retain the keys, e.g., in a {@link Cache key
+ * cache} owned by the analyzer.  Name spaces are retained for the
+ * lifetime of the Java virtual machine and may be created by several
+ * threads at the same time.
+ *
+ * @author Robert Grimm
+ * @version $Revision$
+ */
+public final class SymbolKey {
+
+  /** A name space. */
+  public static final class Space {
+
+    /** The id. */
+    final int id;
+
+    /** The name or <code>null</code> for the default name space. */
+    final String name;
+
+    /**
+     * Create a new name space.
+     *
+     * @param id The id.
+     * @param name The name.
+     */
+    Space(int id, String name) {
+      this.id   = id;
+      this.name = name;
+    }
+
+    /**
+     * Get this name space's id.  Ids are small integers, with the
+     * default name space having id 0.
+     *
+     * @return The id.
+     */
+    public int getId() {
+      return id;
+    }
+
+    /**
+     * Get this name space's name.
+     *
+     * @return The name or <code>null</code> for the default name
+     *   space.
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Get the key for the specified name in this name space.
+     *
+     * @param name The unqualified name.
+     * @return The corresponding key.
+     */
+    public SymbolKey key(String name) {
+      return new SymbolKey(this, name);
+    }
+
+    public String toString() {
+      return null == name ? "default" : name;
+    }
+
+  }
+
+  // =========================================================================
+
+  /**
+   * A cache of keys for a name space.  A cache returns the same key
+   * for the same name and is not thread-safe.
+   */
+  public static final class Cache {
+
+    /** The name space. */
+    private final Space space;
+
+    /** The map from names to keys. */
+    private final HashMap<String, SymbolKey> keys;
+
+    /**
+     * Create a new key cache.
+     *
+     * @param space The name space.
+     */
+    public Cache(Space space) {
+      this.space = space;
+      this.keys  = new HashMap<String, SymbolKey>();
+    }
+
+    /**
+     * Get the key for the specified name.
+     *
+     * @param name The unqualified name.
+     * @return The corresponding key.
+     */
+    public SymbolKey key(String name) {
+      SymbolKey key = keys.get(name);
+      if (null == key) {
+        key = space.key(name);
+        keys.put(name, key);
+      }
+      return key;
+    }
+
+    /** Clear this cache. */
+    public void clear() {
+      keys.clear();
+    }
+
+  }
+
+  // =========================================================================
+
+  /** The map from names to name spaces. */
+  private static final ConcurrentHashMap<String, Space> spaces =
+    new ConcurrentHashMap<String, Space>();
+
+  /** The default name space. */
+  public static final Space DEFAULT = new Space(0, null);
+
+  // =========================================================================
+
+  /** The name space. */
+  final Space space;
+
+  /** The name. */
+  final String name;
+
+  /** The mangled symbol. */
+  final String symbol;
+
+  /** The symbol's hash code. */
+  final int hash;
+
+  /**
+   * Create a new symbol key.
+   *
+   * @param space The name space.
+   * @param name The name.
+   */
+  private SymbolKey(Space space, String name) {
+    this.space  = space;
+    this.name   = name;
+    this.symbol = (null == space.name) ? name :
+      SymbolTable.toNameSpace(name, space.name);
+    this.hash   = symbol.hashCode();
+  }
+
+  /**
+   * Get this key's name space.
+   *
+   * @return The name space.
+   */
+  public Space getSpace() {
+    return space;
+  }
+
+  /**
+   * Get this key's name.
+   *
+   * @return The unqualified name.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Get this key's mangled symbol.
+   *
+   * @return The symbol.
+   */
+  public String symbol() {
+    return symbol;
+  }
+
+  public int hashCode() {
+    return hash;
+  }
+
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (! (o instanceof SymbolKey)) return false;
+    final SymbolKey other = (SymbolKey)o;
+    return (space.id == other.space.id) && name.equals(other.name);
+  }
+
+  public String toString() {
+    return symbol;
+  }
+
+  // =========================================================================
+
+  /**
+   * Get the name space with the specified name.
+   *
+   * @param name The name.
+   * @return The corresponding name space.
+   */
+  public static Space space(String name) {
+    Space space = spaces.get(name);
+    if (null == space) {
+      synchronized (spaces) {
+        space = spaces.get(name);
+        if (null == space) {
+          space = new Space(spaces.size() + 1, name);
+          spaces.put(name, space);
+        }
+      }
+    }
+    return space;
+  }
+
+  /**
+   * Get the key for the specified name in the default name space.
+   *
+   * @param name The unqualified name.
+   * @return The corresponding key.
+   */
+  public static SymbolKey of(String name) {
+    return DEFAULT.key(name);
+  }
+
+  /**
+   * Get the key for the specified name in the specified name space.
+   *
+   * @param name The unqualified name.
+   * @param space The name of the name space.
+   * @return The corresponding key.
+   */
+  public static SymbolKey of(String name, String space) {
+    return space(space).key(name);
+  }
+
+}
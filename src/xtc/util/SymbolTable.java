@@ -58,12 +58,17 @@ import xtc.tree.Printer;
  * name in any name space besides the default name space is prefixed
  * by the name of the name space and an opening parenthesis
  * '<code>(</code>' and suffixed by a closing parenthesis
- * '<code>)</code>'.
+ * '<code>)</code>'.  Alternatively, scopes can be accessed with
+ * {@link SymbolKey symbol keys}, which cache the mangled symbols.
+ *
+ * <p />This class implements the {@link Environment} interface, with
+ * definitions and scope changes modifying the symbol table in place.
+ * {@link PersistentSymbolTable} provides an immutable alternative.
  *
  * @author Robert Grimm
  * @version $Revision: 1.34 $
  */
-public class SymbolTable {
+public class SymbolTable implements Environment {
 
   /**
    * A symbol table scope.  A scope has a name and may have a parent
@@ -448,6 +453,93 @@ public class SymbolTable {
       symbols.put(symbol, value);
     }
 
+    /**
+     * Determine whether this scope has a local definition for the
+     * specified key.
+     *
+     * @param key The key.
+     * @return <code>true</code> if this scope has a local definition
+     *   for the key.
+     */
+    public boolean isDefinedLocally(SymbolKey key) {
+      return (null == symbols)? false : symbols.containsKey(key.symbol);
+    }
+
+    /**
+     * Determine whether the specified key is defined in this scope or
+     * any of its ancestors.
+     *
+     * @param key The key.
+     * @return <code>true</code> if the key is defined.
+     */
+    public boolean isDefined(SymbolKey key) {
+      return (null != lookupScope(key));
+    }
+
+    /**
+     * Get the scope defining the specified key.  This method searches
+     * this scope and all its ancestors, returning the first defining
+     * scope.
+     *
+     * @param key The key.
+     * @return The defining scope or <code>null</code> if there is no
+     *   such scope.
+     */
+    public Scope lookupScope(SymbolKey key) {
+      Scope scope = this;
+      do {
+        if ((null != scope.symbols) && (scope.symbols.containsKey(key.symbol))) {
+          return scope;
+        }
+        scope = scope.parent;
+      } while (null != scope);
+      return null;
+    }
+
+    /**
+     * Get the value for the specified key.  This method searches this
+     * scope and all its ancestors, returning the value of the first
+     * definition.
+     *
+     * @param key The key.
+     * @return The corresponding value or <code>null</code> if there is
+     *   no definition.
+     */
+    public Object lookup(SymbolKey key) {
+      Scope scope = this;
+      do {
+        if (null != scope.symbols) {
+          final Object value = scope.symbols.get(key.symbol);
+          if ((null != value) || scope.symbols.containsKey(key.symbol)) {
+            return value;
+          }
+        }
+        scope = scope.parent;
+      } while (null != scope);
+      return null;
+    }
+
+    /**
+     * Get the value for the specified key in this scope.
+     *
+     * @param key The key.
+     * @return The corresponding value or <code>null</code> if there is
+     *   no local definition.
+     */
+    public Object lookupLocally(SymbolKey key) {
+      return (null == symbols)? null : symbols.get(key.symbol);
+    }
+
+    /**
+     * Set the specified key's value in this scope.
+     *
+     * @param key The key.
+     * @param value The value.
+     */
+    public void define(SymbolKey key, Object value) {
+      define(key.symbol, value);
+    }
+
     /**
      * Add the specified value to the specified symbol's values in
      * this scope.
@@ -625,6 +717,10 @@ public class SymbolTable {
     return current;
   }
 
+  public String currentName() {
+    return current.name;
+  }
+
   /**
    * Get the scope with the specified qualified name.
    *
@@ -711,6 +807,22 @@ public class SymbolTable {
     }
   }
 
+  public boolean isDefinedLocally(String symbol) {
+    return current.isDefinedLocally(symbol);
+  }
+
+  public boolean isDefined(SymbolKey key) {
+    return current.isDefined(key);
+  }
+
+  public boolean isDefinedLocally(SymbolKey key) {
+    return current.isDefinedLocally(key);
+  }
+
+  public Object lookup(SymbolKey key) {
+    return current.lookup(key);
+  }
+
   /**
    * Get the scope for the specified symbol.  If the symbol is
    * qualified, this method returns the named scope (without checking
@@ -750,6 +862,14 @@ public class SymbolTable {
     }
   }
 
+  public void define(String symbol, Object value) {
+    current.define(symbol, value);
+  }
+
+  public void define(SymbolKey key, Object value) {
+    current.define(key, value);
+  }
+
   /**
    * Enter the scope with the specified unqualified name.  If the
    * current scope does not have a scope with the specified name, a
@@ -794,6 +914,10 @@ public class SymbolTable {
     }
   }
 
+  public void dump(Printer printer, boolean all) {
+    (all ? root : current).dump(printer);
+  }
+
   /**
    * Determine whether the specified node has an associated {@link
    * Constants#SCOPE scope}.
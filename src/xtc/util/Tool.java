@@ -21,20 +21,35 @@ package xtc.util;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 
+import java.nio.CharBuffer;
+
 import java.text.DateFormat;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import xtc.Constants;
 
 import xtc.parser.ParseException;
+import xtc.parser.ParserBase;
 
 import xtc.tree.Printer;
 import xtc.tree.Node;
 import xtc.tree.VisitingException;
+import xtc.tree.Visitor;
 
 /**
  * The superclass of all tools.
@@ -44,9 +59,42 @@ import xtc.tree.VisitingException;
  */
 public abstract class Tool {
 
+  /** The result of locating and parsing a file on a worker thread. */
+  private static final class Job {
+
+    /** The file name. */
+    final String name;
+
+    /** The buffered console output. */
+    final StringWriter out;
+
+    /** The buffered error console output. */
+    final StringWriter err;
+
+    /**
+     * Create a new job.
+     *
+     * @param name The file name.
+     */
+    Job(String name) {
+      this.name = name;
+      this.out  = new StringWriter();
+      this.err  = new StringWriter();
+    }
+
+  }
+
+  // ========================================================================
+
   /** The runtime. */
   protected final Runtime runtime;
 
+  /**
+   * The parse cache or <code>null</code> if parsed files are not
+   * cached.
+   */
+  protected ParseCache cache;
+
   /** Create a new tool. */
   public Tool() {
     runtime = new Runtime();
@@ -131,6 +179,21 @@ public abstract class Tool {
    * <li>a boolean option <code>optionGC</code> for performing
    * GC,</li>
    *
+   * <li>a word option <code>optionParseCache</code> for the
+   * directory caching parsed files,</li>
+   *
+   * <li>an integer option <code>optionParseCacheSize</code> with a
+   * default of 64 for the parse cache's maximum size in
+   * megabytes,</li>
+   *
+   * <li>an integer option <code>optionJobs</code> with a default of 1
+   * for the number of threads parsing and processing files, which
+   * only takes effect for {@link #isThreadSafe() thread-safe}
+   * tools,</li>
+   *
+   * <li>a word option <code>optionMetrics</code> for the file to
+   * write per-phase metrics to,</li>
+   *
    * <li>an integer option <code>runsWarmUp</code> with a default of 2
    * for the number of warm-up runs,</li>
    *
@@ -165,6 +228,17 @@ public abstract class Tool {
            "Measure processing performance only.").
       bool("gc", "optionGC", false,
            "Perform GC before each operation.").
+      word("cache", "optionParseCache", false,
+           "Cache parsed files in the specified directory.").
+      number("cacheSize", "optionParseCacheSize", 64,
+             "Limit the parse cache to the specified number of megabytes.  " +
+             "The default is 64.").
+      number("jobs", "optionJobs", 1,
+             "Parse and process files with the specified number of threads, " +
+             "if supported by the tool.  The default is 1.").
+      word("metrics", "optionMetrics", false,
+           "Collect per-phase metrics and write them to the specified file, " +
+           "as CSV if the name ends in .csv and as JSON otherwise.").
       number("warmupRuns", "runsWarmUp", 2,
              "Perform the specified number of warm-up runs.  The default is 2.").
       number("totalRuns", "runsTotal", 12,
@@ -179,7 +253,11 @@ public abstract class Tool {
    * implementation invokes {@link Runtime#initDefaultValues()}.  It
    * also checks that the <code>optionSilent</code> and
    * <code>optionVerbose</code> flags are not both set at the same
-   * time.
+   * time.  Finally, it opens the parse cache if requested, {@link
+   * #isCacheable() supported}, and not measuring performance, and it
+   * enables the runtime's {@link
+   * Runtime#metrics() metrics collector} and the counting of visitor
+   * dispatches if metrics are requested.
    *
    * @see #wrapUp()
    */
@@ -201,6 +279,146 @@ public abstract class Tool {
         (! runtime.test("optionPerformance"))) {
       runtime.setValue("optionPerformance", true);
     }
+    if ((null != runtime.getValue("optionParseCache")) &&
+        (! isCacheable())) {
+      runtime.warning("parse cache not supported, ignoring -cache");
+    } else if ((null != runtime.getValue("optionParseCache")) &&
+               (! runtime.test("optionPerformance"))) {
+      try {
+        cache = new ParseCache(new File(runtime.getString("optionParseCache")),
+                               runtime.getInt("optionParseCacheSize") *
+                               1024L * 1024L, getCacheConfiguration());
+      } catch (IOException x) {
+        runtime.error(x.getMessage());
+      }
+    }
+    if (null != runtime.getValue("optionMetrics")) {
+      runtime.setMetrics(new Metrics(true));
+      Visitor.countDispatches(true);
+    }
+  }
+
+  /**
+   * Determine whether this tool supports the parse cache.  Since a
+   * cache hit skips {@link #parse(Reader,File)} and {@link
+   * #parse(CharBuffer,File)}, a tool may only support the cache if
+   * these methods have no effects besides returning the AST and
+   * reporting errors.  In particular, they must not record any
+   * per-file state for {@link #process(Node)}.  The default
+   * implementation returns <code>false</code>.
+   *
+   * @return <code>true</code> if this tool supports the parse cache.
+   */
+  public boolean isCacheable() {
+    return false;
+  }
+
+  /**
+   * Get the configuration for the parse cache.  The configuration
+   * must capture everything besides a parsed file's path and contents
+   * that affects the file's AST.  The default implementation returns
+   * this tool's class name and version, followed by the input
+   * encoding.  Subclasses should append the values of all options
+   * that affect parsing, but no other options, so that runs with
+   * different options for processing still share cached trees.
+   *
+   * @return The configuration.
+   */
+  protected String getCacheConfiguration() {
+    return getClass().getName() + ' ' + getVersion() + " encoding=" +
+      runtime.getValue(Runtime.INPUT_ENCODING);
+  }
+
+  /**
+   * Parse the specified file, consulting the parse cache if
+   * available.  On a cache miss, this method parses the file and, if
+   * parsing succeeds without reporting any errors or warnings, adds
+   * the resulting AST to the cache before returning it.  If the AST
+   * cannot be added, this method prints a note when verbose.  It records
+   * the <code>cache</code>, <code>read</code>, and <code>parse</code>
+   * phases with the runtime's {@link Runtime#metrics() metrics
+   * collector}.
+   *
+   * @param file The file.
+   * @return The AST corresponding to the file's contents, or
+   *   <code>null</code> if no tree has been generated.
+   * @throws IllegalArgumentException Signals an inappropriate file
+   *   (e.g., one that is too large).
+   * @throws IOException Signals an I/O error.
+   * @throws ParseException Signals a parse error.
+   */
+  protected Node parse(File file) throws IOException, ParseException {
+    final Metrics metrics = runtime.metrics();
+    Metrics.Timer timer;
+
+    final String key = (null == cache) ? null : cache.key(file);
+    if (null != key) {
+      timer           = metrics.start("cache");
+      final Node root = cache.get(key);
+      timer.stop();
+      if (null != root) return root;
+    }
+
+    final int errors   = runtime.errorCount();
+    final int warnings = runtime.warningCount();
+
+    Node root;
+    if (isBuffered(file)) {
+      timer = metrics.start("read");
+      final CharBuffer buffer = runtime.getBuffer(file);
+      timer.stop();
+
+      timer = metrics.start("parse");
+      root  = parse(buffer, file);
+      timer.stop();
+
+    } else {
+      // Open the file.
+      Reader in = runtime.getReader(file);
+
+      try {
+        timer = metrics.start("parse");
+        root  = parse(in, file);
+        timer.stop();
+      } finally {
+        // Close the file.
+        try {
+          in.close();
+        } catch (IOException x) {
+          // Ignore.
+        }
+      }
+    }
+
+    if ((null != key) && (null != root) &&
+        (errors == runtime.errorCount()) &&
+        (warnings == runtime.warningCount())) {
+      if ((! cache.put(key, root)) && runtime.test("optionVerbose")) {
+        runtime.console().p("Not caching ").p(file.getPath()).
+          pln(": unable to encode or write AST").flush();
+      }
+    }
+    return root;
+  }
+
+  /**
+   * Record the specified parser's memoization hits and misses with
+   * the runtime's {@link Runtime#metrics() metrics collector}.  The
+   * <code>parser.memo.hits</code> and <code>parser.memo.misses</code>
+   * counters are only updated if non-zero, i.e., if the parser has
+   * been generated with the <code>profile</code> attribute.  Tools
+   * should invoke this method once after each parse.
+   *
+   * @param parser The parser.
+   */
+  protected void recordMemoization(ParserBase parser) {
+    final Metrics metrics = runtime.metrics();
+    if (! metrics.isEnabled()) return;
+
+    final long hits   = parser.memoHits();
+    final long misses = parser.memoMisses();
+    if (0 != hits)   metrics.count("parser.memo.hits", hits);
+    if (0 != misses) metrics.count("parser.memo.misses", misses);
   }
 
   /**
@@ -247,6 +465,60 @@ public abstract class Tool {
   public abstract Node parse(Reader in, File file)
     throws IOException, ParseException;
 
+  /**
+   * Determine whether to parse the specified file from a buffer
+   * holding its entire contents.  If this method returns
+   * <code>true</code>, {@link #process(String)} and {@link
+   * #run(String[])} parse the file through {@link
+   * #parse(CharBuffer,File)} instead of {@link #parse(Reader,File)}.
+   * The default implementation returns <code>false</code>.
+   *
+   * @param file The file.
+   * @return <code>true</code> if the file should be parsed from a
+   *   buffer.
+   */
+  public boolean isBuffered(File file) {
+    return false;
+  }
+
+  /**
+   * Parse the specified file from a buffer holding its entire
+   * contents.  The default implementation simply parses the buffer's
+   * contents through {@link #parse(Reader,File)}.
+   *
+   * @param in The buffer with the file's contents.
+   * @param file The corresponding file.
+   * @return The AST corresponding to the file's contents, or
+   *   <code>null</code> if no tree has been generated.
+   * @throws IllegalArgumentException Signals an inappropriate file
+   *   (e.g., one that is too large).
+   * @throws IOException Signals an I/O error.
+   * @throws ParseException Signals a parse error.
+   */
+  public Node parse(CharBuffer in, File file)
+    throws IOException, ParseException {
+    return parse(new StringReader(in.toString()), file);
+  }
+
+  /**
+   * Determine whether this tool is thread-safe, i.e., whether {@link
+   * #parse(File)}, {@link #parse(Reader,File)}, {@link
+   * #parse(CharBuffer,File)}, and {@link #process(Node)} may be
+   * invoked for several files at the same time.  A thread-safe tool
+   * must not keep per-file state in its fields.  If this method
+   * returns <code>true</code> and the <code>optionJobs</code> option
+   * is larger than 1, {@link #run(String[])} parses and processes
+   * files on several threads.  Otherwise, it parses and processes
+   * all files on the main thread.  The default implementation
+   * returns <code>false</code>.
+   *
+   * @return <code>true</code> if this tool can parse and process
+   *   several files at the same time.
+   */
+  public boolean isThreadSafe() {
+    return false;
+  }
+
   /**
    * Process the specified AST node.  This method is only invoked if
    * {@link #parse(Reader,File)} has completed successfuly, has
@@ -282,21 +554,8 @@ public abstract class Tool {
     // Locate the file.
     File file = locate(name);
 
-    // Open the file.
-    Reader in = runtime.getReader(file);
-
     // Parse the file.
-    Node root;
-    try {
-      root = parse(in, file);
-    } finally {
-      // Close the file.
-      try {
-        in.close();
-      } catch (IOException x) {
-        // Ignore.
-      }
-    }
+    Node root = parse(file);
 
     // Process the AST.
     process(root);
@@ -422,6 +681,7 @@ public abstract class Tool {
     }
 
     // Process the files.
+    final Metrics    metrics     = runtime.metrics();
     final boolean    silent      = runtime.test("optionSilent");
     final boolean    doGC        = runtime.test("optionGC");
     final boolean    measure     = runtime.test("optionPerformance");
@@ -441,6 +701,13 @@ public abstract class Tool {
         pln("memory (ave, med, stdev)").pln().flush();
     }
 
+    // If using several threads, process the files concurrently.
+    final int jobs = runtime.getInt("optionJobs");
+    if ((1 < jobs) && (! measure) && isThreadSafe()) {
+      runConcurrently(args, index, jobs);
+      index = args.length;
+    }
+
     while (index < args.length) {
       // If we are neither silent nor measuring, report on activity.
       if ((! silent) && (! measure)) {
@@ -492,14 +759,12 @@ public abstract class Tool {
           long startMemory = 0;
           if (measure && (! processOnly)) {
             startMemory = java.lang.Runtime.getRuntime().freeMemory();
-            startTime   = System.currentTimeMillis();
+            startTime   = System.nanoTime();
           }
 
           // Parse the input.
-          Reader in = null;
           try {
-            in      = runtime.getReader(file);
-            ast     = parse(in, file);
+            ast     = parse(file);
             success = true;
 
           } catch (IllegalArgumentException x) {
@@ -525,27 +790,20 @@ public abstract class Tool {
           } catch (Throwable x) {
             runtime.error();
             x.printStackTrace();
-
-          } finally {
-            if (null != in) {
-              try {
-                in.close();
-              } catch (IOException x) {
-                // Nothing to see here. Move on.
-              }
-            }
           }
 
           if (success && (null != ast) && (! parserOnly)) {
             // Measure processing only if requested.
             if (measure && processOnly) {
               startMemory = java.lang.Runtime.getRuntime().freeMemory();
-              startTime   = System.currentTimeMillis();
+              startTime   = System.nanoTime();
             }
 
             // Process the AST.
             try {
+              final Metrics.Timer timer = metrics.start("process");
               process(ast);
+              timer.stop();
             } catch (VisitingException x) {
               runtime.error();
               x.getCause().printStackTrace();
@@ -557,11 +815,11 @@ public abstract class Tool {
 
           // Collect performance data for this run if requested.
           if (measure) {
-            final long endTime   = System.currentTimeMillis();
+            final long endTime   = System.nanoTime();
             final long endMemory = java.lang.Runtime.getRuntime().freeMemory();
             
             if (i >= warmUp) {
-              time.add(endTime - startTime);
+              time.add((endTime - startTime) / 1000000.0);
               memory.add(startMemory - endMemory);
             }
           }
@@ -581,7 +839,7 @@ public abstract class Tool {
           runtime.console().p(args[index]).p(' ').
             p(fileSize).p(' ').
             p(Statistics.round(latency)).p(' ').
-            p(time.median()).p(' ').
+            p(Statistics.round(time.median())).p(' ').
             p(Statistics.round(time.stdev())).p(' ').
             p(Statistics.round(heapSize)).p(' ').
             p(memory.median()).p(' ').
@@ -596,6 +854,13 @@ public abstract class Tool {
     // Wrap up.
     wrapUp();
 
+    // Report on the parse cache.
+    if ((null != cache) && (! silent)) {
+      runtime.console().p("Parse cache: ").p(cache.hits()).p(" hits, ").
+        p(cache.misses()).p(" misses, ").p(cache.skipped()).
+        pln(" skipped").flush();
+    }
+
     // Print overall statistics, if requested.
     if (measure) {
       final double totalTime   = latencies.sum();
@@ -614,8 +879,203 @@ public abstract class Tool {
         pln(":1").flush();
     }
 
+    // Print and write the metrics, if requested.
+    if (metrics.isEnabled()) {
+      writeMetrics(runtime.getString("optionMetrics"));
+    }
+
     // Done.
     if (! runtime.test("optionNoExit")) runtime.exit();
   }
 
+  /**
+   * Print and write the collected metrics.  This method adds the
+   * number of visitor dispatches to the runtime's {@link
+   * Runtime#metrics() metrics collector}, prints a summary to the
+   * console unless silent, and writes the metrics to the specified
+   * file, as CSV if the file name ends in <code>.csv</code> and as
+   * JSON otherwise.
+   *
+   * @param name The file name.
+   */
+  protected void writeMetrics(String name) {
+    final Metrics metrics = runtime.metrics();
+    metrics.count("visitor.dispatches", Visitor.dispatchCount());
+    Visitor.countDispatches(false);
+
+    if (! runtime.test("optionSilent")) {
+      runtime.console().pln();
+      metrics.print(runtime.console());
+    }
+
+    try {
+      final Printer out = new Printer(runtime.getWriter(new File(name)));
+      if (name.endsWith(".csv")) {
+        metrics.printCSV(out);
+      } else {
+        metrics.printJSON(out);
+      }
+      out.close();
+    } catch (IOException x) {
+      if (null == x.getMessage()) {
+        runtime.error(name + ": I/O error");
+      } else {
+        runtime.error(name + ": " + x.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Locate, parse, and process the files with the specified names
+   * concurrently.  This method parses and processes the files on a
+   * pool of worker threads and must only be invoked for {@link
+   * #isThreadSafe() thread-safe} tools.  Each worker buffers all
+   * console output for a file through {@link
+   * Runtime#setLocalConsoles(Printer,Printer)}.  The main thread then
+   * prints each file's output in the order of the command line, so
+   * that the output is the same as for sequential processing.
+   *
+   * @param args The command line arguments.
+   * @param index The index of the first file name.
+   * @param jobs The number of worker threads.
+   */
+  protected void runConcurrently(final String[] args, int index, int jobs) {
+    final boolean         silent  = runtime.test("optionSilent");
+    final ExecutorService pool    = Executors.newFixedThreadPool(jobs);
+    final List<Future<Job>> futures = new ArrayList<Future<Job>>();
+
+    for (int i=index; i<args.length; i++) {
+      final String name = args[i];
+      futures.add(pool.submit(new Callable<Job>() {
+          public Job call() {
+            return work(name);
+          }
+        }));
+    }
+    pool.shutdown();
+
+    for (int i=index; i<args.length; i++) {
+      if (! silent) {
+        runtime.console().p("Processing ").p(args[i]).pln(" ...").flush();
+      }
+
+      Job job;
+      try {
+        job = futures.get(i - index).get();
+      } catch (InterruptedException x) {
+        runtime.error(args[i] + ": interrupted");
+        continue;
+      } catch (ExecutionException x) {
+        runtime.error();
+        printStackTrace(x.getCause());
+        continue;
+      }
+
+      runtime.console().p(job.out.toString()).flush();
+      runtime.errConsole().p(job.err.toString()).flush();
+    }
+  }
+
+  /**
+   * Locate, parse, and process the file with the specified name on a
+   * worker thread, buffering all console output.
+   *
+   * @param name The file name.
+   * @return The job.
+   */
+  private Job work(String name) {
+    final Job     job = new Job(name);
+    final Printer out = new Printer(job.out);
+    final Printer err = new Printer(job.err);
+
+    runtime.setLocalConsoles(out, err);
+    try {
+      File file = null;
+      try {
+        file = locate(name);
+      } catch (Throwable x) {
+        report(name, x);
+      }
+
+      Node    ast     = null;
+      boolean success = false;
+      if (null != file) {
+        try {
+          ast     = parse(file);
+          success = true;
+        } catch (Throwable x) {
+          report(name, x);
+        }
+      }
+
+      if (success && (null != ast)) processAndReport(ast);
+    } finally {
+      out.flush();
+      err.flush();
+      runtime.clearLocalConsoles();
+    }
+
+    return job;
+  }
+
+  /**
+   * Process the specified AST, reporting any exceptions as errors.
+   *
+   * @param ast The AST.
+   */
+  private void processAndReport(Node ast) {
+    try {
+      final Metrics.Timer timer = runtime.metrics().start("process");
+      process(ast);
+      timer.stop();
+    } catch (VisitingException x) {
+      runtime.error();
+      printStackTrace(x.getCause());
+    } catch (Throwable x) {
+      runtime.error();
+      printStackTrace(x);
+    }
+  }
+
+  /**
+   * Report the specified exception, which has been raised while
+   * locating or parsing the file with the specified name.
+   *
+   * @param name The file name.
+   * @param x The exception.
+   */
+  private void report(String name, Throwable x) {
+    if ((x instanceof IllegalArgumentException) ||
+        (x instanceof FileNotFoundException) ||
+        (x instanceof UnsupportedEncodingException)) {
+      runtime.error(x.getMessage());
+
+    } else if (x instanceof IOException) {
+      if (null == x.getMessage()) {
+        runtime.error(name + ": I/O error");
+      } else {
+        runtime.error(name + ": " + x.getMessage());
+      }
+
+    } else if (x instanceof ParseException) {
+      runtime.error();
+      runtime.errConsole().p(x.getMessage()).flush();
+
+    } else {
+      runtime.error();
+      printStackTrace(x);
+    }
+  }
+
+  /**
+   * Print the specified exception's stack trace to the error console.
+   *
+   * @param x The exception.
+   */
+  private void printStackTrace(Throwable x) {
+    final StringWriter trace = new StringWriter();
+    x.printStackTrace(new PrintWriter(trace));
+    runtime.errConsole().p(trace.toString()).flush();
+  }
+
 }